@@ -16,7 +16,7 @@ public class TestGradleVersions {
         );
     }
 
-    static String current() {
+    public static String current() {
         return latest8();
     }
 
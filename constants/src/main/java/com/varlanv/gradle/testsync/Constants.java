@@ -10,11 +10,75 @@ class Constants {
     static final String SYNCHRONIZER_JAR = "synchronizer-" + PLUGIN_VERSION + ".jar";
     static final String SYNCHRONIZER_JAR_RESOURCE = "/" + SYNCHRONIZER_JAR;
     static final String EXTENSION_NAME = "testSync";
+    static final String REPORT_TASK_NAME = "testSyncReport";
+    static final String STATUS_TASK_NAME = "testSyncStatus";
     static final String BUILD_SERVICE_NAME = "__internal_test_sync_plugin_bs__";
     static final String SYNC_FILE_NAME_BASE = "syncfile_";
     static final String PLUGIN_NAME = "com.varlanv.testsync";
     static final String TAG_SEPARATOR = "_:_:_";
     static final String SYNC_PROPERTY_SEPARATOR = ":___:";
     static final String SYNC_PROPERTY = "com.varlanv.gradle.build.sync";
+    static final String SYNC_ATOMIC_ACQUISITION_PROPERTY = "com.varlanv.gradle.build.sync.atomic";
+    static final String SYNC_PREFETCH_PROPERTY = "com.varlanv.gradle.build.sync.prefetch";
+    static final String SYNC_VERBOSE_PROPERTY = "com.varlanv.gradle.build.sync.verbose";
+    static final String SYNC_TRACE_PROPERTY = "com.varlanv.gradle.build.sync.trace";
+    static final String SYNC_MODULE_PROPERTY = "com.varlanv.gradle.build.sync.module";
+    static final String SYNC_BACKEND_PROPERTY = "com.varlanv.gradle.build.sync.backend";
+    static final String SYNC_TRACE_FOLDER_PROPERTY = "com.varlanv.gradle.build.sync.traceFolder";
+    static final String SYNC_OPTION_SEPARATOR = "=";
+    static final String SYNC_OPTION_PERMITS = "permits";
+    static final String SYNC_OPTION_RESOURCE_LOCK = "resourceLock";
+    static final String SYNC_OPTION_SCOPE = "scope";
+    static final String SYNC_OPTION_COORDINATOR = "coordinator";
+    static final String SYNC_OPTION_LEASE = "lease";
+    static final String SYNC_OPTION_MAX_WAIT = "maxWait";
+    static final String SYNC_OPTION_ON_MAX_WAIT = "onMaxWait";
+    static final String SYNC_OPTION_DUMP_HOLDER_STACK = "dumpHolderStack";
+    static final String SYNC_OPTION_FIFO = "fifo";
+    static final String SYNC_OPTION_COALESCE = "coalesce";
+    static final String SYNC_OPTION_COALESCE_TESTS = "coalesceTests";
+    static final String SYNC_OPTION_SHARED_WITHIN_JVM = "sharedWithinJvm";
+    /**
+     * Prefix of the test tag that sets priority of the test in the queue of its sync tags, e.g. {@code testsync.priority=10}.
+     */
+    static final String PRIORITY_TAG_PREFIX = "testsync.priority=";
+    static final String ON_MAX_WAIT_FAIL = "fail";
+    static final String ON_MAX_WAIT_SKIP = "skip";
+    static final String JUPITER_EXTENSIONS_AUTODETECTION_PROPERTY = "junit.jupiter.extensions.autodetection.enabled";
+    static final String JUPITER_EXTENSIONS_AUTODETECTION_INCLUDE_PROPERTY = "junit.jupiter.extensions.autodetection.include";
+    static final String JUPITER_EXTENSIONS_AUTODETECTION_EXCLUDE_PROPERTY = "junit.jupiter.extensions.autodetection.exclude";
+    static final String LOCK_WAIT_TIMEOUT_EXTENSION = "com.varlanv.gradle.testsync.LockWaitTimeoutExtension";
+    static final String JUPITER_CLASS_ORDER_PROPERTY = "junit.jupiter.testclass.order.default";
+    static final String JUPITER_METHOD_ORDER_PROPERTY = "junit.jupiter.testmethod.order.default";
+    static final String LOCK_AFFINITY_CLASS_ORDERER = "com.varlanv.gradle.testsync.LockAffinityClassOrderer";
+    static final String LOCK_AFFINITY_METHOD_ORDERER = "com.varlanv.gradle.testsync.LockAffinityMethodOrderer";
     static final String SYNC_FOLDER_PREFIX = "varlanvtestsync_";
+    /**
+     * Prefix of the sync folder shared by builds that use the same namespace, followed by the namespace key.
+     */
+    static final String NAMESPACE_FOLDER_PREFIX = SYNC_FOLDER_PREFIX + "ns_";
+    static final String NAMESPACE_GUARD_FILE_NAME = "namespace.lock";
+    static final String NAMESPACE_MEMBER_FILE_PREFIX = "build_";
+    static final String NAMESPACE_TRACE_FOLDER_PREFIX = "traces_";
+    static final String LEASE_FILE_PREFIX = "lease_";
+    static final String LEASE_HOLD = "H";
+    static final String LEASE_WAIT = "W";
+    static final String STACK_REQUEST_FILE_PREFIX = "stackrequest_";
+    static final String STACK_FILE_PREFIX = "stack_";
+    static final String TRACE_FILE_PREFIX = "trace_";
+    static final int TRACE_MAGIC = 0x54535452;
+    static final int TRACE_VERSION = 2;
+    static final int TRACE_HEADER_SIZE = 4096;
+    static final int TRACE_RECORD_SIZE = 32;
+    static final int TRACE_CAPACITY = 1 << 16;
+    static final int TRACE_NAMES_SIZE = 1 << 22;
+    static final int TRACE_EVENT_REQUESTED = 1;
+    static final int TRACE_EVENT_ACQUIRED = 2;
+    static final int TRACE_EVENT_RELEASED = 3;
+    static final String BACKEND_FILE = "file";
+    static final String BACKEND_MMAP = "mmap";
+    static final String MMAP_LOCKS_FILE_NAME = "locks_mmap";
+    static final String BACKEND_DAEMON = "daemon";
+    static final String BACKEND_TCP = "tcp";
+    static final String COORDINATOR_SOCKET_FILE_NAME = "coordinator.sock";
 }
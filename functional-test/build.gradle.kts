@@ -12,3 +12,28 @@ internalConvention {
 dependencies {
     implementation(projects.plugin)
 }
+
+// End-to-end benchmark on generated builds, see EndToEndBenchmark. Parameters are passed as Gradle properties,
+// for example `./gradlew e2eBenchmark -Ptestsync.benchmark.modules=200 -Ptestsync.benchmark.taggedFraction=0.1`.
+sourceSets.matching { it.name == "functionalTest" }.all {
+    val functionalTestSourceSet = this
+    tasks.register<Test>("e2eBenchmark") {
+        group = "benchmark"
+        description = "Measures wall clock, overhead and lock utilization of the plugin on a generated multi-module build"
+        testClassesDirs = functionalTestSourceSet.output.classesDirs
+        classpath = functionalTestSourceSet.runtimeClasspath
+        useJUnitPlatform()
+        filter {
+            includeTestsMatching("*.EndToEndBenchmark")
+        }
+        systemProperty("testsync.benchmark", "true")
+        systemProperty("testsync.benchmark.output", layout.buildDirectory.dir("reports/e2e-benchmark").get().asFile.absolutePath)
+        listOf("modules", "testsPerModule", "tags", "taggedFraction", "testDurationMillis").forEach { name ->
+            providers.gradleProperty("testsync.benchmark.$name").orNull?.let { systemProperty("testsync.benchmark.$name", it) }
+        }
+        testLogging {
+            showStandardStreams = true
+        }
+        outputs.upToDateWhen { false }
+    }
+}
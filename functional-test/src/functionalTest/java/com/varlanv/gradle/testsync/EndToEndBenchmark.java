@@ -0,0 +1,179 @@
+package com.varlanv.gradle.testsync;
+
+import com.varlanv.gradle.plugin.DataTable;
+import com.varlanv.gradle.plugin.FunctionalTest;
+import com.varlanv.gradle.plugin.TestGradleVersions;
+import org.gradle.testkit.runner.GradleRunner;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.StringJoiner;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs tests of the same {@link SyntheticBuild} with {@code --parallel}, once without the plugin and once with it,
+ * and reports wall clock of both runs, plugin overhead per test and utilization of every tag.
+ * <p>
+ * Tests of a tag can not take less than their total duration when synchronized, so the plugin run is compared
+ * against the larger of the baseline run and the longest of such serialized durations. Time above that bound,
+ * divided by the number of tests, is reported as overhead per test. Utilization is the share of the plugin run
+ * during which the tag was held.
+ * <p>
+ * Disabled unless {@code testsync.benchmark} system property is true, run it with {@code ./gradlew e2eBenchmark}.
+ */
+@EnabledIfSystemProperty(named = "testsync.benchmark", matches = "true")
+class EndToEndBenchmark implements FunctionalTest {
+
+    private static final Pattern REPORT_TAG = Pattern.compile(
+        "\"tag\": \"([^\"]+)\",\\s*\"acquisitions\": (\\d+),\\s*\"heldMillis\": ([\\d.]+),\\s*\"waitMillis\": ([\\d.]+)"
+    );
+
+    @Test
+    @DisplayName("should report wall clock, overhead and lock utilization of synthetic build")
+    void should_report_wall_clock_overhead_and_lock_utilization_of_synthetic_build() {
+        var build = SyntheticBuild.fromSystemProperties();
+        runGradleRunnerFixture(
+            new DataTable(false, true, false, TestGradleVersions.current()),
+            List.of(),
+            fixture -> {
+                var flags = List.copyOf(fixture.runner().getArguments());
+                var baselineDir = fixture.subjectProjectDir().resolve("baseline");
+                var pluginDir = fixture.subjectProjectDir().resolve("plugin");
+                build.write(baselineDir, false);
+                build.write(pluginDir, true);
+
+                var baselineMillis = timedTests(fixture.runner(), baselineDir, flags, List.of("test"));
+                var reportModule = SyntheticBuild.moduleName(0);
+                var pluginMillis = timedTests(
+                    fixture.runner(),
+                    pluginDir,
+                    flags,
+                    List.of("test", ":" + reportModule + ":testSyncReport")
+                );
+
+                var lowerBoundMillis = (double) baselineMillis;
+                for (var tag = 0; tag < build.tags(); tag++) {
+                    lowerBoundMillis = Math.max(lowerBoundMillis, (double) build.taggedTests(tag) * build.testDurationMillis());
+                }
+                var overheadPerTestMillis = (pluginMillis - lowerBoundMillis) / build.tests();
+
+                var report = Files.readString(
+                    pluginDir.resolve(reportModule).resolve("build").resolve("reports").resolve("testsync").resolve("report.json")
+                );
+                var tagResults = new ArrayList<TagResult>();
+                var matcher = REPORT_TAG.matcher(report);
+                while (matcher.find()) {
+                    var heldMillis = Double.parseDouble(matcher.group(3));
+                    tagResults.add(
+                        new TagResult(
+                            matcher.group(1),
+                            Integer.parseInt(matcher.group(2)),
+                            heldMillis,
+                            Double.parseDouble(matcher.group(4)),
+                            heldMillis / pluginMillis
+                        )
+                    );
+                }
+
+                var results = new Results(build, baselineMillis, pluginMillis, lowerBoundMillis, overheadPerTestMillis, tagResults);
+                System.err.println(results.text());
+                var outputDir = Paths.get(System.getProperty("testsync.benchmark.output", "build/reports/e2e-benchmark"));
+                Files.createDirectories(outputDir);
+                Files.writeString(outputDir.resolve("results.json"), results.json());
+
+                for (var tag = 0; tag < build.tags(); tag++) {
+                    var tagName = SyntheticBuild.tagName(tag);
+                    var taggedTests = build.taggedTests(tag);
+                    if (taggedTests > 0) {
+                        assertThat(tagResults)
+                            .filteredOn(result -> result.tag().equals(tagName))
+                            .singleElement()
+                            .satisfies(result -> assertThat(result.acquisitions()).isEqualTo(taggedTests));
+                    }
+                }
+            }
+        );
+    }
+
+    /**
+     * Compiles tests first, so that only the test run is timed.
+     */
+    private long timedTests(GradleRunner runner, Path projectDir, List<String> flags, List<String> tasks) {
+        runner.withProjectDir(projectDir.toFile());
+        build(runner.withArguments(arguments(List.of("testClasses", "--parallel"), flags)));
+        var start = System.nanoTime();
+        build(runner.withArguments(arguments(tasks, flags)));
+        return (System.nanoTime() - start) / 1_000_000L;
+    }
+
+    private static List<String> arguments(List<String> tasks, List<String> flags) {
+        var result = new ArrayList<>(tasks);
+        result.add("--parallel");
+        result.addAll(flags);
+        return result;
+    }
+
+    record TagResult(String tag, int acquisitions, double heldMillis, double waitMillis, double utilization) {
+    }
+
+    record Results(SyntheticBuild build,
+                   long baselineMillis,
+                   long pluginMillis,
+                   double lowerBoundMillis,
+                   double overheadPerTestMillis,
+                   List<TagResult> tags) {
+
+        String text() {
+            var out = new StringJoiner("\n");
+            out.add("Synthetic build: %d modules, %d tests per module, %d tags, %.2f tagged, %d ms per test".formatted(
+                build.modules(), build.testsPerModule(), build.tags(), build.taggedFraction(), build.testDurationMillis()));
+            out.add("Wall clock without plugin: %d ms".formatted(baselineMillis));
+            out.add("Wall clock with plugin: %d ms, lower bound %.0f ms".formatted(pluginMillis, lowerBoundMillis));
+            out.add("Plugin overhead per test: %.2f ms".formatted(overheadPerTestMillis));
+            for (var tag : tags) {
+                out.add("Tag %s: %d acquisitions, held %.1f ms, waited %.1f ms, utilization %.1f%%".formatted(
+                    tag.tag(), tag.acquisitions(), tag.heldMillis(), tag.waitMillis(), tag.utilization() * 100));
+            }
+            return out.toString();
+        }
+
+        String json() {
+            var tagsJson = new StringJoiner(",\n", "[\n", "\n  ]");
+            for (var tag : tags) {
+                tagsJson.add(String.format(
+                    Locale.ROOT,
+                    "    {\"tag\": \"%s\", \"acquisitions\": %d, \"heldMillis\": %.1f, \"waitMillis\": %.1f, \"utilization\": %.4f}",
+                    tag.tag(), tag.acquisitions(), tag.heldMillis(), tag.waitMillis(), tag.utilization()
+                ));
+            }
+            return String.format(
+                Locale.ROOT,
+                """
+                    {
+                      "modules": %d,
+                      "testsPerModule": %d,
+                      "tags": %d,
+                      "taggedFraction": %.4f,
+                      "testDurationMillis": %d,
+                      "baselineMillis": %d,
+                      "pluginMillis": %d,
+                      "lowerBoundMillis": %.1f,
+                      "overheadPerTestMillis": %.3f,
+                      "tagUtilization": %s
+                    }
+                    """,
+                build.modules(), build.testsPerModule(), build.tags(), build.taggedFraction(), build.testDurationMillis(),
+                baselineMillis, pluginMillis, lowerBoundMillis, overheadPerTestMillis, tags.isEmpty() ? "[]" : tagsJson
+            );
+        }
+    }
+}
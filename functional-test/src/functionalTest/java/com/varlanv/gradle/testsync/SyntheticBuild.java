@@ -0,0 +1,134 @@
+package com.varlanv.gradle.testsync;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.StringJoiner;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Generated multi-module build with a single test class per module. Tests are numbered across the whole build,
+ * and every test whose number falls into {@link #taggedFraction()} gets one of the tags, in round-robin order.
+ * Every test sleeps for {@link #testDurationMillis()}.
+ */
+record SyntheticBuild(int modules,
+                      int testsPerModule,
+                      int tags,
+                      double taggedFraction,
+                      long testDurationMillis) {
+
+    SyntheticBuild {
+        if (modules < 1 || testsPerModule < 1 || tags < 1) {
+            throw new IllegalArgumentException("Modules, tests per module and tags must be positive");
+        }
+        if (taggedFraction < 0 || taggedFraction > 1) {
+            throw new IllegalArgumentException("Tagged fraction must be between 0 and 1, but received [%s]".formatted(taggedFraction));
+        }
+    }
+
+    static SyntheticBuild fromSystemProperties() {
+        return new SyntheticBuild(
+            Integer.getInteger("testsync.benchmark.modules", 20),
+            Integer.getInteger("testsync.benchmark.testsPerModule", 10),
+            Integer.getInteger("testsync.benchmark.tags", 2),
+            Double.parseDouble(System.getProperty("testsync.benchmark.taggedFraction", "0.3")),
+            Long.getLong("testsync.benchmark.testDurationMillis", 50L)
+        );
+    }
+
+    int tests() {
+        return modules * testsPerModule;
+    }
+
+    /**
+     * @return tag of the test with given number across the build, or null if the test is not tagged
+     */
+    @Nullable
+    String tag(int testNumber) {
+        var taggedBefore = (int) Math.floor(testNumber * taggedFraction);
+        var taggedIncluding = (int) Math.floor((testNumber + 1) * taggedFraction);
+        return taggedIncluding > taggedBefore ? tagName(taggedBefore % tags) : null;
+    }
+
+    int taggedTests(int tagIndex) {
+        var tagName = tagName(tagIndex);
+        return (int) IntStream.range(0, tests()).filter(test -> tagName.equals(tag(test))).count();
+    }
+
+    static String tagName(int tagIndex) {
+        return "tag-" + (tagIndex + 1);
+    }
+
+    static String moduleName(int moduleIndex) {
+        return "module-" + (moduleIndex + 1);
+    }
+
+    void write(Path dir, boolean withPlugin) throws IOException {
+        Files.createDirectories(dir);
+        var include = IntStream.range(0, modules)
+            .mapToObj(module -> "'" + moduleName(module) + "'")
+            .collect(Collectors.joining(", "));
+        Files.writeString(dir.resolve("settings.gradle"), """
+            rootProject.name = 'synthetic'
+            include(%s)
+            """.formatted(include));
+        var tagList = IntStream.range(0, tags)
+            .mapToObj(tag -> "'" + tagName(tag) + "'")
+            .collect(Collectors.joining(", "));
+        Files.writeString(dir.resolve("build.gradle"), """
+            plugins {
+                id('com.varlanv.testsync') apply false
+            }
+
+            subprojects {
+                apply plugin: 'java'
+                %s
+                repositories {
+                    mavenCentral()
+                }
+                dependencies {
+                    testImplementation 'org.junit.jupiter:junit-jupiter:5.12.2'
+                    testRuntimeOnly 'org.junit.platform:junit-platform-launcher:1.12.2'
+                }
+                tasks.withType(Test).configureEach {
+                    useJUnitPlatform()
+                    outputs.upToDateWhen { false }
+                    outputs.cacheIf { false }
+                }
+            }
+            """.formatted(withPlugin ? "apply plugin: 'com.varlanv.testsync'\n    testSync { tags(" + tagList + ") }" : ""));
+        for (var module = 0; module < modules; module++) {
+            var testDir = Files.createDirectories(
+                dir.resolve(moduleName(module)).resolve("src").resolve("test").resolve("java").resolve("synthetic")
+            );
+            Files.writeString(testDir.resolve("SyntheticTest.java"), testClass(module));
+        }
+    }
+
+    private String testClass(int module) {
+        var methods = new StringJoiner("\n");
+        for (var test = 0; test < testsPerModule; test++) {
+            var tag = tag(module * testsPerModule + test);
+            methods.add("""
+                    %s@Test
+                    void test%d() throws InterruptedException {
+                        Thread.sleep(%d);
+                    }
+                """.formatted(tag == null ? "" : "@Tag(\"" + tag + "\")\n    ", test + 1, testDurationMillis));
+        }
+        return """
+            package synthetic;
+
+            import org.junit.jupiter.api.Tag;
+            import org.junit.jupiter.api.Test;
+
+            class SyntheticTest {
+
+            %s
+            }
+            """.formatted(methods);
+    }
+}
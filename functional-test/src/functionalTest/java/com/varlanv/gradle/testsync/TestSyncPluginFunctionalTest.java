@@ -6,8 +6,12 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
 class TestSyncPluginFunctionalTest implements FunctionalTest {
 
     @ParameterizedTest
@@ -26,4 +30,143 @@ class TestSyncPluginFunctionalTest implements FunctionalTest {
                 build(fixture.runner());
             });
     }
-}
\ No newline at end of file
+
+    @ParameterizedTest
+    @MethodSource("defaultDataTables")
+    @DisplayName("should write contention report")
+    void should_write_contention_report(DataTable dataTable) {
+        runGradleRunnerFixture(
+            dataTable,
+            List.of("check", "testSyncReport", "--parallel"),
+            fixture -> {
+                copyFolderContents(
+                    projectRoot().resolve("use-cases").resolve("junit-testsync"),
+                    fixture.subjectProjectDir()
+                );
+
+                build(fixture.runner());
+
+                var moduleBuildDir = fixture.subjectProjectDir()
+                    .resolve("single-tag")
+                    .resolve("single-tag-1")
+                    .resolve("build");
+                var reportJson = moduleBuildDir.resolve("reports").resolve("testsync").resolve("report.json");
+                assertThat(reportJson).exists();
+                assertThat(Files.readString(reportJson)).contains("\"tag\": \"mytag\"");
+                assertThat(moduleBuildDir.resolve("reports").resolve("testsync").resolve("report.html")).exists();
+                assertThat(moduleBuildDir.resolve("testsync").resolve("history").resolve("history.tsv")).exists();
+            });
+    }
+
+    @ParameterizedTest
+    @MethodSource("defaultDataTables")
+    @DisplayName("should print status of test synchronization tags")
+    void should_print_status_of_test_synchronization_tags(DataTable dataTable) {
+        runGradleRunnerFixture(
+            dataTable,
+            List.of("testSyncStatus"),
+            fixture -> {
+                copyFolderContents(
+                    projectRoot().resolve("use-cases").resolve("junit-testsync"),
+                    fixture.subjectProjectDir()
+                );
+
+                var result = build(fixture.runner());
+
+                // other builds of the host may be running tests at the same time
+                assertThat(result.getOutput()).containsAnyOf("No test JVM holds or waits for test synchronization tags", "Sync folder [");
+            });
+    }
+
+    @ParameterizedTest
+    @MethodSource("defaultDataTables")
+    @DisplayName("should write timeline of lock holds when build finishes")
+    void should_write_timeline_of_lock_holds_when_build_finishes(DataTable dataTable) {
+        runGradleRunnerFixture(
+            dataTable,
+            List.of("check", "--parallel"),
+            fixture -> {
+                copyFolderContents(
+                    projectRoot().resolve("use-cases").resolve("junit-testsync"),
+                    fixture.subjectProjectDir()
+                );
+
+                build(fixture.runner());
+
+                var timeline = fixture.subjectProjectDir()
+                    .resolve("build")
+                    .resolve("reports")
+                    .resolve("testsync")
+                    .resolve("timeline.json");
+                assertThat(timeline).exists();
+                assertThat(Files.readString(timeline))
+                    .contains("\"traceEvents\"")
+                    .contains("\"name\": \"mytag\"");
+            });
+    }
+
+    @ParameterizedTest
+    @MethodSource("defaultDataTables")
+    @DisplayName("should keep tests synchronized when locks are prefetched")
+    void should_keep_tests_synchronized_when_locks_are_prefetched(DataTable dataTable) {
+        runGradleRunnerFixture(
+            dataTable,
+            List.of("check", "--parallel"),
+            fixture -> {
+                copyFolderContents(
+                    projectRoot().resolve("use-cases").resolve("junit-testsync"),
+                    fixture.subjectProjectDir()
+                );
+                Files.writeString(
+                    fixture.subjectProjectDir().resolve("build.gradle.kts"),
+                    """
+
+                        subprojects {
+                            extensions.configure<TestSyncExtensionView> {
+                                prefetchLocks(8)
+                            }
+                        }
+                        """,
+                    StandardOpenOption.APPEND
+                );
+
+                build(fixture.runner());
+            });
+    }
+
+    @ParameterizedTest
+    @MethodSource("defaultDataTables")
+    @DisplayName("should clean shared namespace folder when the last build leaves it")
+    void should_clean_shared_namespace_folder_when_the_last_build_leaves_it(DataTable dataTable) {
+        runGradleRunnerFixture(
+            dataTable,
+            List.of("check", "--parallel"),
+            fixture -> {
+                copyFolderContents(
+                    projectRoot().resolve("use-cases").resolve("junit-testsync"),
+                    fixture.subjectProjectDir()
+                );
+                var namespaceDir = fixture.subjectProjectDir().resolve("namespaces");
+                Files.writeString(
+                    fixture.subjectProjectDir().resolve("build.gradle.kts"),
+                    """
+
+                        subprojects {
+                            extensions.configure<TestSyncExtensionView> {
+                                namespace("functional-test", rootProject.file("namespaces"))
+                            }
+                        }
+                        """,
+                    StandardOpenOption.APPEND
+                );
+
+                build(fixture.runner());
+
+                var namespaceFolder = namespaceDir.resolve("varlanvtestsync_ns_functional-test");
+                try (var files = Files.list(namespaceFolder)) {
+                    assertThat(files.map(file -> file.getFileName().toString()))
+                        .containsExactly("namespace.lock");
+                }
+            });
+    }
+}
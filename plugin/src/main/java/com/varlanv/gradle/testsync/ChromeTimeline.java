@@ -0,0 +1,156 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes lock waits and holds of all test JVMs as Chrome Trace Event JSON, that can be opened in Perfetto
+ * or {@code chrome://tracing}.
+ * <p>
+ * Every Gradle {@code Test} task is shown as a process, with tracks for each of its forks. Concurrent locks of the same
+ * fork are spread across several tracks of that fork. Every interval is shown as a "wait" slice, followed by a slice
+ * named by the tag for the time the lock was held, so holds of different tags get different colors.
+ */
+@RequiredArgsConstructor
+final class ChromeTimeline {
+
+    static final String FILE_NAME = "timeline.json";
+    private static final String WAIT_COLOR = "grey";
+
+    List<JvmTrace> traces;
+
+    void write(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        Files.write(dir.resolve(FILE_NAME), json().getBytes(StandardCharsets.UTF_8));
+    }
+
+    String json() {
+        val startNanos = startNanos();
+        val modules = new TreeMap<String, List<JvmTrace>>();
+        for (val trace : traces) {
+            modules.computeIfAbsent(trace.module().isEmpty() ? "unknown" : trace.module(), k -> new ArrayList<>()).add(trace);
+        }
+        val out = new StringBuilder(16384).append("{\"displayTimeUnit\": \"ms\", \"traceEvents\": [");
+        var first = true;
+        var processId = 0;
+        for (val module : modules.entrySet()) {
+            processId++;
+            first = append(out, first, metadata("process_name", processId, 0, module.getKey()));
+            var threadId = 0;
+            for (val trace : module.getValue()) {
+                threadId = appendFork(out, processId, threadId, trace, startNanos);
+            }
+        }
+        return out.append("\n]}\n").toString();
+    }
+
+    private int appendFork(StringBuilder out, int processId, int threadId, JvmTrace trace, long startNanos) {
+        val intervals = trace.intervals();
+        if (intervals.isEmpty()) {
+            return threadId;
+        }
+        val endNanos = trace.events().get(trace.events().size() - 1).epochNanos();
+        // lane index -> end of the last interval in that lane
+        val laneEnds = new ArrayList<Long>();
+        val lanes = new TreeMap<Integer, List<JvmTrace.Interval>>();
+        intervals.sort(Comparator.comparingLong(ChromeTimeline::start));
+        for (val interval : intervals) {
+            val start = start(interval);
+            var lane = 0;
+            while (lane < laneEnds.size() && laneEnds.get(lane) > start) {
+                lane++;
+            }
+            val end = end(interval, endNanos);
+            if (lane == laneEnds.size()) {
+                laneEnds.add(end);
+            } else {
+                laneEnds.set(lane, end);
+            }
+            lanes.computeIfAbsent(lane, k -> new ArrayList<>()).add(interval);
+        }
+        for (Map.Entry<Integer, List<JvmTrace.Interval>> lane : lanes.entrySet()) {
+            val tid = ++threadId;
+            append(out, false, metadata("thread_name", processId, tid, "fork " + trace.pid() + " #" + (lane.getKey() + 1)));
+            append(out, false, "{\"name\": \"thread_sort_index\", \"ph\": \"M\", \"pid\": " + processId + ", \"tid\": " + tid
+                + ", \"args\": {\"sort_index\": " + tid + "}}");
+            for (val interval : lane.getValue()) {
+                val tag = trace.tag(interval.tagIndex());
+                val tagName = tag == null ? "unknown" : tag;
+                val test = trace.testName(interval.testHash());
+                if (interval.requestedNanos() >= 0) {
+                    val waitEnd = interval.acquiredNanos() >= 0 ? interval.acquiredNanos() : endNanos;
+                    append(out, false, slice("wait " + tagName, "wait", WAIT_COLOR, processId, tid,
+                        interval.requestedNanos() - startNanos, waitEnd - interval.requestedNanos(), tagName, test));
+                }
+                if (interval.acquiredNanos() >= 0) {
+                    val holdEnd = interval.releasedNanos() >= 0 ? interval.releasedNanos() : endNanos;
+                    append(out, false, slice(tagName, "hold", null, processId, tid,
+                        interval.acquiredNanos() - startNanos, holdEnd - interval.acquiredNanos(), tagName, test));
+                }
+            }
+        }
+        return threadId;
+    }
+
+    private long startNanos() {
+        var result = Long.MAX_VALUE;
+        for (val trace : traces) {
+            if (!trace.events().isEmpty()) {
+                result = Math.min(result, trace.events().get(0).epochNanos());
+            }
+        }
+        return result == Long.MAX_VALUE ? 0L : result;
+    }
+
+    private static long start(JvmTrace.Interval interval) {
+        return interval.requestedNanos() >= 0 ? interval.requestedNanos() : interval.acquiredNanos();
+    }
+
+    private static long end(JvmTrace.Interval interval, long endNanos) {
+        return interval.releasedNanos() >= 0 ? interval.releasedNanos() : endNanos;
+    }
+
+    private static boolean append(StringBuilder out, boolean first, String event) {
+        out.append(first ? "\n" : ",\n").append(event);
+        return false;
+    }
+
+    private static String metadata(String name, int processId, int threadId, String value) {
+        return "{\"name\": \"" + name + "\", \"ph\": \"M\", \"pid\": " + processId + ", \"tid\": " + threadId
+            + ", \"args\": {\"name\": " + Json.string(value) + "}}";
+    }
+
+    private static String slice(String name,
+                                String category,
+                                @Nullable String color,
+                                int processId,
+                                int threadId,
+                                long startNanos,
+                                long durationNanos,
+                                String tag,
+                                String test) {
+        return "{\"name\": " + Json.string(name)
+            + ", \"cat\": \"" + category + "\""
+            + (color == null ? "" : ", \"cname\": \"" + color + "\"")
+            + ", \"ph\": \"X\", \"ts\": " + micros(startNanos)
+            + ", \"dur\": " + micros(Math.max(0L, durationNanos))
+            + ", \"pid\": " + processId + ", \"tid\": " + threadId
+            + ", \"args\": {\"tag\": " + Json.string(tag) + ", \"test\": " + Json.string(test) + "}}";
+    }
+
+    private static String micros(long nanos) {
+        return (nanos / 1000) + "." + String.format(Locale.ROOT, "%03d", Math.abs(nanos % 1000));
+    }
+}
@@ -4,6 +4,7 @@ import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.val;
 import org.gradle.api.Action;
+import org.gradle.api.JavaVersion;
 import org.gradle.api.Task;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.testing.Test;
@@ -31,12 +32,12 @@ class ConfigureOnBeforeTestStart implements Action<Task> {
             );
         }
         val test = (Test) task;
-        setupSyncJar();
-        setupSyncProperties(test);
+        val syncJarPath = setupSyncJar();
+        setupSyncProperties(test, syncJarPath);
     }
 
     @SneakyThrows
-    private void setupSyncJar() {
+    private Path setupSyncJar() {
         val pluginDir = Files.createDirectories(pluginDirPathProvider.get());
         val targetJarPath = pluginDir.resolve(Constants.SYNCHRONIZER_JAR);
         if (Files.notExists(targetJarPath)) {
@@ -44,13 +45,14 @@ class ConfigureOnBeforeTestStart implements Action<Task> {
                 Files.copy(in, targetJarPath, StandardCopyOption.REPLACE_EXISTING);
             }
         }
+        return targetJarPath;
     }
 
-    private void setupSyncProperties(Test test) {
+    private void setupSyncProperties(Test test, Path syncJarPath) {
         val tags = testSyncExtension.getTags().get();
         if (!tags.isEmpty()) {
             val buildService = syncBuildServiceProvider.get();
-            val syncProperty = buildService.buildSyncProperty(testSyncExtension);
+            val syncProperty = buildService.buildSyncProperty(testSyncExtension, syncJarPath);
             if (syncProperty.property().isEmpty()) {
                 if (testSyncExtension.getVerboseConfiguration().get()) {
                     test.getLogger().error(
@@ -63,6 +65,32 @@ class ConfigureOnBeforeTestStart implements Action<Task> {
                     Constants.SYNC_PROPERTY,
                     syncProperty.property()
                 );
+                if (testSyncExtension.getAtomicAcquisition().get()) {
+                    test.systemProperty(Constants.SYNC_ATOMIC_ACQUISITION_PROPERTY, true);
+                }
+                if (testSyncExtension.getPrefetchLookahead().get() > 0) {
+                    test.systemProperty(Constants.SYNC_PREFETCH_PROPERTY, testSyncExtension.getPrefetchLookahead().get());
+                }
+                if (testSyncExtension.getVerboseSynchronizer().get()) {
+                    test.systemProperty(Constants.SYNC_VERBOSE_PROPERTY, true);
+                }
+                test.systemProperty(Constants.SYNC_TRACE_PROPERTY, testSyncExtension.getTracing().get());
+                buildService.traceFolderPath().ifPresent(
+                    traceFolderPath -> test.systemProperty(Constants.SYNC_TRACE_FOLDER_PROPERTY, traceFolderPath.toString())
+                );
+                val backend = testSyncExtension.getBackend().get();
+                if (!Constants.BACKEND_FILE.equals(backend)) {
+                    if (Constants.BACKEND_MMAP.equals(backend) && !test.getJavaVersion().isJava9Compatible()) {
+                        throw unsupportedJavaVersion(test, backend, 9);
+                    }
+                    if (Constants.BACKEND_DAEMON.equals(backend) && !test.getJavaVersion().isCompatibleWith(JavaVersion.VERSION_16)) {
+                        throw unsupportedJavaVersion(test, backend, 16);
+                    }
+                    test.systemProperty(Constants.SYNC_BACKEND_PROPERTY, backend);
+                }
+                test.systemProperty(Constants.SYNC_MODULE_PROPERTY, test.getPath());
+                setupMaxWait(test);
+                setupLockAffinityOrdering(test);
                 test.getLogger().info(
                     "Running test task with seed [{}] and sync property [{}]",
                     syncProperty.seed(), syncProperty.property()
@@ -70,4 +98,61 @@ class ConfigureOnBeforeTestStart implements Action<Task> {
             }
         }
     }
+
+    /**
+     * Tests that waited for a tag for too long are failed by an extension that the user registers, or that Jupiter
+     * finds with auto-detection. Auto-detection is not enabled on behalf of the user, because it would load every
+     * extension on the test classpath. It may also be enabled in {@code junit-platform.properties}, so its absence
+     * is only logged.
+     */
+    private void setupMaxWait(Test test) {
+        var maxWaitConfigured = false;
+        for (val tagSpec : testSyncExtension.getTagSpecs().get().values()) {
+            maxWaitConfigured |= tagSpec.maxWaitMillis() > 0;
+        }
+        if (!maxWaitConfigured) {
+            return;
+        }
+        val autodetection = test.getSystemProperties().get(Constants.JUPITER_EXTENSIONS_AUTODETECTION_PROPERTY);
+        if (autodetection == null || !Boolean.parseBoolean(autodetection.toString())) {
+            test.getLogger().info(
+                "Task [{}] does not enable Jupiter extension auto-detection, tests that wait for test synchronization tags "
+                    + "for longer than max wait are only failed in classes that register [{}], other tests keep waiting",
+                test.getPath(), Constants.LOCK_WAIT_TIMEOUT_EXTENSION
+            );
+        }
+    }
+
+    /**
+     * Orderers are set as defaults of Jupiter configuration, unless the task already configures its own default order.
+     * Classes and methods annotated with {@code @TestClassOrder} or {@code @TestMethodOrder} keep their order.
+     */
+    private void setupLockAffinityOrdering(Test test) {
+        if (!testSyncExtension.getLockAffinityOrdering().get()) {
+            return;
+        }
+        setupDefaultOrderer(test, Constants.JUPITER_CLASS_ORDER_PROPERTY, Constants.LOCK_AFFINITY_CLASS_ORDERER);
+        setupDefaultOrderer(test, Constants.JUPITER_METHOD_ORDER_PROPERTY, Constants.LOCK_AFFINITY_METHOD_ORDERER);
+    }
+
+    private static void setupDefaultOrderer(Test test, String property, String orderer) {
+        val configured = test.getSystemProperties().get(property);
+        if (configured == null) {
+            test.systemProperty(property, orderer);
+        } else if (!orderer.equals(configured.toString())) {
+            test.getLogger().info(
+                "Task [{}] configures [{}] as [{}], lock affinity ordering will not be used for it",
+                test.getPath(), property, configured
+            );
+        }
+    }
+
+    private static IllegalStateException unsupportedJavaVersion(Test test, String backend, int requiredVersion) {
+        return new IllegalStateException(
+            String.format(
+                "Test synchronization backend [%s] requires Java %d or newer, but task [%s] runs tests on Java [%s]",
+                backend, requiredVersion, test.getPath(), test.getJavaVersion()
+            )
+        );
+    }
 }
@@ -0,0 +1,242 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Writes {@link ContentionStats} as {@code report.json} and {@code report.html}, and keeps the history
+ * of earlier builds in {@code history.tsv} of the history folder.
+ */
+@RequiredArgsConstructor
+final class ContentionReport {
+
+    static final String JSON_FILE_NAME = "report.json";
+    static final String HTML_FILE_NAME = "report.html";
+    static final String HISTORY_FILE_NAME = "history.tsv";
+    static final int HISTORY_BUILDS = 20;
+
+    ContentionStats stats;
+
+    void write(Path reportDir, Path historyDir, boolean appendHistory) throws IOException {
+        Files.createDirectories(reportDir);
+        Files.createDirectories(historyDir);
+        val historyPath = historyDir.resolve(HISTORY_FILE_NAME);
+        val history = readHistory(historyPath);
+        if (appendHistory && !stats.tags().isEmpty()) {
+            for (val tag : stats.tags()) {
+                history.add(
+                    stats.startMillis() + "\t" + tag.tag() + "\t" + millis(tag.waitNanos()) + "\t" + millis(tag.heldNanos())
+                        + "\t" + millis(tag.waitP95Nanos())
+                );
+            }
+            Files.write(historyPath, trimHistory(history), StandardCharsets.UTF_8);
+        }
+        Files.write(reportDir.resolve(JSON_FILE_NAME), json().getBytes(StandardCharsets.UTF_8));
+        Files.write(reportDir.resolve(HTML_FILE_NAME), html(history).getBytes(StandardCharsets.UTF_8));
+    }
+
+    String json() {
+        val out = new StringBuilder(4096);
+        out.append("{\n  \"startMillis\": ").append(stats.startMillis())
+            .append(",\n  \"jvms\": ").append(stats.jvms())
+            .append(",\n  \"truncatedJvms\": ").append(stats.truncatedJvms())
+            .append(",\n  \"tags\": [");
+        var firstTag = true;
+        for (val tag : stats.tags()) {
+            out.append(firstTag ? "\n" : ",\n");
+            firstTag = false;
+            out.append("    {\n      \"tag\": ").append(Json.string(tag.tag()))
+                .append(",\n      \"acquisitions\": ").append(tag.acquisitions())
+                .append(",\n      \"heldMillis\": ").append(millis(tag.heldNanos()))
+                .append(",\n      \"waitMillis\": ").append(millis(tag.waitNanos()))
+                .append(",\n      \"waitP50Millis\": ").append(millis(tag.waitP50Nanos()))
+                .append(",\n      \"waitP95Millis\": ").append(millis(tag.waitP95Nanos()))
+                .append(",\n      \"waitP99Millis\": ").append(millis(tag.waitP99Nanos()))
+                .append(",\n      \"maxQueueDepth\": ").append(tag.maxQueueDepth())
+                .append(",\n      \"queueDepth\": [");
+            var firstPoint = true;
+            for (val point : tag.queueDepth()) {
+                out.append(firstPoint ? "" : ", ").append('[').append(point[0]).append(", ").append(point[1]).append(']');
+                firstPoint = false;
+            }
+            out.append("],\n      \"topWaitingTests\": ");
+            jsonTotals(out, tag.topWaiting());
+            out.append(",\n      \"topHoldingTests\": ");
+            jsonTotals(out, tag.topHolding());
+            out.append(",\n      \"modules\": ");
+            jsonTotals(out, tag.modules());
+            out.append("\n    }");
+        }
+        out.append(firstTag ? "]\n}\n" : "\n  ]\n}\n");
+        return out.toString();
+    }
+
+    private static void jsonTotals(StringBuilder out, List<ContentionStats.Total> totals) {
+        out.append('[');
+        var first = true;
+        for (val total : totals) {
+            out.append(first ? "" : ", ")
+                .append("{\"name\": ").append(Json.string(total.name()))
+                .append(", \"waitMillis\": ").append(millis(total.waitNanos()))
+                .append(", \"heldMillis\": ").append(millis(total.heldNanos()))
+                .append('}');
+            first = false;
+        }
+        out.append(']');
+    }
+
+    String html(List<String> history) {
+        val out = new StringBuilder(8192);
+        out.append("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"utf-8\">\n<title>Test sync contention report</title>\n")
+            .append("<style>body{font-family:sans-serif;margin:2em}table{border-collapse:collapse;margin-bottom:1em}")
+            .append("td,th{border:1px solid #ccc;padding:4px 8px;text-align:left}th{background:#eee}")
+            .append("polyline{fill:none;stroke:#c33;stroke-width:1.5}</style>\n</head>\n<body>\n")
+            .append("<h1>Test sync contention report</h1>\n<p>Build started at ")
+            .append(Instant.ofEpochMilli(stats.startMillis())).append(", ").append(stats.jvms()).append(" test JVMs");
+        if (stats.truncatedJvms() > 0) {
+            out.append(", ").append(stats.truncatedJvms()).append(" of them recorded more events than trace buffer holds,")
+                .append(" their oldest events are missing");
+        }
+        out.append(".</p>\n<table>\n<tr><th>Tag</th><th>Acquisitions</th><th>Held, ms</th><th>Wait, ms</th>")
+            .append("<th>Wait p50, ms</th><th>Wait p95, ms</th><th>Wait p99, ms</th><th>Max queue depth</th></tr>\n");
+        for (val tag : stats.tags()) {
+            out.append("<tr><td><a href=\"#").append(escape(tag.tag())).append("\">").append(escape(tag.tag())).append("</a></td><td>")
+                .append(tag.acquisitions()).append("</td><td>")
+                .append(millis(tag.heldNanos())).append("</td><td>")
+                .append(millis(tag.waitNanos())).append("</td><td>")
+                .append(millis(tag.waitP50Nanos())).append("</td><td>")
+                .append(millis(tag.waitP95Nanos())).append("</td><td>")
+                .append(millis(tag.waitP99Nanos())).append("</td><td>")
+                .append(tag.maxQueueDepth()).append("</td></tr>\n");
+        }
+        out.append("</table>\n");
+        for (val tag : stats.tags()) {
+            out.append("<h2 id=\"").append(escape(tag.tag())).append("\">").append(escape(tag.tag())).append("</h2>\n")
+                .append("<h3>Queue depth</h3>\n");
+            htmlQueueDepth(out, tag);
+            out.append("<h3>Modules</h3>\n");
+            htmlTotals(out, tag.modules(), "Module");
+            out.append("<h3>Top waiting tests</h3>\n");
+            htmlTotals(out, tag.topWaiting(), "Test");
+            out.append("<h3>Top holding tests</h3>\n");
+            htmlTotals(out, tag.topHolding(), "Test");
+        }
+        htmlHistory(out, history);
+        out.append("</body>\n</html>\n");
+        return out.toString();
+    }
+
+    private static void htmlQueueDepth(StringBuilder out, ContentionStats.TagStats tag) {
+        val points = tag.queueDepth();
+        if (points.isEmpty()) {
+            out.append("<p>No waiting tests.</p>\n");
+            return;
+        }
+        val width = 800;
+        val height = 100;
+        val maxTime = Math.max(1L, points.get(points.size() - 1)[0]);
+        val maxDepth = Math.max(1, tag.maxQueueDepth());
+        out.append("<svg width=\"").append(width).append("\" height=\"").append(height).append("\"><polyline points=\"");
+        for (val point : points) {
+            out.append(point[0] * width / maxTime).append(',').append(height - point[1] * height / maxDepth).append(' ');
+        }
+        out.append("\"/></svg>\n<p>Up to ").append(tag.maxQueueDepth()).append(" waiting tests over ")
+            .append(maxTime).append(" ms.</p>\n");
+    }
+
+    private static void htmlTotals(StringBuilder out, List<ContentionStats.Total> totals, String title) {
+        out.append("<table>\n<tr><th>").append(title).append("</th><th>Wait, ms</th><th>Held, ms</th></tr>\n");
+        for (val total : totals) {
+            out.append("<tr><td>").append(escape(total.name())).append("</td><td>")
+                .append(millis(total.waitNanos())).append("</td><td>")
+                .append(millis(total.heldNanos())).append("</td></tr>\n");
+        }
+        out.append("</table>\n");
+    }
+
+    private static void htmlHistory(StringBuilder out, List<String> history) {
+        // build start -> tag -> wait millis
+        val builds = new LinkedHashMap<String, Map<String, String>>();
+        val tags = new TreeSet<String>();
+        for (val line : history) {
+            val fields = line.split("\t");
+            if (fields.length >= 3) {
+                builds.computeIfAbsent(fields[0], k -> new LinkedHashMap<>()).put(fields[1], fields[2]);
+                tags.add(fields[1]);
+            }
+        }
+        if (builds.isEmpty()) {
+            return;
+        }
+        out.append("<h2>History</h2>\n<p>Total wait per tag, ms.</p>\n<table>\n<tr><th>Build</th>");
+        for (val tag : tags) {
+            out.append("<th>").append(escape(tag)).append("</th>");
+        }
+        out.append("</tr>\n");
+        for (val build : builds.entrySet()) {
+            out.append("<tr><td>");
+            try {
+                out.append(Instant.ofEpochMilli(Long.parseLong(build.getKey())));
+            } catch (NumberFormatException e) {
+                out.append(escape(build.getKey()));
+            }
+            out.append("</td>");
+            for (val tag : tags) {
+                val wait = build.getValue().get(tag);
+                out.append("<td>").append(wait == null ? "" : escape(wait)).append("</td>");
+            }
+            out.append("</tr>\n");
+        }
+        out.append("</table>\n");
+    }
+
+    private static List<String> readHistory(Path historyPath) throws IOException {
+        if (Files.notExists(historyPath)) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(Files.readAllLines(historyPath, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Keeps lines of the last {@link #HISTORY_BUILDS} builds.
+     */
+    private static List<String> trimHistory(List<String> history) {
+        val builds = new ArrayList<String>();
+        for (val line : history) {
+            val build = line.substring(0, Math.max(0, line.indexOf('\t')));
+            if (builds.isEmpty() || !builds.get(builds.size() - 1).equals(build)) {
+                builds.add(build);
+            }
+        }
+        if (builds.size() <= HISTORY_BUILDS) {
+            return history;
+        }
+        val firstKept = builds.get(builds.size() - HISTORY_BUILDS);
+        for (var i = 0; i < history.size(); i++) {
+            if (history.get(i).startsWith(firstKept + "\t")) {
+                return new ArrayList<>(history.subList(i, history.size()));
+            }
+        }
+        return history;
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1_000_000.0);
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
@@ -0,0 +1,222 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.NonFinal;
+import lombok.val;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Contention statistics of each tag, computed from lock events of all test JVMs of the build.
+ */
+@Getter
+@RequiredArgsConstructor
+final class ContentionStats {
+
+    static final int TOP_TESTS = 10;
+    static final int MAX_QUEUE_DEPTH_POINTS = 200;
+
+    /**
+     * Wall clock time of the first recorded event, in milliseconds since epoch.
+     */
+    long startMillis;
+    int jvms;
+    /**
+     * Number of JVMs that recorded more events than their trace buffer holds.
+     */
+    int truncatedJvms;
+    List<TagStats> tags;
+
+    static ContentionStats compute(List<JvmTrace> traces) {
+        val builders = new TreeMap<String, TagStatsBuilder>();
+        var startNanos = Long.MAX_VALUE;
+        var truncated = 0;
+        for (val trace : traces) {
+            if (trace.truncated()) {
+                truncated++;
+            }
+            if (!trace.events().isEmpty()) {
+                startNanos = Math.min(startNanos, trace.events().get(0).epochNanos());
+            }
+            collect(trace, builders);
+        }
+        val startMillis = startNanos == Long.MAX_VALUE ? 0L : startNanos / 1_000_000L;
+        val tags = new ArrayList<TagStats>(builders.size());
+        for (val builder : builders.values()) {
+            tags.add(builder.build(startMillis));
+        }
+        tags.sort(Comparator.comparingLong(TagStats::waitNanos).reversed());
+        return new ContentionStats(startMillis, traces.size(), truncated, tags);
+    }
+
+    private static void collect(JvmTrace trace, Map<String, TagStatsBuilder> builders) {
+        for (val interval : trace.intervals()) {
+            val tag = trace.tag(interval.tagIndex());
+            if (tag == null) {
+                continue;
+            }
+            val builder = builders.computeIfAbsent(tag, TagStatsBuilder::new);
+            if (interval.requestedNanos() >= 0) {
+                builder.queueChanges.add(new long[]{interval.requestedNanos(), 1});
+                if (interval.acquiredNanos() >= 0) {
+                    builder.queueChanges.add(new long[]{interval.acquiredNanos(), -1});
+                }
+            }
+            if (interval.waited()) {
+                builder.waited(trace, interval.testHash(), interval.acquiredNanos() - interval.requestedNanos());
+            }
+            if (interval.held()) {
+                builder.held(trace, interval.testHash(), interval.releasedNanos() - interval.acquiredNanos());
+            }
+        }
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    static final class TagStats {
+
+        String tag;
+        int acquisitions;
+        long heldNanos;
+        long waitNanos;
+        long waitP50Nanos;
+        long waitP95Nanos;
+        long waitP99Nanos;
+        int maxQueueDepth;
+        /**
+         * Pairs of milliseconds since {@link ContentionStats#startMillis()} and the number of waiting tests.
+         */
+        List<long[]> queueDepth;
+        List<Total> topWaiting;
+        List<Total> topHolding;
+        List<Total> modules;
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    static final class Total {
+
+        String name;
+        @NonFinal
+        long waitNanos;
+        @NonFinal
+        long heldNanos;
+    }
+
+    private static final class TagStatsBuilder {
+
+        String tag;
+        List<Long> waits = new ArrayList<>();
+        List<long[]> queueChanges = new ArrayList<>();
+        Map<String, Total> tests = new HashMap<>();
+        Map<String, Total> modules = new HashMap<>();
+        @NonFinal
+        long heldNanos;
+        @NonFinal
+        long waitNanos;
+
+        TagStatsBuilder(String tag) {
+            this.tag = tag;
+        }
+
+        void waited(JvmTrace trace, int testHash, long nanos) {
+            waits.add(nanos);
+            waitNanos += nanos;
+            test(trace, testHash).waitNanos += nanos;
+            module(trace).waitNanos += nanos;
+        }
+
+        void held(JvmTrace trace, int testHash, long nanos) {
+            heldNanos += nanos;
+            test(trace, testHash).heldNanos += nanos;
+            module(trace).heldNanos += nanos;
+        }
+
+        private Total test(JvmTrace trace, int testHash) {
+            return tests.computeIfAbsent(trace.module() + " " + trace.testName(testHash), Total::new);
+        }
+
+        private Total module(JvmTrace trace) {
+            return modules.computeIfAbsent(trace.module(), Total::new);
+        }
+
+        TagStats build(long startMillis) {
+            val sortedWaits = new long[waits.size()];
+            for (var i = 0; i < sortedWaits.length; i++) {
+                sortedWaits[i] = waits.get(i);
+            }
+            Arrays.sort(sortedWaits);
+            queueChanges.sort(Comparator.comparingLong(change -> change[0]));
+            val points = new ArrayList<long[]>(queueChanges.size());
+            var depth = 0L;
+            var maxDepth = 0L;
+            for (val change : queueChanges) {
+                depth += change[1];
+                maxDepth = Math.max(maxDepth, depth);
+                points.add(new long[]{change[0] / 1_000_000L - startMillis, depth});
+            }
+            return new TagStats(
+                tag,
+                sortedWaits.length,
+                heldNanos,
+                waitNanos,
+                percentile(sortedWaits, 50),
+                percentile(sortedWaits, 95),
+                percentile(sortedWaits, 99),
+                (int) maxDepth,
+                downsample(points),
+                top(Comparator.comparingLong(Total::waitNanos)),
+                top(Comparator.comparingLong(Total::heldNanos)),
+                sorted(modules)
+            );
+        }
+
+        private List<Total> top(Comparator<Total> comparator) {
+            val result = new ArrayList<Total>(tests.values());
+            result.sort(comparator.reversed());
+            return new ArrayList<>(result.subList(0, Math.min(TOP_TESTS, result.size())));
+        }
+
+        private static List<Total> sorted(Map<String, Total> totals) {
+            val result = new ArrayList<Total>(totals.values());
+            result.sort(Comparator.comparingLong(Total::waitNanos).reversed());
+            return result;
+        }
+
+        private static long percentile(long[] sorted, int percentile) {
+            if (sorted.length == 0) {
+                return 0L;
+            }
+            val rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+            return sorted[Math.max(0, rank - 1)];
+        }
+
+        /**
+         * Keeps the highest depth of each time bucket, so that peaks are not lost.
+         */
+        private static List<long[]> downsample(List<long[]> points) {
+            if (points.size() <= MAX_QUEUE_DEPTH_POINTS) {
+                return points;
+            }
+            val result = new ArrayList<long[]>(MAX_QUEUE_DEPTH_POINTS);
+            val bucketSize = (points.size() + MAX_QUEUE_DEPTH_POINTS - 1) / MAX_QUEUE_DEPTH_POINTS;
+            for (var from = 0; from < points.size(); from += bucketSize) {
+                var max = points.get(from);
+                for (var i = from + 1; i < Math.min(points.size(), from + bucketSize); i++) {
+                    if (points.get(i)[1] > max[1]) {
+                        max = points.get(i);
+                    }
+                }
+                result.add(max);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.val;
+
+import java.util.Locale;
+
+final class Json {
+
+    private Json() {
+    }
+
+    static String string(String value) {
+        val out = new StringBuilder(value.length() + 2).append('"');
+        for (var i = 0; i < value.length(); i++) {
+            val c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.append('"').toString();
+    }
+}
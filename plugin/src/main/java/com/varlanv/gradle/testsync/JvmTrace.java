@@ -0,0 +1,227 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.NonFinal;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lock events and test names recorded by one test JVM, read from {@code trace_<pid>} file of the sync folder.
+ * See {@code LockTrace} of the synchronizer for the file layout.
+ */
+@Getter
+@RequiredArgsConstructor
+final class JvmTrace {
+
+    private static final int TAGS_OFFSET = 48;
+    private static final int NAME_HEADER_SIZE = 8;
+
+    long pid;
+    String module;
+    List<String> tags;
+    List<Event> events;
+    Map<Integer, String> testNames;
+    /**
+     * True if the ring buffer was overwritten, so that the oldest events of the JVM are lost.
+     */
+    boolean truncated;
+
+    String testName(int testHash) {
+        val name = testNames.get(testHash);
+        return name == null ? "#" + Integer.toHexString(testHash) : name;
+    }
+
+    @Nullable
+    String tag(int tagIndex) {
+        return tagIndex >= 0 && tagIndex < tags.size() ? tags.get(tagIndex) : null;
+    }
+
+    /**
+     * Pairs requested, acquired and released events of the same tag and test into intervals, in order of the request.
+     */
+    List<Interval> intervals() {
+        val result = new ArrayList<Interval>();
+        val waiting = new HashMap<Long, Interval>();
+        val holding = new HashMap<Long, Interval>();
+        for (val event : events) {
+            val key = ((long) event.tagIndex() << 32) | (event.testHash() & 0xFFFFFFFFL);
+            val time = event.epochNanos();
+            switch (event.type()) {
+                case Constants.TRACE_EVENT_REQUESTED:
+                    // retries of atomic acquisition request the same tag again, first request counts
+                    if (!waiting.containsKey(key)) {
+                        val requested = new Interval(event.tagIndex(), event.testHash(), time);
+                        waiting.put(key, requested);
+                        result.add(requested);
+                    }
+                    break;
+                case Constants.TRACE_EVENT_ACQUIRED:
+                    var interval = waiting.remove(key);
+                    if (interval == null) {
+                        // request was overwritten in the ring buffer
+                        interval = new Interval(event.tagIndex(), event.testHash(), -1L);
+                        result.add(interval);
+                    }
+                    interval.acquiredNanos = time;
+                    holding.put(key, interval);
+                    break;
+                case Constants.TRACE_EVENT_RELEASED:
+                    val held = holding.remove(key);
+                    if (held != null) {
+                        held.releasedNanos = time;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return result;
+    }
+
+    static List<JvmTrace> readAll(Path syncFolderPath) throws IOException {
+        if (Files.notExists(syncFolderPath)) {
+            return Collections.emptyList();
+        }
+        val result = new ArrayList<JvmTrace>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(syncFolderPath, Constants.TRACE_FILE_PREFIX + "*")) {
+            for (val file : files) {
+                val trace = read(file);
+                if (trace != null) {
+                    result.add(trace);
+                }
+            }
+        }
+        result.sort(Comparator.comparingLong(JvmTrace::pid));
+        return result;
+    }
+
+    @Nullable
+    static JvmTrace read(Path traceFilePath) throws IOException {
+        val buffer = ByteBuffer.wrap(Files.readAllBytes(traceFilePath));
+        if (buffer.capacity() < Constants.TRACE_HEADER_SIZE
+            || buffer.getInt(0) != Constants.TRACE_MAGIC
+            || buffer.getInt(4) != Constants.TRACE_VERSION) {
+            return null;
+        }
+        val pid = buffer.getLong(8);
+        val startMillis = buffer.getLong(16);
+        val startNanos = buffer.getLong(24);
+        val capacity = buffer.getInt(32);
+        val tagCount = buffer.getInt(36);
+        var offset = TAGS_OFFSET;
+        val module = readString(buffer, offset);
+        offset += 2 + (buffer.getShort(offset) & 0xFFFF);
+        val tags = new ArrayList<String>(tagCount);
+        for (var i = 0; i < tagCount; i++) {
+            tags.add(readString(buffer, offset));
+            offset += 2 + (buffer.getShort(offset) & 0xFFFF);
+        }
+        val events = new ArrayList<Event>();
+        var maxSequence = 0L;
+        val records = Math.min(capacity, (buffer.capacity() - Constants.TRACE_HEADER_SIZE) / Constants.TRACE_RECORD_SIZE);
+        for (var i = 0; i < records; i++) {
+            val recordOffset = Constants.TRACE_HEADER_SIZE + i * Constants.TRACE_RECORD_SIZE;
+            val sequence = buffer.getLong(recordOffset);
+            if (sequence > 0) {
+                maxSequence = Math.max(maxSequence, sequence);
+                events.add(
+                    new Event(
+                        sequence,
+                        startMillis * 1_000_000L + (buffer.getLong(recordOffset + 8) - startNanos),
+                        buffer.getInt(recordOffset + 20),
+                        buffer.getInt(recordOffset + 24),
+                        buffer.getInt(recordOffset + 28)
+                    )
+                );
+            }
+        }
+        events.sort(Comparator.comparingLong(Event::sequence));
+        return new JvmTrace(
+            pid,
+            module,
+            tags,
+            events,
+            readTestNames(buffer, Constants.TRACE_HEADER_SIZE + capacity * Constants.TRACE_RECORD_SIZE),
+            maxSequence > capacity
+        );
+    }
+
+    private static String readString(ByteBuffer buffer, int offset) {
+        val length = buffer.getShort(offset) & 0xFFFF;
+        return new String(buffer.array(), offset + 2, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads entries of the names area up to the first one that was not completely written.
+     */
+    private static Map<Integer, String> readTestNames(ByteBuffer buffer, int namesOffset) {
+        val result = new HashMap<Integer, String>();
+        var offset = namesOffset;
+        while (offset >= 0 && offset + NAME_HEADER_SIZE <= buffer.capacity()) {
+            val length = buffer.getInt(offset);
+            if (length <= 0 || length > buffer.capacity() - offset - NAME_HEADER_SIZE) {
+                break;
+            }
+            result.put(buffer.getInt(offset + 4), new String(buffer.array(), offset + NAME_HEADER_SIZE, length, StandardCharsets.UTF_8));
+            offset += NAME_HEADER_SIZE + length;
+        }
+        return result;
+    }
+
+    /**
+     * Times are in nanoseconds since epoch, -1 when the event is unknown.
+     */
+    @Getter
+    static final class Interval {
+
+        int tagIndex;
+        int testHash;
+        long requestedNanos;
+        @NonFinal
+        long acquiredNanos = -1L;
+        @NonFinal
+        long releasedNanos = -1L;
+
+        Interval(int tagIndex, int testHash, long requestedNanos) {
+            this.tagIndex = tagIndex;
+            this.testHash = testHash;
+            this.requestedNanos = requestedNanos;
+        }
+
+        boolean waited() {
+            return requestedNanos >= 0 && acquiredNanos >= 0;
+        }
+
+        boolean held() {
+            return acquiredNanos >= 0 && releasedNanos >= 0;
+        }
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    static final class Event {
+
+        long sequence;
+        /**
+         * Wall clock time of the event, in nanoseconds since epoch.
+         */
+        long epochNanos;
+        int type;
+        int tagIndex;
+        int testHash;
+    }
+}
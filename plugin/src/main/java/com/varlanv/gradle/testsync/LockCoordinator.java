@@ -0,0 +1,91 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+
+/**
+ * Lock server of the synchronizer, that the build service runs for the {@link Constants#BACKEND_DAEMON} backend,
+ * and for the {@link Constants#BACKEND_TCP} backend when no address of a standalone server is configured.
+ * Synchronizer classes are not on the classpath of the plugin, so the server is loaded from the synchronizer jar
+ * in an isolated class loader and called reflectively.
+ */
+@RequiredArgsConstructor
+final class LockCoordinator implements AutoCloseable {
+
+    private static final String SERVER_CLASS = "com.varlanv.gradle.testsync.LockServer";
+
+    @Getter
+    String backend;
+    URLClassLoader classLoader;
+    Object server;
+    /**
+     * Socket path for {@link Constants#BACKEND_DAEMON}, {@code host:port} for {@link Constants#BACKEND_TCP}.
+     */
+    @Getter
+    String address;
+
+    /**
+     * @throws Exception if the server could not be started, for example when the Gradle daemon runs on Java older than 16
+     */
+    static LockCoordinator unix(Path synchronizerJarPath, Path socketPath) throws Exception {
+        return start(Constants.BACKEND_DAEMON, synchronizerJarPath, "unix", Path.class, socketPath);
+    }
+
+    /**
+     * Listens on an ephemeral loopback port, so only test JVMs of this host can connect.
+     */
+    static LockCoordinator tcp(Path synchronizerJarPath) throws Exception {
+        return start(
+            Constants.BACKEND_TCP,
+            synchronizerJarPath,
+            "tcp",
+            InetSocketAddress.class,
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)
+        );
+    }
+
+    private static LockCoordinator start(String backend, Path synchronizerJarPath, String factoryMethod, Class<?> argType, Object arg) throws Exception {
+        val classLoader = new URLClassLoader(new URL[]{synchronizerJarPath.toUri().toURL()}, null);
+        try {
+            val serverClass = Class.forName(SERVER_CLASS, true, classLoader);
+            val server = invoke(serverClass.getDeclaredMethod(factoryMethod, argType), null, arg);
+            val address = (String) invoke(serverClass.getDeclaredMethod("address"), server);
+            return new LockCoordinator(backend, classLoader, server, address);
+        } catch (Exception e) {
+            classLoader.close();
+            throw e;
+        }
+    }
+
+    String summary() throws Exception {
+        return (String) invoke(server.getClass().getDeclaredMethod("summary"), server);
+    }
+
+    @Override
+    public void close() throws Exception {
+        try {
+            invoke(server.getClass().getDeclaredMethod("close"), server);
+        } finally {
+            classLoader.close();
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) throws Exception {
+        method.setAccessible(true);
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            val cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Pattern;
+
+/**
+ * Sync folder shared by all builds on the host that configured the same namespace, so that their test JVMs
+ * coordinate with each other. Every build that joined the namespace holds a lock of its own {@code build_<seed>}
+ * member file until it finishes. The build that leaves last deletes files of the folder, including files left
+ * over by builds that died, which are recognized by the released lock of their member file. Joining and leaving
+ * happen under the lock of {@link Constants#NAMESPACE_GUARD_FILE_NAME}, so that a build can not join while
+ * the folder is being cleaned. File locks are held on behalf of the whole JVM, so builds of the same Gradle daemon
+ * also synchronize on the class.
+ * <p>
+ * Trace files are written into a {@code traces_<seed>} folder of each build, so that reports of a build only
+ * include its own test JVMs.
+ */
+@RequiredArgsConstructor
+final class SyncNamespace {
+
+    private static final Pattern KEY_PATTERN = Pattern.compile("[A-Za-z0-9._-]+");
+
+    @Getter
+    String key;
+    @Getter
+    Path folderPath;
+    @Getter
+    Path traceFolderPath;
+    Path memberFilePath;
+    FileChannel memberChannel;
+    FileLock memberLock;
+
+    /**
+     * @throws IllegalArgumentException if the key can not be used as part of a folder name
+     */
+    static String verifyKey(CharSequence key) {
+        val keyStr = key.toString();
+        if (!KEY_PATTERN.matcher(keyStr).matches()) {
+            throw new IllegalArgumentException(
+                "Test synchronization namespace [" + keyStr + "] must only contain letters, digits, '.', '_' and '-'"
+            );
+        }
+        return keyStr;
+    }
+
+    static SyncNamespace join(String key, Path directory, long seed) throws IOException {
+        val folderPath = directory.resolve(Constants.NAMESPACE_FOLDER_PREFIX + key);
+        synchronized (SyncNamespace.class) {
+            Files.createDirectories(folderPath);
+            try (FileChannel guardChannel = openGuard(folderPath); FileLock ignored = guardChannel.lock()) {
+                val memberFilePath = folderPath.resolve(Constants.NAMESPACE_MEMBER_FILE_PREFIX + seed);
+                val memberChannel = FileChannel.open(memberFilePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                try {
+                    val memberLock = memberChannel.lock();
+                    val traceFolderPath = Files.createDirectories(folderPath.resolve(Constants.NAMESPACE_TRACE_FOLDER_PREFIX + seed));
+                    return new SyncNamespace(key, folderPath, traceFolderPath, memberFilePath, memberChannel, memberLock);
+                } catch (IOException e) {
+                    memberChannel.close();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes files of this build, and all files of the folder if no other build is in the namespace anymore.
+     *
+     * @return true if the folder was cleaned
+     */
+    boolean leave() throws IOException {
+        synchronized (SyncNamespace.class) {
+            try (FileChannel guardChannel = openGuard(folderPath); FileLock ignored = guardChannel.lock()) {
+                try {
+                    memberLock.release();
+                } finally {
+                    memberChannel.close();
+                }
+                Files.deleteIfExists(memberFilePath);
+                deleteRecursively(traceFolderPath);
+                if (hasLiveMembers()) {
+                    return false;
+                }
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(folderPath)) {
+                    for (val file : files) {
+                        if (!file.getFileName().toString().equals(Constants.NAMESPACE_GUARD_FILE_NAME)) {
+                            deleteRecursively(file);
+                        }
+                    }
+                }
+                return true;
+            }
+        }
+    }
+
+    private boolean hasLiveMembers() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folderPath, Constants.NAMESPACE_MEMBER_FILE_PREFIX + "*")) {
+            for (val file : files) {
+                if (isAlive(file)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isAlive(Path memberFilePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(memberFilePath, StandardOpenOption.WRITE)) {
+            val lock = channel.tryLock();
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (OverlappingFileLockException e) {
+            // another build in the same Gradle daemon
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private static FileChannel openGuard(Path folderPath) throws IOException {
+        return FileChannel.open(folderPath.resolve(Constants.NAMESPACE_GUARD_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(path)) {
+                for (val file : files) {
+                    deleteRecursively(file);
+                }
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+}
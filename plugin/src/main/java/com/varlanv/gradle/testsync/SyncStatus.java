@@ -0,0 +1,127 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holders and waiters of sync tags in the builds that are running on this host, read from {@code lease_<pid>} files
+ * that test JVMs publish in the sync folders. See {@code Leases} of the synchronizer for the file layout.
+ */
+final class SyncStatus {
+
+    /**
+     * Heartbeat after which a test JVM is considered to have stopped renewing its leases.
+     */
+    private static final long STALE_HEARTBEAT_MILLIS = 10_000L;
+    private static final String FIELD_SEPARATOR = "\t";
+
+    private SyncStatus() {
+    }
+
+    /**
+     * @return lines that describe each tag of each running build, empty if no test JVM holds or waits for a tag
+     */
+    static List<String> describe(Path tempFolderPath, long now) throws IOException {
+        val lines = new ArrayList<String>();
+        try (DirectoryStream<Path> folders = Files.newDirectoryStream(tempFolderPath, Constants.SYNC_FOLDER_PREFIX + "*")) {
+            for (val folder : folders) {
+                val tags = readLeases(folder);
+                if (tags.isEmpty()) {
+                    continue;
+                }
+                lines.add("Sync folder [" + folder + "]");
+                for (val tag : tags.entrySet()) {
+                    lines.add("  tag [" + tag.getKey() + "]");
+                    for (val lease : tag.getValue()) {
+                        lines.add("    " + lease.describe(now));
+                    }
+                }
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * @return leases by tag, holders first
+     */
+    private static Map<String, List<Lease>> readLeases(Path folder) throws IOException {
+        val result = new TreeMap<String, List<Lease>>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, Constants.LEASE_FILE_PREFIX + "*")) {
+            for (val file : files) {
+                if (file.getFileName().toString().endsWith(".tmp")) {
+                    continue;
+                }
+                final List<String> lines;
+                try {
+                    lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                if (lines.isEmpty()) {
+                    continue;
+                }
+                val header = lines.get(0).split(FIELD_SEPARATOR, 4);
+                if (header.length != 4) {
+                    continue;
+                }
+                for (var i = 1; i < lines.size(); i++) {
+                    val fields = lines.get(i).split(FIELD_SEPARATOR, 4);
+                    if (fields.length == 4) {
+                        val lease = new Lease(
+                            Long.parseLong(header[0]),
+                            Long.parseLong(header[2]),
+                            header[3],
+                            Constants.LEASE_HOLD.equals(fields[0]),
+                            Long.parseLong(fields[2]),
+                            fields[3]
+                        );
+                        val tagLeases = result.computeIfAbsent(fields[1], key -> new ArrayList<>());
+                        if (lease.hold) {
+                            tagLeases.add(0, lease);
+                        } else {
+                            tagLeases.add(lease);
+                        }
+                    }
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // build finished and deleted its sync folder in the meantime
+        }
+        return result;
+    }
+
+    @RequiredArgsConstructor
+    static final class Lease {
+
+        long pid;
+        long heartbeatMillis;
+        String module;
+        boolean hold;
+        long since;
+        String testId;
+
+        String describe(long now) {
+            val description = new StringBuilder()
+                .append(hold ? "held by" : "waited for by").append(" test [").append(testId)
+                .append("] of module [").append(module).append("] in JVM with pid [").append(pid).append("] for ")
+                .append(TimeUnit.MILLISECONDS.toSeconds(now - since)).append('s');
+            val staleMillis = now - heartbeatMillis;
+            if (staleMillis > STALE_HEARTBEAT_MILLIS) {
+                description.append(", JVM stopped renewing its lease ").append(TimeUnit.MILLISECONDS.toSeconds(staleMillis)).append("s ago");
+            }
+            return description.toString();
+        }
+    }
+}
@@ -32,5 +32,9 @@ final class SyncTagProperty {
         Path syncFolderPath;
         Path syncFilePath;
         String syncFilePathStr;
+        int permits;
+        String scope;
+        boolean fifo;
+        boolean sharedWithinJvm;
     }
 }
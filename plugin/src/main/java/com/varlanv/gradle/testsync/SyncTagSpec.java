@@ -0,0 +1,172 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.experimental.NonFinal;
+import lombok.val;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+final class SyncTagSpec implements TestSyncTagView, Serializable {
+
+    private static final long serialVersionUID = 1L;
+    static final int DEFAULT_PERMITS = 1;
+    static final String DEFAULT_SCOPE = "TEST";
+    private static final List<String> SCOPES = Arrays.asList(DEFAULT_SCOPE, "CLASS", "TEMPLATE");
+    private static final List<String> ON_MAX_WAIT_ACTIONS = Arrays.asList(Constants.ON_MAX_WAIT_FAIL, Constants.ON_MAX_WAIT_SKIP);
+
+    @NonFinal
+    int permits = DEFAULT_PERMITS;
+    @NonFinal
+    boolean resourceLock;
+    @NonFinal
+    String scope = DEFAULT_SCOPE;
+    @NonFinal
+    long leaseMillis;
+    @NonFinal
+    long maxWaitMillis;
+    @NonFinal
+    String onMaxWait = Constants.ON_MAX_WAIT_FAIL;
+    @NonFinal
+    boolean dumpHolderStack;
+    @NonFinal
+    boolean fifo;
+    @NonFinal
+    long coalesceMillis;
+    @NonFinal
+    int coalesceTests;
+    @NonFinal
+    boolean sharedWithinJvm;
+
+    @Override
+    public void permits(int permits) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("Test synchronization tag permits must be positive, but received [" + permits + "].");
+        }
+        this.permits = permits;
+    }
+
+    int permits() {
+        return permits;
+    }
+
+    @Override
+    public void resourceLock(boolean resourceLock) {
+        this.resourceLock = resourceLock;
+    }
+
+    boolean resourceLock() {
+        return resourceLock;
+    }
+
+    @Override
+    public void scope(CharSequence scope) {
+        val scopeStr = scope.toString().toUpperCase(Locale.ROOT);
+        if (!SCOPES.contains(scopeStr)) {
+            throw new IllegalArgumentException(
+                "Unsupported test synchronization tag scope [" + scope + "], supported values are "
+                    + SCOPES.toString().toLowerCase(Locale.ROOT) + "."
+            );
+        }
+        this.scope = scopeStr;
+    }
+
+    String scope() {
+        return scope;
+    }
+
+    @Override
+    public void leaseTimeout(Duration leaseTimeout) {
+        if (leaseTimeout.isNegative() || leaseTimeout.isZero()) {
+            throw new IllegalArgumentException("Test synchronization tag lease timeout must be positive, but received [" + leaseTimeout + "].");
+        }
+        this.leaseMillis = leaseTimeout.toMillis();
+    }
+
+    long leaseMillis() {
+        return leaseMillis;
+    }
+
+    @Override
+    public void maxWait(Duration maxWait) {
+        maxWait(maxWait, Constants.ON_MAX_WAIT_FAIL);
+    }
+
+    @Override
+    public void maxWait(Duration maxWait, CharSequence onMaxWait) {
+        if (maxWait.isNegative() || maxWait.isZero()) {
+            throw new IllegalArgumentException("Test synchronization tag max wait must be positive, but received [" + maxWait + "].");
+        }
+        val onMaxWaitStr = onMaxWait.toString().toLowerCase(Locale.ROOT);
+        if (!ON_MAX_WAIT_ACTIONS.contains(onMaxWaitStr)) {
+            throw new IllegalArgumentException(
+                "Unsupported test synchronization tag max wait action [" + onMaxWait + "], supported values are " + ON_MAX_WAIT_ACTIONS + "."
+            );
+        }
+        this.maxWaitMillis = maxWait.toMillis();
+        this.onMaxWait = onMaxWaitStr;
+    }
+
+    long maxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    String onMaxWait() {
+        return onMaxWait;
+    }
+
+    @Override
+    public void dumpHolderStack(boolean dumpHolderStack) {
+        this.dumpHolderStack = dumpHolderStack;
+    }
+
+    boolean dumpHolderStack() {
+        return dumpHolderStack;
+    }
+
+    @Override
+    public void fifo(boolean fifo) {
+        this.fifo = fifo;
+    }
+
+    boolean fifo() {
+        return fifo;
+    }
+
+    @Override
+    public void coalesce(Duration budget) {
+        if (budget.isNegative() || budget.isZero()) {
+            throw new IllegalArgumentException("Test synchronization tag coalesce budget must be positive, but received [" + budget + "].");
+        }
+        this.coalesceMillis = budget.toMillis();
+        this.coalesceTests = 0;
+    }
+
+    @Override
+    public void coalesce(Duration budget, int maxTests) {
+        if (maxTests < 1) {
+            throw new IllegalArgumentException("Test synchronization tag coalesce max tests must be positive, but received [" + maxTests + "].");
+        }
+        coalesce(budget);
+        this.coalesceTests = maxTests;
+    }
+
+    long coalesceMillis() {
+        return coalesceMillis;
+    }
+
+    int coalesceTests() {
+        return coalesceTests;
+    }
+
+    @Override
+    public void sharedWithinJvm(boolean sharedWithinJvm) {
+        this.sharedWithinJvm = sharedWithinJvm;
+    }
+
+    boolean sharedWithinJvm() {
+        return sharedWithinJvm;
+    }
+}
@@ -4,10 +4,12 @@ import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.val;
 import org.gradle.api.logging.Logger;
+import org.jetbrains.annotations.Nullable;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -17,8 +19,14 @@ class SynchronizerRequest {
     Logger log;
     TestSyncExtension extension;
     ConcurrentMap<String, SyncTagProperty> tagToSyncPropMap;
-    Path tempFolderPath;
+    Path syncFolderPath;
     long seed;
+    Comparator<String> tagOrder;
+    /**
+     * Socket path of the lock coordinator, if the build uses {@link Constants#BACKEND_DAEMON} backend.
+     */
+    @Nullable
+    String coordinator;
 
     @SneakyThrows
     SyncProperty handle() {
@@ -26,13 +34,16 @@ class SynchronizerRequest {
         if (tags.isEmpty()) {
             return new SyncProperty(seed);
         }
-        val syncFolderPath = tempFolderPath.resolve(Constants.SYNC_FOLDER_PREFIX + seed);
         if (Files.notExists(syncFolderPath)) {
             Files.createDirectories(syncFolderPath);
         }
 
+        val tagSpecs = extension.getTagSpecs().get();
+        val defaultTagSpec = new SyncTagSpec();
         val syncPropertiesStates = new ArrayList<SyncTagProperty.State>(tags.size());
         for (val tag : tags) {
+            val tagSpec = tagSpecs.getOrDefault(tag, defaultTagSpec);
+            val permits = tagSpec.permits();
             val syncTagProperty = tagToSyncPropMap.computeIfAbsent(
                 tag,
                 key -> new SyncTagProperty(
@@ -49,22 +60,73 @@ class SynchronizerRequest {
                     if (Files.notExists(syncFilePath)) {
                         Files.createFile(syncFilePath);
                     }
-                    syncTagProperty.state = new SyncTagProperty.State(tag, syncFolderPath, syncFilePath, syncFilePathStr);
+                    syncTagProperty.state = new SyncTagProperty.State(
+                        tag, syncFolderPath, syncFilePath, syncFilePathStr, permits, tagSpec.scope(), tagSpec.fifo(), tagSpec.sharedWithinJvm()
+                    );
                     syncPropertiesStates.add(syncTagProperty.state);
                 } else {
-                    syncPropertiesStates.add(state.get());
+                    val existingState = state.get();
+                    if (existingState.permits() != permits) {
+                        log.warn(
+                            "Test synchronization tag [{}] is already configured with [{}] permits by another project, ignoring [{}] permits",
+                            tag, existingState.permits(), permits
+                        );
+                    }
+                    // like permits, these options only work when test JVMs of all projects agree on them
+                    warnOnMismatch(tag, "scope", existingState.scope(), tagSpec.scope());
+                    warnOnMismatch(tag, "fifo", existingState.fifo(), tagSpec.fifo());
+                    warnOnMismatch(tag, "sharedWithinJvm", existingState.sharedWithinJvm(), tagSpec.sharedWithinJvm());
+                    syncPropertiesStates.add(existingState);
                 }
             } finally {
                 syncTagProperty.lock().unlock();
             }
         }
+        syncPropertiesStates.sort(Comparator.comparing(SyncTagProperty.State::tag, tagOrder));
         val syncProperties = new ArrayList<String>(syncPropertiesStates.size());
         for (val syncPropertiesState : syncPropertiesStates) {
-            syncProperties.add(syncPropertiesState.tag() + Constants.TAG_SEPARATOR + syncPropertiesState.syncFilePathStr());
+            val tagSpec = tagSpecs.getOrDefault(syncPropertiesState.tag(), defaultTagSpec);
+            syncProperties.add(
+                syncPropertiesState.tag()
+                    + Constants.TAG_SEPARATOR + syncPropertiesState.syncFilePathStr()
+                    + option(Constants.SYNC_OPTION_PERMITS, syncPropertiesState.permits())
+                    + option(Constants.SYNC_OPTION_RESOURCE_LOCK, tagSpec.resourceLock())
+                    + option(Constants.SYNC_OPTION_SCOPE, syncPropertiesState.scope())
+                    + (tagSpec.leaseMillis() > 0 ? option(Constants.SYNC_OPTION_LEASE, tagSpec.leaseMillis()) : "")
+                    + (tagSpec.maxWaitMillis() > 0 ? maxWaitOptions(tagSpec) : "")
+                    + (syncPropertiesState.fifo() ? option(Constants.SYNC_OPTION_FIFO, true) : "")
+                    + (tagSpec.coalesceMillis() > 0 ? coalesceOptions(tagSpec) : "")
+                    + (syncPropertiesState.sharedWithinJvm() ? option(Constants.SYNC_OPTION_SHARED_WITHIN_JVM, true) : "")
+                    + (coordinator == null ? "" : option(Constants.SYNC_OPTION_COORDINATOR, coordinator))
+            );
         }
         val finalProperty = String.join(Constants.SYNC_PROPERTY_SEPARATOR, syncProperties);
         log.debug("Initialized state: seed -> [{}], sync property -> [{}]", seed, finalProperty);
         return new SyncProperty(seed, finalProperty);
 
     }
+
+    private void warnOnMismatch(String tag, String option, Object existingValue, Object value) {
+        if (!existingValue.equals(value)) {
+            log.warn(
+                "Test synchronization tag [{}] is already configured with [{}] [{}] by another project, ignoring [{}]",
+                tag, option, existingValue, value
+            );
+        }
+    }
+
+    private static String maxWaitOptions(SyncTagSpec tagSpec) {
+        return option(Constants.SYNC_OPTION_MAX_WAIT, tagSpec.maxWaitMillis())
+            + option(Constants.SYNC_OPTION_ON_MAX_WAIT, tagSpec.onMaxWait())
+            + option(Constants.SYNC_OPTION_DUMP_HOLDER_STACK, tagSpec.dumpHolderStack());
+    }
+
+    private static String coalesceOptions(SyncTagSpec tagSpec) {
+        return option(Constants.SYNC_OPTION_COALESCE, tagSpec.coalesceMillis())
+            + (tagSpec.coalesceTests() > 0 ? option(Constants.SYNC_OPTION_COALESCE_TESTS, tagSpec.coalesceTests()) : "");
+    }
+
+    private static String option(String key, Object value) {
+        return Constants.TAG_SEPARATOR + key + Constants.SYNC_OPTION_SEPARATOR + value;
+    }
 }
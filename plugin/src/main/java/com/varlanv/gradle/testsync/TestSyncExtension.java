@@ -1,11 +1,15 @@
 package com.varlanv.gradle.testsync;
 
 import lombok.val;
+import org.gradle.api.Action;
 import org.gradle.api.NonNullApi;
+import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.provider.SetProperty;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Set;
 
@@ -16,6 +20,24 @@ interface TestSyncExtension extends TestSyncExtensionView {
 
     ListProperty<String> getTags();
 
+    MapProperty<String, SyncTagSpec> getTagSpecs();
+
+    Property<Boolean> getAtomicAcquisition();
+
+    Property<Boolean> getTracing();
+
+    Property<Boolean> getLockAffinityOrdering();
+
+    Property<Integer> getPrefetchLookahead();
+
+    Property<String> getBackend();
+
+    Property<String> getBackendAddress();
+
+    Property<String> getNamespace();
+
+    DirectoryProperty getNamespaceDirectory();
+
     Property<Boolean> getVerboseConfiguration();
 
     Property<Boolean> getVerboseSynchronizer();
@@ -25,6 +47,15 @@ interface TestSyncExtension extends TestSyncExtensionView {
         getTags().add(verifyNotExists(tag, getUniqueTags().get()));
     }
 
+    @Override
+    default void tag(CharSequence tag, Action<? super TestSyncTagView> action) {
+        val spec = new SyncTagSpec();
+        action.execute(spec);
+        val tagStr = verifyNotExists(tag, getUniqueTags().get());
+        getTags().add(tagStr);
+        getTagSpecs().put(tagStr, spec);
+    }
+
     @Override
     default void tags(CharSequence... tags) {
         val tagsList = new ArrayList<String>(tags.length);
@@ -45,6 +76,59 @@ interface TestSyncExtension extends TestSyncExtensionView {
         getTags().addAll(tagsList);
     }
 
+    @Override
+    default void atomicAcquisition(boolean atomic) {
+        getAtomicAcquisition().set(atomic);
+    }
+
+    @Override
+    default void tracing(boolean tracing) {
+        getTracing().set(tracing);
+    }
+
+    @Override
+    default void lockAffinityOrdering(boolean lockAffinityOrdering) {
+        getLockAffinityOrdering().set(lockAffinityOrdering);
+    }
+
+    @Override
+    default void prefetchLocks(int lookahead) {
+        if (lookahead < 0) {
+            throw new IllegalArgumentException("Test synchronization prefetch lookahead must not be negative, but received [" + lookahead + "]");
+        }
+        getPrefetchLookahead().set(lookahead);
+    }
+
+    @Override
+    default void backend(String backend) {
+        if (backend.trim().isEmpty()) {
+            throw new IllegalArgumentException("Test synchronization backend name must not be blank");
+        }
+        getBackend().set(backend);
+        getBackendAddress().set((String) null);
+    }
+
+    @Override
+    default void backend(String backend, String address) {
+        if (address.trim().isEmpty()) {
+            throw new IllegalArgumentException("Address of test synchronization backend [" + backend + "] must not be blank");
+        }
+        backend(backend);
+        getBackendAddress().set(address);
+    }
+
+    @Override
+    default void namespace(CharSequence key) {
+        getNamespace().set(SyncNamespace.verifyKey(key));
+        getNamespaceDirectory().set((File) null);
+    }
+
+    @Override
+    default void namespace(CharSequence key, File directory) {
+        namespace(key);
+        getNamespaceDirectory().set(directory);
+    }
+
     @Override
     default void verboseConfiguration(boolean verbose) {
         getVerboseConfiguration().set(verbose);
@@ -1,7 +1,10 @@
 package com.varlanv.gradle.testsync;
 
+import org.gradle.api.Action;
 import org.gradle.api.NonNullApi;
 
+import java.io.File;
+
 /**
  * Configuration options for gradle plugin {@code com.varlanv.testsync}
  */
@@ -16,6 +19,15 @@ public interface TestSyncExtensionView {
      */
     void tag(CharSequence tag);
 
+    /**
+     * Adds one tag to the list of synchronization tags, with additional tag configuration.
+     *
+     * @param tag    test tag
+     * @param action tag configuration
+     * @throws IllegalArgumentException if tag was already added previously
+     */
+    void tag(CharSequence tag, Action<? super TestSyncTagView> action);
+
     /**
      * Adds multiple tags to the list of synchronization tags.
      *
@@ -32,6 +44,97 @@ public interface TestSyncExtensionView {
      */
     void tags(Iterable<? extends CharSequence> tags);
 
+    /**
+     * Configure whether tests that require multiple tags should acquire all of them at once.
+     * When enabled, a test never holds some of its tags while waiting for the others,
+     * so tests that need only one of those tags are not blocked by it. Default is false.
+     *
+     * @param atomic true/false
+     */
+    void atomicAcquisition(boolean atomic);
+
+    /**
+     * Configure whether lock events of test JVMs should be recorded. Events are written into memory-mapped trace
+     * files in the synchronization folder, which is cheap enough to leave enabled. Default is true.
+     *
+     * @param tracing true/false
+     */
+    void tracing(boolean tracing);
+
+    /**
+     * Configure whether JUnit Jupiter should order test classes and methods of each test JVM by the sync tags they
+     * require: tests without tags first, so that they run while other JVMs hold the tags, and then tests that require
+     * the same tags next to each other, so that the JVM takes each tag fewer times. The plugin sets
+     * {@code junit.jupiter.testclass.order.default} and {@code junit.jupiter.testmethod.order.default}, unless
+     * the test task already sets them. Requires JUnit Jupiter 5.8 or newer. Default is false.
+     *
+     * @param lockAffinityOrdering true/false
+     */
+    void lockAffinityOrdering(boolean lockAffinityOrdering);
+
+    /**
+     * Configure whether test JVMs that run tests one at a time should start waiting for the tags of an upcoming test
+     * while the preceding tests without tags are still running, so that the tags are already held when the test
+     * starts. The JVM looks for the next test that requires tags among the following {@code lookahead} tests of its
+     * test plan, and only waits for one such test at a time. Tags waited for in advance are given back if another
+     * test that requires tags starts first, for example because the upcoming test was skipped. Prefetching is turned
+     * off in JVMs that run tests in parallel and for tags that are held for a whole class or test template.
+     * Default is 0, meaning no prefetching.
+     *
+     * @param lookahead number of upcoming tests to look through, 0 to turn prefetching off
+     * @throws IllegalArgumentException if lookahead is negative
+     */
+    void prefetchLocks(int lookahead);
+
+    /**
+     * Configure how test JVMs coordinate with each other. {@code "file"} takes an OS file lock per tag.
+     * {@code "mmap"} updates a single memory-mapped control file with atomic instructions, which makes uncontended
+     * acquisition much cheaper and releases locks of test JVMs that died while holding them, but requires tests
+     * to run on Java 9 or newer. {@code "daemon"} sends lock requests to a coordinator that the Gradle daemon runs on
+     * a Unix domain socket, which grants them in arrival order and releases locks of test JVMs as soon as they exit,
+     * but requires both Gradle and tests to run on Java 16 or newer. {@code "tcp"} does the same over a loopback
+     * TCP socket, see {@link #backend(String, String)} to share a standalone lock server between hosts.
+     * Any other name selects a backend provided by {@code com.varlanv.gradle.testsync.LockBackendProvider} service
+     * on the test runtime classpath. All projects of the build should use the same backend. Default is {@code "file"}.
+     *
+     * @param backend name of the backend
+     * @throws IllegalArgumentException if backend is blank
+     */
+    void backend(String backend);
+
+    /**
+     * Same as {@link #backend(String)}, but with address of the lock coordinator. For {@code "tcp"} backend,
+     * it is {@code host:port} of a standalone lock server, so that builds running on several hosts can share tags.
+     *
+     * @param backend name of the backend
+     * @param address address of the lock coordinator, passed to the backend as is
+     * @throws IllegalArgumentException if backend or address is blank
+     */
+    void backend(String backend, String address);
+
+    /**
+     * Share tags with other builds on this host that use the same namespace, for example two CI jobs on the same agent,
+     * or an IDE build next to a command line build. By default, each build has its own sync folder, and test JVMs
+     * of different builds never coordinate. With a namespace, all builds use the {@code varlanvtestsync_ns_<key>} folder
+     * in the temp folder, and the last build that finishes deletes its files. All projects of the build should use
+     * the same namespace. Lock coordinators that the build runs itself, {@code "daemon"} and {@code "tcp"} without
+     * address, can not be used with a namespace.
+     *
+     * @param key name of the namespace, letters, digits, '.', '_' and '-'
+     * @throws IllegalArgumentException if key contains other characters
+     */
+    void namespace(CharSequence key);
+
+    /**
+     * Same as {@link #namespace(CharSequence)}, but with the folder that contains the namespace folder, for builds
+     * that run with different temp folders, such as builds of different users.
+     *
+     * @param key       name of the namespace, letters, digits, '.', '_' and '-'
+     * @param directory folder that contains the namespace folder, must be writable by all builds of the namespace
+     * @throws IllegalArgumentException if key contains other characters
+     */
+    void namespace(CharSequence key, File directory);
+
     /**
      * Configure whether verbose logging during plugin configuration should be enabled.
      * Default is false.
@@ -22,6 +22,11 @@ public class TestSyncPlugin implements Plugin<Project> {
         val buildDirectory = layout.getBuildDirectory();
         testSyncExtension.getVerboseSynchronizer().convention(false);
         testSyncExtension.getVerboseConfiguration().convention(false);
+        testSyncExtension.getAtomicAcquisition().convention(false);
+        testSyncExtension.getTracing().convention(true);
+        testSyncExtension.getLockAffinityOrdering().convention(false);
+        testSyncExtension.getPrefetchLookahead().convention(0);
+        testSyncExtension.getBackend().convention(Constants.BACKEND_FILE);
         extensions.add(
             TestSyncExtensionView.class,
             Constants.EXTENSION_NAME,
@@ -30,10 +35,33 @@ public class TestSyncPlugin implements Plugin<Project> {
         val buildServiceProvider = sharedServices.registerIfAbsent(
             Constants.BUILD_SERVICE_NAME,
             TestSynchronizerBuildService.class,
-            spec -> {
-            }
+            spec -> spec.getParameters().getTimelineDirectory().set(
+                project.getRootProject().getLayout().getBuildDirectory().dir("reports/testsync")
+            )
         );
 
+        tasks.register(
+            Constants.REPORT_TASK_NAME,
+            TestSyncReportTask.class,
+            task -> {
+                task.setGroup("verification");
+                task.setDescription("Writes contention report of test synchronization tags.");
+                task.getBuildService().set(buildServiceProvider);
+                task.usesService(buildServiceProvider);
+                task.getReportDirectory().convention(buildDirectory.dir("reports/testsync"));
+                task.getHistoryDirectory().convention(buildDirectory.dir("testsync/history"));
+                task.mustRunAfter(tasks.withType(Test.class));
+            }
+        );
+        tasks.register(
+            Constants.STATUS_TASK_NAME,
+            TestSyncStatusTask.class,
+            task -> {
+                task.setGroup("verification");
+                task.setDescription("Prints holders and waiters of test synchronization tags in running builds.");
+                task.getNamespaceDirectory().set(testSyncExtension.getNamespaceDirectory());
+            }
+        );
         tasks.withType(Test.class).configureEach(
             test -> {
                 test.setClasspath(test.getClasspath().plus(buildDirectory.files("tmp/testsyncplugin/" + Constants.SYNCHRONIZER_JAR)));
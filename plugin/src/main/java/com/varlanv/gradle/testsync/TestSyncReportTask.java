@@ -0,0 +1,46 @@
+package com.varlanv.gradle.testsync;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.NonNullApi;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.DisableCachingByDefault;
+
+/**
+ * Writes contention report of synchronization tags, based on lock events recorded by test JVMs of the build.
+ * <p>
+ * The report is written when the task runs, and then rewritten when the build finishes, to include test tasks
+ * that were still running at that time. The final report is also added to the history of earlier builds.
+ */
+@NonNullApi
+@DisableCachingByDefault(because = "Report depends on lock events of the current build")
+public abstract class TestSyncReportTask extends DefaultTask {
+
+    @Internal
+    public abstract Property<TestSynchronizerBuildService> getBuildService();
+
+    @OutputDirectory
+    public abstract DirectoryProperty getReportDirectory();
+
+    @Internal
+    public abstract DirectoryProperty getHistoryDirectory();
+
+    public TestSyncReportTask() {
+        getOutputs().upToDateWhen(task -> false);
+    }
+
+    @TaskAction
+    public void report() {
+        getBuildService().get().report(
+            getReportDirectory().get().getAsFile().toPath(),
+            getHistoryDirectory().get().getAsFile().toPath()
+        );
+        getLogger().lifecycle(
+            "Test sync report: {}",
+            getReportDirectory().get().file(ContentionReport.HTML_FILE_NAME).getAsFile().toURI()
+        );
+    }
+}
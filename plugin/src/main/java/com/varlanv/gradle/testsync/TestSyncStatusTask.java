@@ -0,0 +1,50 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.val;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.NonNullApi;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.DisableCachingByDefault;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Prints which tests hold and wait for each synchronization tag in the builds that are currently running on this host.
+ * Meant to be run from a separate Gradle invocation while the build of interest is stuck.
+ */
+@NonNullApi
+@DisableCachingByDefault(because = "Status depends on test JVMs of builds that are currently running")
+public abstract class TestSyncStatusTask extends DefaultTask {
+
+    public TestSyncStatusTask() {
+        getOutputs().upToDateWhen(task -> false);
+    }
+
+    /**
+     * Folder of the namespace folder, if the project shares tags with other builds outside of the temp folder.
+     */
+    @Internal
+    public abstract DirectoryProperty getNamespaceDirectory();
+
+    @TaskAction
+    public void status() throws IOException {
+        val now = System.currentTimeMillis();
+        val lines = SyncStatus.describe(TestSynchronizerBuildService.tempFolderPath(), now);
+        if (getNamespaceDirectory().isPresent()) {
+            val namespaceDirectory = getNamespaceDirectory().get().getAsFile().toPath().toAbsolutePath();
+            if (Files.isDirectory(namespaceDirectory) && !namespaceDirectory.equals(TestSynchronizerBuildService.tempFolderPath().toAbsolutePath())) {
+                lines.addAll(SyncStatus.describe(namespaceDirectory, now));
+            }
+        }
+        if (lines.isEmpty()) {
+            getLogger().lifecycle("No test JVM holds or waits for test synchronization tags");
+            return;
+        }
+        for (val line : lines) {
+            getLogger().lifecycle(line);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.varlanv.gradle.testsync;
+
+import org.gradle.api.NonNullApi;
+
+import java.time.Duration;
+
+/**
+ * Configuration options of a single synchronization tag.
+ */
+@NonNullApi
+public interface TestSyncTagView {
+
+    /**
+     * Configure how many tests tagged with this tag are allowed to run at the same time, across all test JVMs of the build.
+     * Default is 1, meaning that tagged tests run strictly one after another.
+     *
+     * @param permits number of concurrent holders, must be positive
+     * @throws IllegalArgumentException if permits is less than 1
+     */
+    void permits(int permits);
+
+    /**
+     * Configure whether tests annotated with JUnit Jupiter {@code @ResourceLock} that use this tag as resource name
+     * should be synchronized as well. {@code READ} resource locks can be held by any number of tests at the same time,
+     * while {@code READ_WRITE} resource locks exclude every other holder of the tag.
+     * Default is false.
+     *
+     * @param resourceLock true/false
+     */
+    void resourceLock(boolean resourceLock);
+
+    /**
+     * Configure granularity at which tests of the project hold this tag:
+     * <ul>
+     *     <li>{@code "test"} - lock is held for each test separately</li>
+     *     <li>{@code "class"} - lock is held for the whole test class, including class-level setup and teardown</li>
+     *     <li>{@code "template"} - lock is held for the whole test template, such as repeated or parameterized test</li>
+     * </ul>
+     * Default is {@code "test"}.
+     *
+     * @param scope one of {@code "test"}, {@code "class"}, {@code "template"}, case-insensitive
+     * @throws IllegalArgumentException if scope is not one of supported values
+     */
+    void scope(CharSequence scope);
+
+    /**
+     * Configure the longest time a single test or container may hold this tag. When the time is up, the lock
+     * is taken away from the holder and given to the next waiter, while the holder keeps running, and the stale holder
+     * is reported. Waiters also report holders in other test JVMs that stopped renewing their leases, for example
+     * because the JVM is frozen. Default is no limit.
+     *
+     * @param leaseTimeout lease duration, must be positive
+     * @throws IllegalArgumentException if leaseTimeout is not positive
+     */
+    void leaseTimeout(Duration leaseTimeout);
+
+    /**
+     * Configure the longest time a single test or container may wait for this tag. When the time is up, the test
+     * fails with a message that names the current holders of the tag: their module, test JVM pid, test id
+     * and how long they have held the tag. Default is no limit.
+     * <p>
+     * Tests are failed by a JUnit Jupiter extension, {@code com.varlanv.gradle.testsync.LockWaitTimeoutExtension},
+     * that Jupiter finds when the test task enables extension auto-detection
+     * ({@code junit.jupiter.extensions.autodetection.enabled}). The plugin does not enable it. Without the extension,
+     * the holders are reported when the time is up, and the test keeps waiting, so that it never runs without the tag.
+     *
+     * @param maxWait maximum wait, must be positive
+     * @throws IllegalArgumentException if maxWait is not positive
+     */
+    void maxWait(Duration maxWait);
+
+    /**
+     * Same as {@link #maxWait(Duration)}, but allows skipping tests that waited for too long, instead of failing them.
+     *
+     * @param maxWait   maximum wait, must be positive
+     * @param onMaxWait one of {@code "fail"}, {@code "skip"}, case-insensitive
+     * @throws IllegalArgumentException if maxWait is not positive or onMaxWait is not one of supported values
+     */
+    void maxWait(Duration maxWait, CharSequence onMaxWait);
+
+    /**
+     * Configure whether a test that waited for longer than {@link #maxWait(Duration)} should also report the stacks
+     * of the threads that hold the tag, including the ones in other test JVMs. Waiter asks the holder JVM
+     * for the stacks through the sync folder, and waits for the reply for a few seconds. Default is false.
+     *
+     * @param dumpHolderStack true/false
+     */
+    void dumpHolderStack(boolean dumpHolderStack);
+
+    /**
+     * Configure whether test JVMs take turns for the tag in the order they started waiting. Without it, the OS decides
+     * which waiting JVM gets a released tag, and one JVM can take it again and again while others starve. Tests can
+     * jump the queue with a {@code testsync.priority=<number>} tag, e.g. {@code @Tag("testsync.priority=10")},
+     * higher numbers go first, default priority is 0. Applies to the default file backend, lock servers already
+     * grant locks in request order. Every acquisition of the tag then also locks and reads a queue file, so the queue
+     * is only worth it for contended tags. Default is false.
+     *
+     * @param fifo true/false
+     */
+    void fifo(boolean fifo);
+
+    /**
+     * Configure whether a test JVM keeps this tag between its consecutive tests that use it, instead of handing it
+     * to other test JVMs after every test. A chain of tests keeps the tag for at most {@code budget}, after which the
+     * tag is handed over to the other JVMs, and the chain ends right away when other JVMs are known to wait for
+     * the tag. Waiting JVMs are only known on the default file backend, where coalescing queues JVMs for the tag as
+     * with {@code fifo(true)}. Tag is kept only for
+     * a few milliseconds after a test finishes, adjusted to the usual gap between tests of the JVM, so that a JVM
+     * that runs other tests next does not keep it. Only applies to tags with a single permit. Default is no coalescing.
+     *
+     * @param budget longest time a chain of tests keeps the tag, must be positive
+     * @throws IllegalArgumentException if budget is not positive
+     */
+    void coalesce(Duration budget);
+
+    /**
+     * Same as {@link #coalesce(Duration)}, but also ends the chain after {@code maxTests} tests.
+     *
+     * @param budget   longest time a chain of tests keeps the tag, must be positive
+     * @param maxTests largest number of tests in a chain, must be positive
+     * @throws IllegalArgumentException if budget or maxTests is not positive
+     */
+    void coalesce(Duration budget, int maxTests);
+
+    /**
+     * Configure whether tests of the same test JVM may hold this tag at the same time, while test JVMs still hold it
+     * one at a time. Suits fixtures that are started once per test JVM, such as a database container per fork, that
+     * tests of the fork can use in parallel, but other forks must not use at the same time. The first test of the JVM
+     * takes the tag, the following ones join it without waiting, and the tag is given back when the last of them
+     * finishes. {@link #permits(int)} is not used for such tags. Default is false.
+     *
+     * @param sharedWithinJvm true/false
+     */
+    void sharedWithinJvm(boolean sharedWithinJvm);
+}
@@ -2,23 +2,37 @@ package com.varlanv.gradle.testsync;
 
 import lombok.SneakyThrows;
 import lombok.val;
+import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.logging.Logger;
 import org.gradle.api.logging.Logging;
 import org.gradle.api.services.BuildService;
 import org.gradle.api.services.BuildServiceParameters;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ThreadLocalRandom;
 
-public abstract class TestSynchronizerBuildService implements BuildService<BuildServiceParameters.None>, AutoCloseable, Serializable {
+public abstract class TestSynchronizerBuildService implements BuildService<TestSynchronizerBuildService.Params>, AutoCloseable, Serializable {
 
     private static final Logger log;
+    /**
+     * Canonical order in which test JVMs acquire locks of tests that require several tags. Every test task of the build
+     * receives its tags in this order, so that two projects that declare the same tags in different order can not
+     * deadlock on each other. Natural order of tag names is used, because it does not depend on the order
+     * in which projects configure their tags.
+     */
+    static final Comparator<String> TAG_ORDER = Comparator.naturalOrder();
     /**
      * Temporary directory path.
      */
@@ -49,24 +63,232 @@ public abstract class TestSynchronizerBuildService implements BuildService<Build
      * Map of user test tag to synchronization property. Lifetime of this map is one gradle build.
      */
     transient ConcurrentMap<String, SyncTagProperty> tagToSyncPropMap = new ConcurrentHashMap<>();
+    /**
+     * Report folder to history folder of contention reports requested during the build.
+     */
+    transient ConcurrentMap<Path, Path> reportDirs = new ConcurrentHashMap<>();
+    /**
+     * Lock coordinator of the {@link Constants#BACKEND_DAEMON} or embedded {@link Constants#BACKEND_TCP} backend,
+     * started by the first test task that uses it.
+     */
+    @Nullable
+    transient volatile LockCoordinator lockCoordinator;
+    /**
+     * Namespace joined by the first test task of the build, if the build shares its sync folder with other builds.
+     */
+    @Nullable
+    transient volatile SyncNamespace namespace;
+    transient volatile boolean namespaceResolved;
 
+    /**
+     * Folder that contains sync folders of all builds on this host.
+     */
+    static Path tempFolderPath() {
+        return tempFolderPath;
+    }
 
     @SneakyThrows
-    SyncProperty buildSyncProperty(TestSyncExtension extension) {
+    SyncProperty buildSyncProperty(TestSyncExtension extension, Path synchronizerJarPath) {
         return new SynchronizerRequest(
             log,
             extension,
             tagToSyncPropMap,
-            tempFolderPath,
-            seed
+            syncFolderPath(extension),
+            seed,
+            TAG_ORDER,
+            coordinatorAddress(extension, synchronizerJarPath)
         ).handle();
     }
 
+    /**
+     * @return folder of trace files of test JVMs, when it differs from the sync folder
+     */
+    Optional<Path> traceFolderPath() {
+        val currentNamespace = namespace;
+        return currentNamespace == null ? Optional.empty() : Optional.of(currentNamespace.traceFolderPath());
+    }
+
+    private Path syncFolderPath(TestSyncExtension extension) throws IOException {
+        val key = extension.getNamespace().getOrNull();
+        val directory = key == null
+            ? null
+            : extension.getNamespaceDirectory().map(dir -> dir.getAsFile().toPath().toAbsolutePath()).getOrElse(tempFolderPath);
+        synchronized (this) {
+            if (!namespaceResolved) {
+                if (key != null) {
+                    namespace = SyncNamespace.join(key, directory, seed);
+                    log.info("Joined test sync namespace [{}] in [{}]", key, namespace.folderPath());
+                }
+                namespaceResolved = true;
+            }
+        }
+        val currentNamespace = namespace;
+        val mismatch = currentNamespace == null
+            ? key != null
+            : !currentNamespace.key().equals(key) || !currentNamespace.folderPath().getParent().equals(directory);
+        if (mismatch) {
+            throw new IllegalStateException(
+                String.format(
+                    "Test synchronization namespace [%s] is already used by another project of the build, "
+                        + "all projects should use the same namespace, but received [%s] in [%s]",
+                    currentNamespace == null ? "<none>" : currentNamespace.folderPath(), key == null ? "<none>" : key, directory
+                )
+            );
+        }
+        return currentNamespace == null ? tempFolderPath.resolve(Constants.SYNC_FOLDER_PREFIX + seed) : currentNamespace.folderPath();
+    }
+
+    /**
+     * @return address passed to test JVMs as {@link Constants#SYNC_OPTION_COORDINATOR} tag option, null if there is none
+     */
+    @Nullable
+    private String coordinatorAddress(TestSyncExtension extension, Path synchronizerJarPath) {
+        val backend = extension.getBackend().get();
+        val address = extension.getBackendAddress().getOrNull();
+        if (address != null || (!Constants.BACKEND_DAEMON.equals(backend) && !Constants.BACKEND_TCP.equals(backend))) {
+            return address;
+        }
+        val currentNamespace = namespace;
+        if (currentNamespace != null) {
+            throw new IllegalStateException(
+                String.format(
+                    "Test synchronization backend [%s] without address coordinates only test JVMs of one build, "
+                        + "so it can not be used with namespace [%s]. Use [%s] or [%s] backend, "
+                        + "or [%s] backend with address of a standalone lock server",
+                    backend, currentNamespace.key(), Constants.BACKEND_FILE, Constants.BACKEND_MMAP, Constants.BACKEND_TCP
+                )
+            );
+        }
+        val coordinator = lockCoordinator(backend, synchronizerJarPath);
+        if (!coordinator.backend().equals(backend)) {
+            throw new IllegalStateException(
+                String.format(
+                    "Test synchronization backend [%s] is already used by another project of the build, "
+                        + "all projects should use the same backend, but received [%s]",
+                    coordinator.backend(), backend
+                )
+            );
+        }
+        return coordinator.address();
+    }
+
+    private LockCoordinator lockCoordinator(String backend, Path synchronizerJarPath) {
+        var coordinator = lockCoordinator;
+        if (coordinator == null) {
+            synchronized (this) {
+                coordinator = lockCoordinator;
+                if (coordinator == null) {
+                    coordinator = startLockCoordinator(backend, synchronizerJarPath);
+                    log.info("Started test sync lock coordinator on [{}]", coordinator.address());
+                    lockCoordinator = coordinator;
+                }
+            }
+        }
+        return coordinator;
+    }
+
+    private LockCoordinator startLockCoordinator(String backend, Path synchronizerJarPath) {
+        if (Constants.BACKEND_TCP.equals(backend)) {
+            try {
+                return LockCoordinator.tcp(synchronizerJarPath);
+            } catch (Exception e) {
+                throw new IllegalStateException("Failed to start embedded lock server of test synchronization backend [" + backend + "]", e);
+            }
+        }
+        val socketPath = tempFolderPath.resolve(Constants.SYNC_FOLDER_PREFIX + seed).resolve(Constants.COORDINATOR_SOCKET_FILE_NAME);
+        try {
+            Files.createDirectories(socketPath.getParent());
+            return LockCoordinator.unix(synchronizerJarPath, socketPath);
+        } catch (Exception e) {
+            throw new IllegalStateException(
+                String.format(
+                    "Failed to start lock coordinator of test synchronization backend [%s] on [%s]. "
+                        + "Backend requires Gradle to run on Java 16 or newer, but it runs on Java [%s]",
+                    backend, socketPath, System.getProperty("java.version")
+                ),
+                e
+            );
+        }
+    }
+
+    /**
+     * Writes contention report from the lock events recorded so far, and remembers the folders
+     * to rewrite the report with all events of the build on {@link #close()}.
+     */
+    @SneakyThrows
+    void report(Path reportDir, Path historyDir) {
+        reportDirs.put(reportDir, historyDir);
+        new ContentionReport(ContentionStats.compute(readTraces())).write(reportDir, historyDir, false);
+    }
+
+    private List<JvmTrace> readTraces() throws IOException {
+        val folder = traceFolderPath().isPresent() ? traceFolderPath() : syncFolder();
+        return folder.isPresent() ? JvmTrace.readAll(folder.get()) : Collections.emptyList();
+    }
+
+    private Optional<Path> syncFolder() {
+        for (val syncTagProperty : tagToSyncPropMap.values()) {
+            if (syncTagProperty.state().isPresent()) {
+                return Optional.of(syncTagProperty.state().get().syncFolderPath());
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Writes timeline of lock waits and holds of the whole build, if test JVMs recorded any. Builds without
+     * traced lock holds, for example because tracing is turned off, leave the reports folder untouched.
+     */
+    private void writeTimeline() {
+        try {
+            val traces = readTraces();
+            if (hasIntervals(traces)) {
+                val dir = getParameters().getTimelineDirectory().get().getAsFile().toPath();
+                new ChromeTimeline(traces).write(dir);
+                log.info("Test sync timeline: {}", dir.resolve(ChromeTimeline.FILE_NAME).toUri());
+            }
+        } catch (Exception e) {
+            log.error("Failed to write test sync timeline - {}", e.getMessage());
+        }
+    }
+
+    private static boolean hasIntervals(List<JvmTrace> traces) {
+        for (val trace : traces) {
+            if (!trace.intervals().isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeFinalReports() {
+        if (reportDirs.isEmpty()) {
+            return;
+        }
+        try {
+            val report = new ContentionReport(ContentionStats.compute(readTraces()));
+            for (val entry : reportDirs.entrySet()) {
+                report.write(entry.getKey(), entry.getValue(), true);
+            }
+        } catch (Exception e) {
+            log.error("Failed to write test sync report - {}", e.getMessage());
+        }
+    }
+
     @Override
     @SneakyThrows
     public void close() {
+        closeLockCoordinator();
+        writeFinalReports();
+        writeTimeline();
+        val currentNamespace = namespace;
+        if (currentNamespace != null) {
+            leaveNamespace(currentNamespace);
+            return;
+        }
         deleteFilesAndReturnFolder().ifPresent((folder) -> {
             try {
+                deleteRemainingFiles(folder);
                 Files.deleteIfExists(folder);
             } catch (Exception e) {
                 log.error("Failed to delete sync folder [{}] - {}", folder, e.getMessage());
@@ -74,6 +296,50 @@ public abstract class TestSynchronizerBuildService implements BuildService<Build
         });
     }
 
+    /**
+     * Files of the shared sync folder are deleted only by the last build that leaves the namespace,
+     * test JVMs of other builds may still use them.
+     */
+    private void leaveNamespace(SyncNamespace currentNamespace) {
+        try {
+            if (currentNamespace.leave()) {
+                log.info("Deleted files of test sync namespace [{}] in [{}]", currentNamespace.key(), currentNamespace.folderPath());
+            }
+        } catch (Exception e) {
+            log.error("Failed to leave test sync namespace [{}] - {}", currentNamespace.key(), e.getMessage());
+        }
+    }
+
+    private void closeLockCoordinator() {
+        val coordinator = lockCoordinator;
+        if (coordinator != null) {
+            try {
+                log.info(coordinator.summary());
+                coordinator.close();
+            } catch (Exception e) {
+                log.error("Failed to stop test sync lock coordinator - {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Deletes files that test JVMs create in the sync folder next to the sync files, such as wait-for graph state.
+     */
+    private void deleteRemainingFiles(Path folder) throws IOException {
+        if (Files.notExists(folder)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder)) {
+            for (val file : files) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (Exception e) {
+                    log.error("Failed to delete file [{}] in sync folder - {}", file, e.getMessage());
+                }
+            }
+        }
+    }
+
     private Optional<Path> deleteFilesAndReturnFolder() {
         Path folderRef = null;
         for (val syncFolderPath : tagToSyncPropMap.values()) {
@@ -89,4 +355,12 @@ public abstract class TestSynchronizerBuildService implements BuildService<Build
         }
         return Optional.ofNullable(folderRef);
     }
+
+    public interface Params extends BuildServiceParameters {
+
+        /**
+         * Folder of {@code timeline.json}, written when the build finishes, if test JVMs traced any lock holds.
+         */
+        DirectoryProperty getTimelineDirectory();
+    }
 }
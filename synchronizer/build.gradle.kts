@@ -4,9 +4,89 @@ plugins {
     alias(libs.plugins.testKonvence)
 }
 
+// JFR events are compiled separately, because main source set is compiled with `--release 8`, which does not
+// expose `jdk.jfr`. Classes still target Java 8 bytecode and are loaded only when JFR is available at runtime.
+val jfr: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+}
+
+tasks.named<JavaCompile>(jfr.compileJavaTaskName) {
+    sourceCompatibility = "1.8"
+    targetCompatibility = "1.8"
+    options.compilerArgs.add("-Xlint:-options")
+}
+
+// Memory-mapped lock backend needs Java 9 VarHandle and ProcessHandle, it is loaded only when selected by the build.
+val mmap: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+}
+
+tasks.named<JavaCompile>(mmap.compileJavaTaskName) {
+    options.release = 9
+    options.compilerArgs.add("-Xlint:-options")
+}
+
+sourceSets.test {
+    compileClasspath += jfr.output + mmap.output
+    runtimeClasspath += jfr.output + mmap.output
+}
+
+tasks.named<Jar>("jar") {
+    from(jfr.output)
+    from(mmap.output)
+}
+
+// JMH benchmarks of the listener, run with `./gradlew :synchronizer:jmh`. Results are written as JSON and exposed
+// through the `jmhResults` configuration, so that they can be collected and compared between changes.
+// Subset of benchmarks can be selected with `-PjmhInclude=<regex>`.
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output + jfr.output + mmap.output
+}
+
+tasks.named<JavaCompile>(jmh.compileJavaTaskName) {
+    options.release = 21
+}
+
+val jmhResultsFile = layout.buildDirectory.file("results/jmh/results.json")
+
+val jmhTask = tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs JMH benchmarks of the synchronizer"
+    classpath = jmh.runtimeClasspath
+    mainClass = "org.openjdk.jmh.Main"
+    val include = providers.gradleProperty("jmhInclude")
+    val resultsFile = jmhResultsFile
+    outputs.file(resultsFile)
+    outputs.upToDateWhen { false }
+    argumentProviders.add(CommandLineArgumentProvider {
+        listOf("-rf", "json", "-rff", resultsFile.get().asFile.absolutePath) + include.map { listOf(it) }.getOrElse(emptyList())
+    })
+    doFirst {
+        resultsFile.get().asFile.parentFile.mkdirs()
+    }
+}
+
+val jmhResults: Configuration by configurations.creating {
+    isCanBeConsumed = true
+    isCanBeResolved = false
+}
+
+artifacts {
+    add(jmhResults.name, jmhResultsFile) {
+        builtBy(jmhTask)
+    }
+}
+
 dependencies {
     compileOnly(libs.junit.platform.launcher)
+    compileOnly(libs.junit.jupiter.api)
     compileOnly(projects.constants)
     testImplementation(projects.constants)
     testImplementation(libs.junit.platform.launcher)
+    "jmhImplementation"(projects.constants)
+    "jmhImplementation"(libs.junit.platform.launcher)
+    "jmhImplementation"(libs.jmh.core)
+    "jmhCompileOnly"(libs.jetbrains.annotations)
+    "jmhAnnotationProcessor"(libs.jmh.generator.annprocess)
 }
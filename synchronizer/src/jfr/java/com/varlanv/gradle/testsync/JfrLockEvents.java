@@ -0,0 +1,105 @@
+package com.varlanv.gradle.testsync;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * {@link LockEvents} backed by JDK Flight Recorder. Lives in a separate source set, because the synchronizer
+ * targets Java 8, and is loaded reflectively by {@link LockEvents#create()}.
+ */
+final class JfrLockEvents implements LockEvents {
+
+    JfrLockEvents() {
+        if (!FlightRecorder.isAvailable()) {
+            throw new IllegalStateException("Flight Recorder is not available");
+        }
+        FlightRecorder.register(TestSyncLockWait.class);
+        FlightRecorder.register(TestSyncLockHeld.class);
+    }
+
+    @Override
+    public Object beginWait() {
+        final TestSyncLockWait event = new TestSyncLockWait();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public Object beginHold() {
+        final TestSyncLockHeld event = new TestSyncLockHeld();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void waited(Object event, SyncTag syncTag, LockMode mode, String testId) {
+        if (event instanceof TestSyncLockWait) {
+            final TestSyncLockWait wait = (TestSyncLockWait) event;
+            wait.end();
+            if (wait.shouldCommit()) {
+                wait.tag = syncTag.testTag().getName();
+                wait.fileName = syncTag.fileName();
+                wait.mode = mode.name();
+                wait.testId = testId;
+                wait.commit();
+            }
+        }
+    }
+
+    @Override
+    public void held(Object event, SyncTag syncTag, LockMode mode, String testId) {
+        if (event instanceof TestSyncLockHeld) {
+            final TestSyncLockHeld held = (TestSyncLockHeld) event;
+            held.end();
+            if (held.shouldCommit()) {
+                held.tag = syncTag.testTag().getName();
+                held.fileName = syncTag.fileName();
+                held.mode = mode.name();
+                held.testId = testId;
+                held.commit();
+            }
+        }
+    }
+
+    @Name("com.varlanv.testsync.LockWait")
+    @Label("Test Sync Lock Wait")
+    @Description("Test waited for a synchronization tag")
+    @Category("Test Sync")
+    static final class TestSyncLockWait extends Event {
+
+        @Label("Tag")
+        String tag;
+        @Label("Sync File")
+        String fileName;
+        @Label("Mode")
+        String mode;
+        @Label("Test")
+        String testId;
+    }
+
+    @Name("com.varlanv.testsync.LockHeld")
+    @Label("Test Sync Lock Held")
+    @Description("Test held a synchronization tag")
+    @Category("Test Sync")
+    static final class TestSyncLockHeld extends Event {
+
+        @Label("Tag")
+        String tag;
+        @Label("Sync File")
+        String fileName;
+        @Label("Mode")
+        String mode;
+        @Label("Test")
+        String testId;
+    }
+}
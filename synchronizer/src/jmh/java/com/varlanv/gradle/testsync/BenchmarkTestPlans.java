@@ -0,0 +1,107 @@
+package com.varlanv.gradle.testsync;
+
+import org.junit.platform.engine.EngineDiscoveryRequest;
+import org.junit.platform.engine.ExecutionRequest;
+import org.junit.platform.engine.TestDescriptor;
+import org.junit.platform.engine.TestEngine;
+import org.junit.platform.engine.TestTag;
+import org.junit.platform.engine.UniqueId;
+import org.junit.platform.engine.support.descriptor.AbstractTestDescriptor;
+import org.junit.platform.engine.support.descriptor.EngineDescriptor;
+import org.junit.platform.launcher.TestIdentifier;
+import org.junit.platform.launcher.TestPlan;
+import org.junit.platform.launcher.core.LauncherConfig;
+import org.junit.platform.launcher.core.LauncherDiscoveryRequestBuilder;
+import org.junit.platform.launcher.core.LauncherFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Test plans for benchmarks, discovered by the real launcher from an engine with a single test,
+ * so that the listener sees the same identifiers as in a real test run.
+ */
+final class BenchmarkTestPlans {
+
+    private BenchmarkTestPlans() {
+    }
+
+    static TestPlan singleTest(Set<TestTag> tags) {
+        var launcher = LauncherFactory.create(
+            LauncherConfig.builder()
+                .enableTestEngineAutoRegistration(false)
+                .enableTestExecutionListenerAutoRegistration(false)
+                .enableLauncherDiscoveryListenerAutoRegistration(false)
+                .enablePostDiscoveryFilterAutoRegistration(false)
+                .addTestEngines(new SingleTestEngine(tags))
+                .build()
+        );
+        return launcher.discover(LauncherDiscoveryRequestBuilder.request().build());
+    }
+
+    static TestIdentifier test(TestPlan testPlan) {
+        return testPlan.getRoots().stream()
+            .flatMap(root -> testPlan.getDescendants(root).stream())
+            .filter(TestIdentifier::isTest)
+            .findFirst()
+            .orElseThrow(IllegalStateException::new);
+    }
+
+    static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (var path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private static final class SingleTestEngine implements TestEngine {
+
+        private final Set<TestTag> tags;
+
+        SingleTestEngine(Set<TestTag> tags) {
+            this.tags = tags;
+        }
+
+        @Override
+        public String getId() {
+            return "testsync-benchmark";
+        }
+
+        @Override
+        public TestDescriptor discover(EngineDiscoveryRequest discoveryRequest, UniqueId uniqueId) {
+            var engineDescriptor = new EngineDescriptor(uniqueId, getId());
+            engineDescriptor.addChild(new TaggedTestDescriptor(uniqueId.append("test", "benchmarkTest"), tags));
+            return engineDescriptor;
+        }
+
+        @Override
+        public void execute(ExecutionRequest request) {
+            // tests are never executed, only their identifiers are used
+        }
+    }
+
+    private static final class TaggedTestDescriptor extends AbstractTestDescriptor {
+
+        private final Set<TestTag> tags;
+
+        TaggedTestDescriptor(UniqueId uniqueId, Set<TestTag> tags) {
+            super(uniqueId, "benchmarkTest");
+            this.tags = tags;
+        }
+
+        @Override
+        public Type getType() {
+            return Type.TEST;
+        }
+
+        @Override
+        public Set<TestTag> getTags() {
+            return tags;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.varlanv.gradle.testsync;
+
+import org.junit.platform.engine.TestTag;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of passing a sync tag between two JVMs. The benchmark JVM and a {@link HandoffPartner} process take turns:
+ * each of them takes the tag, and if it is their turn, advances a shared counter before releasing the tag.
+ * A single operation is a round trip, that is two handoffs of the tag between the processes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandoffBenchmark {
+
+    static final int STOP = -1;
+
+    @Param({"file", "mmap", "daemon"})
+    public String backend;
+
+    private Path syncFolder;
+    private SyncTag syncTag;
+    private FileChannel counterChannel;
+    private MappedByteBuffer counter;
+    private Process partner;
+    private LockServer lockServer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        syncFolder = Files.createTempDirectory(Constants.SYNC_FOLDER_PREFIX + "jmh");
+        var syncFile = Files.createFile(syncFolder.resolve(Constants.SYNC_FILE_NAME_BASE + "tag"));
+        var counterFile = syncFolder.resolve("counter");
+        var coordinator = syncFolder.resolve(Constants.COORDINATOR_SOCKET_FILE_NAME).toString();
+        if (Constants.BACKEND_DAEMON.equals(backend)) {
+            lockServer = LockServer.unix(Paths.get(coordinator));
+        }
+        syncTag = new SyncTag(syncFile.toString(), TestTag.create("tag"), SyncTagOptions.defaults())
+            .processLock(LockBackend.create(backend, syncFolder, coordinator));
+        counterChannel = FileChannel.open(counterFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        counter = map(counterChannel);
+        partner = new ProcessBuilder(
+            Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+            "-cp",
+            System.getProperty("java.class.path"),
+            HandoffPartner.class.getName(),
+            syncFile.toString(),
+            counterFile.toString(),
+            backend,
+            coordinator
+        )
+            .inheritIO()
+            .start();
+        // partner takes the first turn to signal that it is ready
+        while (counter.getInt(0) == 0) {
+            if (!partner.isAlive()) {
+                throw new IllegalStateException("Handoff partner exited with code " + partner.exitValue());
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, InterruptedException {
+        var lockHolder = syncTag.acquire();
+        counter.putInt(0, STOP);
+        if (lockHolder != null) {
+            syncTag.release(lockHolder);
+        }
+        if (!partner.waitFor(10, TimeUnit.SECONDS)) {
+            partner.destroyForcibly();
+        }
+        counterChannel.close();
+        syncTag.syncFileChannel().close();
+        if (lockServer != null) {
+            lockServer.close();
+        }
+        BenchmarkTestPlans.deleteRecursively(syncFolder);
+    }
+
+    /**
+     * Takes the turn of the benchmark JVM, that is odd counter values. Partner takes even ones.
+     */
+    @Benchmark
+    public int roundTrip() {
+        while (true) {
+            var lockHolder = syncTag.acquire();
+            if (lockHolder == null) {
+                throw new IllegalStateException("Failed to acquire lock");
+            }
+            var turn = counter.getInt(0);
+            if ((turn & 1) == 1) {
+                counter.putInt(0, turn + 1);
+                syncTag.release(lockHolder);
+                return turn;
+            }
+            syncTag.release(lockHolder);
+            Thread.yield();
+        }
+    }
+
+    static MappedByteBuffer map(FileChannel channel) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0, Integer.BYTES);
+    }
+}
@@ -0,0 +1,44 @@
+package com.varlanv.gradle.testsync;
+
+import org.junit.platform.engine.TestTag;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Second process of {@link HandoffBenchmark}, takes even turns until the counter is set to {@link HandoffBenchmark#STOP}.
+ */
+public final class HandoffPartner {
+
+    private HandoffPartner() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        var counterPath = Paths.get(args[1]);
+        var syncTag = new SyncTag(args[0], TestTag.create("tag"), SyncTagOptions.defaults())
+            .processLock(LockBackend.create(args[2], counterPath.getParent(), args[3]));
+        try (var counterChannel = FileChannel.open(counterPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var counter = HandoffBenchmark.map(counterChannel);
+            while (true) {
+                var lockHolder = syncTag.acquire();
+                if (lockHolder == null) {
+                    throw new IllegalStateException("Failed to acquire lock");
+                }
+                var turn = counter.getInt(0);
+                if (turn == HandoffBenchmark.STOP) {
+                    syncTag.release(lockHolder);
+                    return;
+                }
+                if ((turn & 1) == 0) {
+                    counter.putInt(0, turn + 1);
+                }
+                syncTag.release(lockHolder);
+                Thread.yield();
+            }
+        } finally {
+            syncTag.syncFileChannel().close();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.varlanv.gradle.testsync;
+
+import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.engine.TestTag;
+import org.junit.platform.launcher.TestIdentifier;
+import org.junit.platform.launcher.TestPlan;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link JunitSynchronizingTestListener} start and finish callbacks of a single test, when nobody else
+ * holds the tags. The JVM is configured with {@link #tags} sync tags, and the test requires none of them
+ * ({@code untagged}), the first one ({@code single}) or all of them ({@code multi}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListenerBenchmark {
+
+    @Param({"untagged", "single", "multi"})
+    public String test;
+
+    @Param({"1", "4", "16"})
+    public int tags;
+
+    @Param({"true", "false"})
+    public boolean tracing;
+
+    private Path syncFolder;
+    private JunitSynchronizingTestListener listener;
+    private TestPlan testPlan;
+    private TestIdentifier testIdentifier;
+    private final TestExecutionResult successful = TestExecutionResult.successful();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        syncFolder = Files.createTempDirectory(Constants.SYNC_FOLDER_PREFIX + "jmh");
+        var syncProperty = new StringJoiner(Constants.SYNC_PROPERTY_SEPARATOR);
+        var testTags = new HashSet<TestTag>();
+        for (var i = 0; i < tags; i++) {
+            var tag = "tag" + i;
+            var syncFile = Files.createFile(syncFolder.resolve(Constants.SYNC_FILE_NAME_BASE + tag));
+            syncProperty.add(tag + Constants.TAG_SEPARATOR + syncFile.toAbsolutePath());
+            if ("multi".equals(test) || "single".equals(test) && i == 0) {
+                testTags.add(TestTag.create(tag));
+            }
+        }
+        System.setProperty(Constants.SYNC_PROPERTY, syncProperty.toString());
+        System.setProperty(Constants.SYNC_TRACE_PROPERTY, String.valueOf(tracing));
+        System.setProperty(Constants.SYNC_MODULE_PROPERTY, ":benchmark:test");
+        listener = new JunitSynchronizingTestListener();
+        testPlan = BenchmarkTestPlans.singleTest(Set.copyOf(testTags));
+        testIdentifier = BenchmarkTestPlans.test(testPlan);
+        listener.testPlanExecutionStarted(testPlan);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        listener.testPlanExecutionFinished(testPlan);
+        System.clearProperty(Constants.SYNC_PROPERTY);
+        System.clearProperty(Constants.SYNC_TRACE_PROPERTY);
+        System.clearProperty(Constants.SYNC_MODULE_PROPERTY);
+        BenchmarkTestPlans.deleteRecursively(syncFolder);
+    }
+
+    @Benchmark
+    public void startAndFinish() {
+        listener.executionStarted(testIdentifier);
+        listener.executionFinished(testIdentifier, successful);
+    }
+}
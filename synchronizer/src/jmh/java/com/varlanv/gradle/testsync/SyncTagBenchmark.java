@@ -0,0 +1,81 @@
+package com.varlanv.gradle.testsync;
+
+import org.junit.platform.engine.TestTag;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uncontended lock and unlock of a single {@link SyncTag}, both tiers included: in-JVM semaphore and the tier
+ * that coordinates JVMs, for each {@link LockBackend}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SyncTagBenchmark {
+
+    // LockMode is package-private, while JMH generates its classes in a different package
+    @Param({"PERMIT", "SHARED", "EXCLUSIVE"})
+    public String lockMode;
+
+    @Param({"1", "4"})
+    public int permits;
+
+    @Param({"file", "mmap"})
+    public String backend;
+
+    private Path syncFolder;
+    private SyncTag syncTag;
+    private LockMode mode;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mode = LockMode.valueOf(lockMode);
+        syncFolder = Files.createTempDirectory(Constants.SYNC_FOLDER_PREFIX + "jmh");
+        var syncFile = Files.createFile(syncFolder.resolve(Constants.SYNC_FILE_NAME_BASE + "tag"));
+        syncTag = new SyncTag(syncFile.toString(), TestTag.create("tag"), SyncTagOptions.defaults().permits(permits))
+            .processLock(LockBackend.create(backend, syncFolder));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        syncTag.syncFileChannel().close();
+        BenchmarkTestPlans.deleteRecursively(syncFolder);
+    }
+
+    @Benchmark
+    public void lockAndUnlock() {
+        var lockHolder = syncTag.acquire(mode);
+        if (lockHolder == null) {
+            throw new IllegalStateException("Failed to acquire [" + mode + "] lock");
+        }
+        syncTag.release(lockHolder);
+    }
+
+    @Benchmark
+    public void tryLockAndUnlock() {
+        var lockHolder = syncTag.tryAcquire(mode);
+        if (lockHolder == null) {
+            throw new IllegalStateException("Failed to try [" + mode + "] lock");
+        }
+        syncTag.release(lockHolder);
+    }
+}
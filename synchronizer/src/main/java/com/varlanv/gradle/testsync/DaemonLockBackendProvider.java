@@ -0,0 +1,26 @@
+package com.varlanv.gradle.testsync;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Provider of {@link SocketLockBackend} connected to the {@link LockServer} that the build service of the plugin
+ * runs on a Unix domain socket.
+ */
+public final class DaemonLockBackendProvider implements LockBackendProvider {
+
+    @Override
+    public String name() {
+        return Constants.BACKEND_DAEMON;
+    }
+
+    @Override
+    public LockBackend create(Path syncFolderPath, @Nullable String address) throws Exception {
+        if (address == null) {
+            throw new IllegalStateException("Socket path of the lock coordinator is not set");
+        }
+        return SocketLockBackend.unix(Paths.get(address));
+    }
+}
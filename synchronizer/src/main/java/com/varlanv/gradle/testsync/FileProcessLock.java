@@ -0,0 +1,45 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.channels.FileLock;
+
+/**
+ * {@link ProcessLock} backed by OS file locks on the sync file of the tag. {@link LockMode#PERMIT} holders lock
+ * the one-byte region of their slot, so that holders from different JVMs lock different regions, while
+ * {@link LockMode#SHARED} and {@link LockMode#EXCLUSIVE} holders lock the whole file.
+ */
+@RequiredArgsConstructor
+final class FileProcessLock implements ProcessLock {
+
+    SyncTag syncTag;
+
+    @Override
+    public Object lock(LockMode mode, int slot) throws IOException {
+        val channel = syncTag.syncFileChannel();
+        return mode == LockMode.PERMIT
+            ? channel.lock(slot, 1, false)
+            : channel.lock(0, Long.MAX_VALUE, mode == LockMode.SHARED);
+    }
+
+    @Override
+    public @Nullable Object tryLock(LockMode mode, int slot) throws IOException {
+        val channel = syncTag.syncFileChannel();
+        return mode == LockMode.PERMIT
+            ? channel.tryLock(slot, 1, false)
+            : channel.tryLock(0, Long.MAX_VALUE, mode == LockMode.SHARED);
+    }
+
+    @Override
+    public void release(Object lock) throws IOException {
+        ((FileLock) lock).release();
+    }
+
+    @Override
+    public boolean slotted() {
+        return true;
+    }
+}
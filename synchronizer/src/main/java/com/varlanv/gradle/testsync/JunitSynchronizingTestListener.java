@@ -6,25 +6,41 @@ import org.junit.platform.engine.TestExecutionResult;
 import org.junit.platform.engine.TestTag;
 import org.junit.platform.launcher.TestExecutionListener;
 import org.junit.platform.launcher.TestIdentifier;
+import org.junit.platform.launcher.TestPlan;
 
-import java.nio.channels.FileChannel;
-import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.function.Consumer;
 
 @NotNullByDefault
 public class JunitSynchronizingTestListener implements TestExecutionListener {
 
+    private static final boolean VERBOSE = Boolean.getBoolean(Constants.SYNC_VERBOSE_PROPERTY);
+
     Delegate delegate;
 
     public JunitSynchronizingTestListener() {
         this.delegate = buildDelegate();
     }
 
+    @Override
+    public void testPlanExecutionStarted(TestPlan testPlan) {
+        delegate.onTestPlanExecutionStarted.accept(testPlan);
+    }
+
+    @Override
+    public void testPlanExecutionFinished(TestPlan testPlan) {
+        delegate.onTestPlanExecutionFinished.accept(testPlan);
+    }
+
+    @Override
+    public void dynamicTestRegistered(TestIdentifier testIdentifier) {
+        delegate.onDynamicTestRegistered.accept(testIdentifier);
+    }
+
     @Override
     public void executionStarted(TestIdentifier testIdentifier) {
         delegate.onExecutionStarted.accept(testIdentifier);
@@ -42,69 +58,124 @@ public class JunitSynchronizingTestListener implements TestExecutionListener {
             Constants.TAG_SEPARATOR
         ).array();
         if (tagsList.length == 0) {
-            return new Delegate(
-                testIdentifier -> {
-                },
-                testIdentifier -> {
-                }
-            );
+            return noopDelegate();
         } else {
-            val syncMap = new ConcurrentHashMap<String, LockHolder[]>();
+            val syncFolderPath = Paths.get(tagsList[0].fileName()).toAbsolutePath().getParent();
+            val lockBackend = LockBackend.create(
+                System.getProperty(Constants.SYNC_BACKEND_PROPERTY),
+                syncFolderPath,
+                tagsList[0].coordinator()
+            );
+            if (lockBackend == null) {
+                // other JVMs of the build coordinate through the backend, running tests unsynchronized is not safe
+                throw new IllegalStateException(
+                    "Lock backend [" + System.getProperty(Constants.SYNC_BACKEND_PROPERTY) + "] of test synchronization is not available in this JVM"
+                );
+            }
+            for (val syncTag : tagsList) {
+                syncTag.processLock(lockBackend);
+            }
+            var resourceLocksRequested = false;
+            var containerScopeRequested = false;
+            for (val syncTag : tagsList) {
+                resourceLocksRequested |= syncTag.resourceLock();
+                containerScopeRequested |= syncTag.scope() != SyncScope.TEST;
+            }
+            val lockIndex = new LockIndex(tagsList, JupiterResourceLocks.create(resourceLocksRequested), containerScopeRequested);
+            val pid = Pids.current();
+            val module = System.getProperty(Constants.SYNC_MODULE_PROPERTY, "");
+            val lockAcquisition = new LockAcquisition(
+                tagsList,
+                new WaitForGraph(syncFolderPath, pid),
+                Leases.create(syncFolderPath, pid, module),
+                "false".equals(System.getProperty(Constants.SYNC_TRACE_PROPERTY))
+                    ? LockTrace.disabled()
+                    : LockTrace.create(traceFolderPath(syncFolderPath), pid, module, tagsList),
+                LockEvents.create(),
+                Boolean.getBoolean(Constants.SYNC_ATOMIC_ACQUISITION_PROPERTY)
+            );
+            val lockPrefetch = LockPrefetch.create(
+                LockPrefetch.lookahead(System.getProperty(Constants.SYNC_PREFETCH_PROPERTY)),
+                containerScopeRequested,
+                lockIndex,
+                lockAcquisition
+            );
             return new Delegate(
-                onTestStart(tagsList, syncMap),
-                onTestFinish(syncMap)
+                testPlan -> {
+                    lockIndex.planStarted(testPlan);
+                    lockPrefetch.planStarted(testPlan);
+                    LockWaitTimeouts.planStarted(testPlan);
+                },
+                testPlan -> {
+                    lockPrefetch.planFinished();
+                    lockAcquisition.finished(lockIndex.entries());
+                },
+                lockIndex::dynamicTestRegistered,
+                onExecutionStarted(lockIndex, lockAcquisition, lockPrefetch),
+                onExecutionFinished(lockIndex, lockAcquisition, lockPrefetch)
             );
         }
     }
 
-    private Consumer<TestIdentifier> onTestStart(SyncTag[] tagsList, ConcurrentMap<String, LockHolder[]> syncMap) {
+    /**
+     * Builds that share a sync folder through a namespace keep their traces apart, so that reports of a build
+     * only include its own test JVMs.
+     */
+    private static Path traceFolderPath(Path syncFolderPath) {
+        val traceFolder = System.getProperty(Constants.SYNC_TRACE_FOLDER_PROPERTY);
+        return traceFolder == null || traceFolder.isEmpty() ? syncFolderPath : Paths.get(traceFolder);
+    }
+
+    private static Delegate noopDelegate() {
+        return new Delegate(
+            testPlan -> {
+            },
+            testPlan -> {
+            },
+            testIdentifier -> {
+            },
+            testIdentifier -> {
+            },
+            testIdentifier -> {
+            }
+        );
+    }
+
+    private Consumer<TestIdentifier> onExecutionStarted(LockIndex lockIndex, LockAcquisition lockAcquisition, LockPrefetch lockPrefetch) {
         return testIdentifier -> {
-            if (testIdentifier.isTest()) {
-                val testIdentifierTags = testIdentifier.getTags();
-                if (!testIdentifierTags.isEmpty()) {
-                    LockHolder[] locks = null;
-                    for (var i = 0; i < tagsList.length; i++) {
-                        val syncTag = tagsList[i];
-                        if (testIdentifierTags.contains(syncTag.testTag)) {
-                            if (locks == null) {
-                                locks = new LockHolder[tagsList.length];
-                            }
-                            try {
-                                locks[i] = new LockHolder(syncTag.fileName, syncTag.syncFileChannel.lock());
-                            } catch (Exception e) {
-                                printErr("Failed to acquire file lock for file [" + syncTag.fileName + "] - " + e.getMessage());
-                            }
-                        }
-                    }
-                    if (locks != null) {
-                        syncMap.put(testIdentifier.getUniqueId(), locks);
-                    }
-                }
+            val entry = lockIndex.find(testIdentifier);
+            if (!lockPrefetch.started(testIdentifier, entry) && entry != null) {
+                acquire(entry, testIdentifier, lockAcquisition);
             }
+            lockPrefetch.scheduleNext(testIdentifier);
         };
     }
 
-    private Consumer<TestIdentifier> onTestFinish(ConcurrentMap<String, LockHolder[]> syncMap) {
-        return testIdentifier -> {
-            if (testIdentifier.isTest()) {
-                val uniqueId = testIdentifier.getUniqueId();
-                val lockHolders = syncMap.get(uniqueId);
-                if (lockHolders != null) {
-                    try {
-                        for (val lockHolder : lockHolders) {
-                            if (lockHolder != null) {
-                                try {
-                                    lockHolder.lock.release();
-                                } catch (Exception e) {
-                                    printErr("Failed to release file lock for file [" + lockHolder.fileName + "] - " + e.getMessage());
-                                }
-                            }
-                        }
-                    } finally {
-                        syncMap.remove(uniqueId);
-                    }
+    private static void acquire(LockIndex.Entry entry, TestIdentifier testIdentifier, LockAcquisition lockAcquisition) {
+        val lockModes = entry.lockModesToAcquire();
+        var requiredTags = entry.requiredTags();
+        if (lockModes != entry.lockModes()) {
+            requiredTags = 0;
+            for (val lockMode : lockModes) {
+                if (lockMode != null) {
+                    requiredTags++;
                 }
             }
+            if (requiredTags == 0) {
+                return;
+            }
+        }
+        lockAcquisition.acquire(lockModes, requiredTags, entry.holders(), testIdentifier.getUniqueId(), entry.priority());
+    }
+
+    private Consumer<TestIdentifier> onExecutionFinished(LockIndex lockIndex, LockAcquisition lockAcquisition, LockPrefetch lockPrefetch) {
+        return testIdentifier -> {
+            lockPrefetch.finished(testIdentifier);
+            val entry = lockIndex.find(testIdentifier);
+            if (entry != null) {
+                lockAcquisition.release(entry.holders(), testIdentifier.getUniqueId());
+                LockWaitTimeouts.finished(testIdentifier.getUniqueId());
+            }
         };
     }
 
@@ -148,18 +219,22 @@ public class JunitSynchronizingTestListener implements TestExecutionListener {
 
         private Optional<SyncTag> parse(String syncProperty) {
             val split = syncProperty.split(syncTagSeparator);
-            if (split.length != 2) {
+            if (split.length < 2) {
                 printErr("Test synchronization will be disabled, failed to parse sync tag [" + syncProperty + "]");
                 return Optional.empty();
             } else {
                 val tag = split[0];
                 val syncFilePathStr = split[1];
                 try {
+                    if (!Files.isRegularFile(Paths.get(syncFilePathStr))) {
+                        throw new NoSuchFileException(syncFilePathStr);
+                    }
+                    // channel is opened on first use, see SyncTag#syncFileChannel()
                     return Optional.of(
                         new SyncTag(
                             syncFilePathStr,
                             TestTag.create(tag),
-                            openChannel(syncFilePathStr))
+                            SyncTagOptions.parse(split, 2))
                     );
                 } catch (Exception e) {
                     printErr(
@@ -171,37 +246,30 @@ public class JunitSynchronizingTestListener implements TestExecutionListener {
                 }
             }
         }
-
-        @SneakyThrows
-        private FileChannel openChannel(String syncFilePathStr) {
-            return FileChannel.open(Paths.get(syncFilePathStr), StandardOpenOption.READ, StandardOpenOption.WRITE);
-        }
-    }
-
-    @SuppressWarnings("PMD.UnusedFormalParameter")
-    private static void printErr(String message) {
-//        System.err.println(JunitSynchronizingTestListener.class.getName() + " - " + message);
     }
 
-    @RequiredArgsConstructor
-    static final class LockHolder {
-
-        String fileName;
-        FileLock lock;
+    @SuppressWarnings("PMD.SystemPrintln")
+    static void printErr(String message) {
+        if (VERBOSE) {
+            System.err.println(JunitSynchronizingTestListener.class.getName() + " - " + message);
+        }
     }
 
-    @Getter
-    @RequiredArgsConstructor
-    static final class SyncTag {
-
-        String fileName;
-        TestTag testTag;
-        FileChannel syncFileChannel;
+    /**
+     * Unlike {@link #printErr(String)}, always prints the message. Used for diagnostics that user needs to see,
+     * such as a detected deadlock.
+     */
+    @SuppressWarnings("PMD.SystemPrintln")
+    static void printReport(String message) {
+        System.err.println(JunitSynchronizingTestListener.class.getName() + " - " + message);
     }
 
     @RequiredArgsConstructor
     static final class Delegate {
 
+        Consumer<TestPlan> onTestPlanExecutionStarted;
+        Consumer<TestPlan> onTestPlanExecutionFinished;
+        Consumer<TestIdentifier> onDynamicTestRegistered;
         Consumer<TestIdentifier> onExecutionStarted;
         Consumer<TestIdentifier> onExecutionFinished;
     }
@@ -0,0 +1,105 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.val;
+import org.junit.jupiter.api.parallel.ResourceAccessMode;
+import org.junit.jupiter.api.parallel.ResourceLock;
+import org.junit.platform.commons.support.AnnotationSupport;
+import org.junit.platform.engine.support.descriptor.ClassSource;
+import org.junit.platform.engine.support.descriptor.MethodSource;
+import org.junit.platform.launcher.TestIdentifier;
+
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.varlanv.gradle.testsync.JunitSynchronizingTestListener.printErr;
+
+/**
+ * Resolves JUnit Jupiter {@link ResourceLock} annotations that apply to a test: the ones declared on the test method,
+ * on the test class and its superclasses, and on enclosing classes of {@code @Nested} test classes.
+ * Jupiter API is an optional dependency of test runtime classpath, so lookup is disabled when it is not available.
+ */
+final class JupiterResourceLocks {
+
+    private static final String RESOURCE_LOCK_CLASS_NAME = "org.junit.jupiter.api.parallel.ResourceLock";
+    private static final JupiterResourceLocks DISABLED = new JupiterResourceLocks(false);
+
+    boolean enabled;
+
+    private JupiterResourceLocks(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    static JupiterResourceLocks create(boolean requested) {
+        if (requested && isJupiterAvailable()) {
+            return new JupiterResourceLocks(true);
+        }
+        return DISABLED;
+    }
+
+    boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * @return map of resource name to the strongest lock mode requested for it by the test, empty if lookup is disabled
+     */
+    Map<String, LockMode> find(TestIdentifier testIdentifier) {
+        if (!enabled) {
+            return Collections.emptyMap();
+        }
+        try {
+            return findEnabled(testIdentifier);
+        } catch (Exception | LinkageError e) {
+            printErr("Failed to resolve resource locks for test [" + testIdentifier.getUniqueId() + "] - " + e.getMessage());
+            return Collections.emptyMap();
+        }
+    }
+
+    private static Map<String, LockMode> findEnabled(TestIdentifier testIdentifier) {
+        val source = testIdentifier.getSource().orElse(null);
+        final Class<?> testClass;
+        AnnotatedElement testMethod = null;
+        if (source instanceof MethodSource) {
+            val methodSource = (MethodSource) source;
+            testClass = methodSource.getJavaClass();
+            testMethod = methodSource.getJavaMethod();
+        } else if (source instanceof ClassSource) {
+            testClass = ((ClassSource) source).getJavaClass();
+        } else {
+            return Collections.emptyMap();
+        }
+        val result = new HashMap<String, LockMode>(4);
+        if (testMethod != null) {
+            collect(testMethod, result);
+        }
+        Class<?> current = testClass;
+        while (current != null) {
+            collect(current, result);
+            current = Modifier.isStatic(current.getModifiers()) ? null : current.getEnclosingClass();
+        }
+        return result;
+    }
+
+    private static void collect(AnnotatedElement element, Map<String, LockMode> result) {
+        for (val resourceLock : AnnotationSupport.findRepeatableAnnotations(element, ResourceLock.class)) {
+            val resourceName = resourceLock.value();
+            if (!resourceName.isEmpty()) {
+                val mode = resourceLock.mode() == ResourceAccessMode.READ ? LockMode.SHARED : LockMode.EXCLUSIVE;
+                result.merge(resourceName, mode, LockMode::strongest);
+            }
+        }
+    }
+
+    private static boolean isJupiterAvailable() {
+        try {
+            Class.forName(RESOURCE_LOCK_CLASS_NAME, false, JupiterResourceLocks.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            printErr("Resource locks will not be synchronized, JUnit Jupiter API is not available - " + e.getMessage());
+            return false;
+        }
+    }
+}
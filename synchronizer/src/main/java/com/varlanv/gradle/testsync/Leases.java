@@ -0,0 +1,421 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.varlanv.gradle.testsync.JunitSynchronizingTestListener.printErr;
+import static com.varlanv.gradle.testsync.JunitSynchronizingTestListener.printReport;
+
+/**
+ * Leases of locks held by tests of the JVM, published for other JVMs of the build and for the {@code testSyncStatus} task.
+ * <p>
+ * While the JVM holds or waits for locks, a daemon thread wakes up every {@link #HEARTBEAT_MILLIS}. It renews
+ * the leases by writing {@code lease_<pid>} file in the sync folder, with a header line
+ * {@code <pid>\t<start millis of the JVM>\t<heartbeat millis>\t<module>}, followed by a line
+ * {@code H\t<tag>\t<since millis>\t<test id>} for each hold and {@code W\t<tag>\t<since millis>\t<test id>} for each wait.
+ * A lock held for longer than {@link SyncTag#leaseMillis()} of its tag is not renewed, but revoked: it is released
+ * on behalf of the test, so that waiters in this and other JVMs take it over, and the stale holder is reported to stderr.
+ * Revoked lock is given back to other JVMs even if the tag is coalesced.
+ * The test itself keeps running, and its eventual release of the lock is ignored.
+ * <p>
+ * OS file locks can not be taken from another process, so a JVM that stops renewing its leases altogether, for example
+ * because it is frozen, can not be taken over. Waiters find such JVMs by heartbeats older than
+ * {@link #STALE_HEARTBEAT_MILLIS}, and report them, so that the culprit of the stall is known.
+ * <p>
+ * The thread also answers requests for stacks of the holders: a waiter creates {@code stackrequest_<pid>} file,
+ * and the holder JVM replies with {@code stack_<pid>} file, that starts with the time of the reply.
+ */
+final class Leases {
+
+    static final String FILE_PREFIX = Constants.LEASE_FILE_PREFIX;
+    static final long HEARTBEAT_MILLIS = 1_000L;
+    static final long STALE_HEARTBEAT_MILLIS = 10_000L;
+    private static final long STACK_REPLY_TIMEOUT_MILLIS = 3 * HEARTBEAT_MILLIS;
+    private static final String FIELD_SEPARATOR = "\t";
+    private static final Leases DISABLED = new Leases(null, 0L, "");
+
+    @Nullable
+    Path syncFolderPath;
+    long pid;
+    String module;
+    ConcurrentMap<LockHolder, Lease> leases = new ConcurrentHashMap<>();
+    /**
+     * Tag and test id of each wait, to start of the wait.
+     */
+    ConcurrentMap<String, Long> waits = new ConcurrentHashMap<>();
+    /**
+     * Stale holders that were already reported, only accessed by the lease thread.
+     */
+    Set<String> reportedStaleHolders = new HashSet<>();
+    AtomicBoolean started = new AtomicBoolean();
+
+    private Leases(@Nullable Path syncFolderPath, long pid, String module) {
+        this.syncFolderPath = syncFolderPath;
+        this.pid = pid;
+        this.module = module;
+    }
+
+    static Leases create(Path syncFolderPath, long pid, String module) {
+        return new Leases(syncFolderPath, pid, module);
+    }
+
+    static Leases disabled() {
+        return DISABLED;
+    }
+
+    void waitStarted(SyncTag syncTag, String testId) {
+        if (syncFolderPath != null) {
+            waits.put(syncTag.name() + FIELD_SEPARATOR + testId, System.currentTimeMillis());
+            start();
+        }
+    }
+
+    void waitFinished(SyncTag syncTag, String testId) {
+        if (syncFolderPath != null) {
+            waits.remove(syncTag.name() + FIELD_SEPARATOR + testId);
+        }
+    }
+
+    void held(LockHolder lockHolder, String testId) {
+        if (syncFolderPath != null) {
+            leases.put(lockHolder, new Lease(testId, System.currentTimeMillis(), Thread.currentThread()));
+            start();
+        }
+    }
+
+    void released(LockHolder lockHolder) {
+        if (syncFolderPath != null) {
+            leases.remove(lockHolder);
+        }
+    }
+
+    private void start() {
+        if (!started.get() && started.compareAndSet(false, true)) {
+            val thread = new Thread(this::run, "testsync-leases");
+            thread.setDaemon(true);
+            thread.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(this::deleteLeaseFile, "testsync-leases-cleanup"));
+        }
+    }
+
+    private void run() {
+        val startMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                renew(startMillis, System.currentTimeMillis());
+                answerStackRequest();
+                checkWaits(System.currentTimeMillis());
+                Thread.sleep(HEARTBEAT_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void renew(long startMillis, long now) {
+        val lines = new ArrayList<String>();
+        for (val entry : leases.entrySet()) {
+            val lockHolder = entry.getKey();
+            val lease = entry.getValue();
+            val heldMillis = now - lease.since;
+            val leaseMillis = lockHolder.syncTag().leaseMillis();
+            if (leaseMillis > 0 && heldMillis > leaseMillis) {
+                revoke(lockHolder, lease, heldMillis);
+            } else {
+                lines.add(line(Constants.LEASE_HOLD, lockHolder.syncTag().name(), lease.since, lease.testId));
+            }
+        }
+        for (val wait : waits.entrySet()) {
+            val tagAndTestId = wait.getKey().split(FIELD_SEPARATOR, 2);
+            lines.add(line(Constants.LEASE_WAIT, tagAndTestId[0], wait.getValue(), tagAndTestId[1]));
+        }
+        try {
+            if (lines.isEmpty()) {
+                deleteLeaseFile();
+            } else {
+                lines.add(0, pid + FIELD_SEPARATOR + startMillis + FIELD_SEPARATOR + now + FIELD_SEPARATOR + module);
+                write(leaseFilePath(), lines);
+            }
+        } catch (Exception e) {
+            printErr("Failed to renew lease file [" + leaseFilePath() + "] - " + e.getMessage());
+        }
+    }
+
+    private static String line(String kind, String tag, long since, String testId) {
+        return kind + FIELD_SEPARATOR + tag + FIELD_SEPARATOR + since + FIELD_SEPARATOR + testId;
+    }
+
+    private void revoke(LockHolder lockHolder, Lease lease, long heldMillis) {
+        leases.remove(lockHolder);
+        if (lockHolder.revoke()) {
+            printReport(
+                "Lease of tag [" + lockHolder.syncTag().name() + "] expired, lock was taken away from test [" + lease.testId
+                    + "] in JVM with pid [" + pid + "] after " + TimeUnit.MILLISECONDS.toSeconds(heldMillis) + "s"
+            );
+        }
+    }
+
+    /**
+     * Reports holders of the tags that this JVM waits for, that stopped renewing their leases.
+     */
+    void checkWaits(long now) {
+        if (waits.isEmpty()) {
+            return;
+        }
+        try {
+            for (val lease : readForeignLeases()) {
+                val staleMillis = now - lease.heartbeatMillis;
+                if (lease.hold && staleMillis > STALE_HEARTBEAT_MILLIS && isWaitedFor(lease.tag, now) && reportedStaleHolders.add(lease.toString())) {
+                    printReport(
+                        "Tag [" + lease.tag + "] is held by test [" + lease.testId + "] since " + Instant.ofEpochMilli(lease.since)
+                            + " in JVM with pid [" + lease.pid + "] started at " + Instant.ofEpochMilli(lease.startMillis)
+                            + ", that stopped renewing its lease " + TimeUnit.MILLISECONDS.toSeconds(staleMillis)
+                            + "s ago. The JVM is likely frozen, and has to be stopped for waiters to proceed"
+                    );
+                }
+            }
+        } catch (Exception e) {
+            printErr("Failed to read lease files in folder [" + syncFolderPath + "] - " + e.getMessage());
+        }
+    }
+
+    private boolean isWaitedFor(String tag, long now) {
+        for (val wait : waits.entrySet()) {
+            if (wait.getKey().startsWith(tag + FIELD_SEPARATOR) && now - wait.getValue() > STALE_HEARTBEAT_MILLIS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Describes current holders of the tag in this and other JVMs, one per line, with their stacks
+     * if {@link SyncTag#dumpHolderStack()} is enabled. Holders in other JVMs are known as of their last heartbeat.
+     */
+    String describeHolders(SyncTag syncTag, long now) {
+        if (syncFolderPath == null) {
+            return "  holders are unknown, leases are disabled";
+        }
+        val description = new StringBuilder();
+        for (val entry : leases.entrySet()) {
+            if (entry.getKey().syncTag() == syncTag) {
+                val lease = entry.getValue();
+                appendHolder(description, lease.testId, module, pid, now - lease.since);
+                description.append(" (this JVM)");
+                if (syncTag.dumpHolderStack()) {
+                    appendStack(description, lease.thread.getStackTrace());
+                }
+            }
+        }
+        try {
+            val foreignPids = new HashSet<Long>();
+            for (val lease : readForeignLeases()) {
+                if (lease.hold && lease.tag.equals(syncTag.name())) {
+                    appendHolder(description, lease.testId, lease.module, lease.pid, now - lease.since);
+                    val staleMillis = now - lease.heartbeatMillis;
+                    if (staleMillis > STALE_HEARTBEAT_MILLIS) {
+                        description.append(", JVM stopped renewing its lease ")
+                            .append(TimeUnit.MILLISECONDS.toSeconds(staleMillis)).append("s ago");
+                    }
+                    foreignPids.add(lease.pid);
+                }
+            }
+            if (syncTag.dumpHolderStack()) {
+                for (val foreignPid : foreignPids) {
+                    description.append(System.lineSeparator()).append(requestStack(foreignPid));
+                }
+            }
+        } catch (Exception e) {
+            printErr("Failed to read lease files in folder [" + syncFolderPath + "] - " + e.getMessage());
+        }
+        if (description.length() == 0) {
+            return "  holder is unknown, it has not published its lease yet";
+        }
+        return description.toString();
+    }
+
+    private static void appendHolder(StringBuilder description, String testId, String module, long pid, long heldMillis) {
+        if (description.length() > 0) {
+            description.append(System.lineSeparator());
+        }
+        description.append("  test [").append(testId).append("] of module [").append(module)
+            .append("] in JVM with pid [").append(pid).append("], held for ")
+            .append(TimeUnit.MILLISECONDS.toSeconds(heldMillis)).append('s');
+    }
+
+    private static void appendStack(StringBuilder description, StackTraceElement[] stack) {
+        for (val frame : stack) {
+            description.append(System.lineSeparator()).append("      at ").append(frame);
+        }
+    }
+
+    /**
+     * Asks JVM of another holder for stacks of its holding threads, and waits for the reply for a few heartbeats.
+     */
+    private String requestStack(long holderPid) throws Exception {
+        val folder = folder();
+        val requestMillis = System.currentTimeMillis();
+        val stackFilePath = folder.resolve(Constants.STACK_FILE_PREFIX + holderPid);
+        Files.write(folder.resolve(Constants.STACK_REQUEST_FILE_PREFIX + holderPid), Collections.singletonList(String.valueOf(requestMillis)));
+        val deadline = requestMillis + STACK_REPLY_TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                val lines = Files.readAllLines(stackFilePath, StandardCharsets.UTF_8);
+                if (!lines.isEmpty() && Long.parseLong(lines.get(0)) >= requestMillis) {
+                    return String.join(System.lineSeparator(), lines.subList(1, lines.size()));
+                }
+            } catch (NoSuchFileException e) {
+                // not replied yet
+            }
+            Thread.sleep(HEARTBEAT_MILLIS / 10);
+        }
+        return "  JVM with pid [" + holderPid + "] did not reply with stacks of its holders in "
+            + TimeUnit.MILLISECONDS.toSeconds(STACK_REPLY_TIMEOUT_MILLIS) + "s";
+    }
+
+    private void answerStackRequest() {
+        val folder = syncFolderPath;
+        if (folder == null) {
+            return;
+        }
+        val requestPath = folder.resolve(Constants.STACK_REQUEST_FILE_PREFIX + pid);
+        if (Files.notExists(requestPath)) {
+            return;
+        }
+        try {
+            val stacks = new StringBuilder();
+            for (val entry : leases.entrySet()) {
+                val lease = entry.getValue();
+                if (stacks.length() > 0) {
+                    stacks.append(System.lineSeparator());
+                }
+                stacks.append("  stack of test [").append(lease.testId).append("] holding tag [")
+                    .append(entry.getKey().syncTag().name()).append("] in JVM with pid [").append(pid).append("]:");
+                appendStack(stacks, lease.thread.getStackTrace());
+            }
+            printReport("Stacks of lock holders were requested by a waiter:" + System.lineSeparator() + stacks);
+            write(folder.resolve(Constants.STACK_FILE_PREFIX + pid), Arrays.asList(String.valueOf(System.currentTimeMillis()), stacks.toString()));
+            Files.deleteIfExists(requestPath);
+        } catch (Exception e) {
+            printErr("Failed to answer stack request [" + requestPath + "] - " + e.getMessage());
+        }
+    }
+
+    private List<ForeignLease> readForeignLeases() throws Exception {
+        val result = new ArrayList<ForeignLease>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder(), FILE_PREFIX + "*")) {
+            for (val file : files) {
+                if (file.getFileName().toString().endsWith(".tmp") || file.equals(leaseFilePath())) {
+                    continue;
+                }
+                final List<String> lines;
+                try {
+                    lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                if (lines.isEmpty()) {
+                    continue;
+                }
+                val header = lines.get(0).split(FIELD_SEPARATOR, 4);
+                if (header.length != 4) {
+                    continue;
+                }
+                for (var i = 1; i < lines.size(); i++) {
+                    val fields = lines.get(i).split(FIELD_SEPARATOR, 4);
+                    if (fields.length == 4) {
+                        result.add(new ForeignLease(
+                            Long.parseLong(header[0]),
+                            Long.parseLong(header[1]),
+                            Long.parseLong(header[2]),
+                            header[3],
+                            Constants.LEASE_HOLD.equals(fields[0]),
+                            fields[1],
+                            Long.parseLong(fields[2]),
+                            fields[3]
+                        ));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void write(Path path, List<String> lines) throws Exception {
+        val tmpFilePath = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(tmpFilePath, lines, StandardCharsets.UTF_8);
+        Files.move(tmpFilePath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path folder() {
+        val folder = syncFolderPath;
+        if (folder == null) {
+            throw new IllegalStateException("Leases are disabled");
+        }
+        return folder;
+    }
+
+    private Path leaseFilePath() {
+        return folder().resolve(FILE_PREFIX + pid);
+    }
+
+    private void deleteLeaseFile() {
+        try {
+            Files.deleteIfExists(leaseFilePath());
+        } catch (Exception e) {
+            printErr("Failed to delete lease file [" + leaseFilePath() + "] - " + e.getMessage());
+        }
+    }
+
+    @RequiredArgsConstructor
+    static final class Lease {
+
+        String testId;
+        long since;
+        /**
+         * Thread that acquired the lock, its stack is reported on request.
+         */
+        Thread thread;
+    }
+
+    /**
+     * Hold or wait of another JVM, as written to its lease file.
+     */
+    @RequiredArgsConstructor
+    static final class ForeignLease {
+
+        long pid;
+        long startMillis;
+        long heartbeatMillis;
+        String module;
+        boolean hold;
+        String tag;
+        long since;
+        String testId;
+
+        @Override
+        public String toString() {
+            return pid + FIELD_SEPARATOR + tag + FIELD_SEPARATOR + testId + FIELD_SEPARATOR + since;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.varlanv.gradle.testsync.JunitSynchronizingTestListener.printErr;
+import static com.varlanv.gradle.testsync.JunitSynchronizingTestListener.printReport;
+
+/**
+ * Acquires and releases the set of sync tags required by a single test or container.
+ */
+@RequiredArgsConstructor
+final class LockAcquisition {
+
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(64);
+
+    SyncTag[] tagsList;
+    WaitForGraph waitForGraph;
+    Leases leases;
+    LockTrace lockTrace;
+    LockEvents lockEvents;
+    /**
+     * When true, tests that require several tags never hold some of them while waiting for the others.
+     */
+    boolean atomic;
+
+    /**
+     * @param lockModes    required mode for each tag of {@link #tagsList}, null for tags that are not required
+     * @param requiredTags number of non-null entries in lockModes
+     * @param lockHolders  receives holders for each tag of {@link #tagsList}, entries stay null for tags that are not
+     *                     required or failed to be acquired
+     */
+    void acquire(LockMode[] lockModes, int requiredTags, LockHolder[] lockHolders, String testId) {
+        acquire(lockModes, requiredTags, lockHolders, testId, 0);
+    }
+
+    /**
+     * @param priority position of the test in the queues of the tags, higher goes first
+     */
+    void acquire(LockMode[] lockModes, int requiredTags, LockHolder[] lockHolders, String testId, int priority) {
+        lockTrace.testStarted(testId);
+        if (atomic && requiredTags > 1) {
+            acquireAtomically(lockModes, lockHolders, testId, priority);
+        } else {
+            acquireInOrder(lockModes, lockHolders, testId, priority);
+        }
+    }
+
+    /**
+     * Called once all tests of the JVM are finished. Releases locks that are still held, because JUnit did not report
+     * the finish of their tests, for example when the execution was aborted.
+     */
+    void finished(Iterable<LockIndex.Entry> entries) {
+        for (val entry : entries) {
+            val lockHolders = entry.holders();
+            for (var i = 0; i < lockHolders.length; i++) {
+                if (lockHolders[i] != null) {
+                    printErr("Releasing lock of tag [" + tagsList[i].name() + "] left over by [" + entry.identifier().getUniqueId() + "]");
+                    release(lockHolders, entry.identifier().getUniqueId());
+                    break;
+                }
+            }
+        }
+        for (val syncTag : tagsList) {
+            syncTag.releaseRetained();
+        }
+    }
+
+    void release(LockHolder[] lockHolders, String testId) {
+        for (var i = 0; i < lockHolders.length; i++) {
+            val lockHolder = lockHolders[i];
+            if (lockHolder != null) {
+                waitForGraph.released(lockHolder);
+                leases.released(lockHolder);
+                lockHolder.release();
+                lockTrace.released(i, testId);
+                lockEvents.held(lockHolder.heldEvent(), lockHolder.syncTag(), lockHolder.mode(), testId);
+                lockHolders[i] = null;
+            }
+        }
+    }
+
+    private void acquireInOrder(LockMode[] lockModes, LockHolder[] lockHolders, String testId, int priority) {
+        for (var i = 0; i < tagsList.length; i++) {
+            val lockMode = lockModes[i];
+            if (lockMode != null) {
+                lockHolders[i] = acquireBlocking(i, lockMode, testId, priority);
+                if (lockHolders[i] == null && LockWaitTimeouts.isTimedOut(testId)) {
+                    release(lockHolders, testId);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * All-or-nothing acquisition: all tags are tried without blocking, and on partial failure everything is released.
+     * The next round blocks only on the tag that failed, while holding nothing else, and then tries the rest without
+     * blocking again. This way a test never holds some tags while waiting for others, so tests that need only one of
+     * the tags are not stalled behind it.
+     */
+    private void acquireAtomically(LockMode[] requiredLockModes, LockHolder[] lockHolders, String testId, int priority) {
+        var lockModes = requiredLockModes;
+        var blockOn = -1;
+        for (var round = 0; ; round++) {
+            if (blockOn >= 0) {
+                lockHolders[blockOn] = acquireBlocking(blockOn, lockModes[blockOn], testId, priority);
+                if (lockHolders[blockOn] == null && LockWaitTimeouts.isTimedOut(testId)) {
+                    return;
+                }
+                if (lockHolders[blockOn] == null) {
+                    // failed to acquire even by waiting, proceed without this tag, same as ordered acquisition does
+                    if (lockModes == requiredLockModes) {
+                        lockModes = requiredLockModes.clone();
+                    }
+                    lockModes[blockOn] = null;
+                }
+            }
+            val failedIdx = tryAcquireRest(lockModes, lockHolders, blockOn, testId);
+            if (failedIdx < 0) {
+                return;
+            }
+            release(lockHolders, testId);
+            blockOn = failedIdx;
+            backoff(round);
+        }
+    }
+
+    private int tryAcquireRest(LockMode[] lockModes, LockHolder[] lockHolders, int acquiredIdx, String testId) {
+        for (var i = 0; i < tagsList.length; i++) {
+            val lockMode = lockModes[i];
+            if (lockMode != null && i != acquiredIdx) {
+                val syncTag = tagsList[i];
+                lockTrace.requested(i, testId);
+                val lockHolder = syncTag.tryAcquire(lockMode);
+                if (lockHolder == null) {
+                    return i;
+                }
+                lockTrace.acquired(i, testId);
+                lockHolder.heldEvent(lockEvents.beginHold());
+                waitForGraph.held(syncTag, testId, lockHolder);
+                leases.held(lockHolder, testId);
+                lockHolders[i] = lockHolder;
+            }
+        }
+        return -1;
+    }
+
+    @Nullable
+    private LockHolder acquireBlocking(int tagIndex, LockMode lockMode, String testId, int priority) {
+        val syncTag = tagsList[tagIndex];
+        lockTrace.requested(tagIndex, testId);
+        val waitEvent = lockEvents.beginWait();
+        val waitEntry = waitForGraph.waitStarted(syncTag, testId);
+        leases.waitStarted(syncTag, testId);
+        val maxWaitMillis = syncTag.maxWaitMillis();
+        val waitStartNanos = maxWaitMillis > 0 ? System.nanoTime() : 0L;
+        var lockHolder = ManagedLockWait.acquire(syncTag, lockMode, priority, TimeUnit.MILLISECONDS.toNanos(maxWaitMillis));
+        if (lockHolder == null && maxWaitMillis > 0 && System.nanoTime() - waitStartNanos >= TimeUnit.MILLISECONDS.toNanos(maxWaitMillis)) {
+            if (LockWaitTimeouts.isEnforced(testId)) {
+                waitTimedOut(syncTag, testId);
+            } else {
+                printReport(holdersMessage(syncTag, testId) + System.lineSeparator() + "Test keeps waiting, register "
+                    + LockWaitTimeoutExtension.class.getName() + " to fail or skip tests that wait for too long");
+                lockHolder = ManagedLockWait.acquire(syncTag, lockMode, priority, 0L);
+            }
+        }
+        leases.waitFinished(syncTag, testId);
+        waitForGraph.waitFinished(waitEntry, lockHolder);
+        lockEvents.waited(waitEvent, syncTag, lockMode, testId);
+        if (lockHolder != null) {
+            lockTrace.acquired(tagIndex, testId);
+            lockHolder.heldEvent(lockEvents.beginHold());
+            leases.held(lockHolder, testId);
+        }
+        return lockHolder;
+    }
+
+    /**
+     * Reports the holders of the tag, and lets {@link LockWaitTimeoutExtension} fail or skip the test.
+     */
+    private void waitTimedOut(SyncTag syncTag, String testId) {
+        val message = holdersMessage(syncTag, testId);
+        printReport(message);
+        LockWaitTimeouts.timedOut(testId, message, syncTag.skipOnMaxWait());
+    }
+
+    private String holdersMessage(SyncTag syncTag, String testId) {
+        return "Test [" + testId + "] waited for tag [" + syncTag.name() + "] for longer than "
+            + syncTag.maxWaitMillis() + "ms, tag is held by:" + System.lineSeparator()
+            + leases.describeHolders(syncTag, System.currentTimeMillis());
+    }
+
+    private static void backoff(int round) {
+        val maxNanos = Math.min(MAX_BACKOFF_NANOS, TimeUnit.MILLISECONDS.toNanos(1L << Math.min(round, 6)));
+        LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(maxNanos));
+    }
+}
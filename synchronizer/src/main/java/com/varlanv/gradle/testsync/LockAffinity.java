@@ -0,0 +1,127 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.parallel.ResourceLock;
+import org.junit.platform.commons.support.AnnotationSupport;
+import org.junit.platform.commons.support.HierarchyTraversalMode;
+import org.junit.platform.commons.support.ReflectionSupport;
+
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Sync tags that test classes and methods require, used by {@link LockAffinityClassOrderer} and
+ * {@link LockAffinityMethodOrderer} to run untagged tests first, and tests that require the same tags next
+ * to each other. Tags are read from annotations rather than from the test plan, because Jupiter orders classes
+ * and methods before the plan is built.
+ */
+final class LockAffinity {
+
+    /**
+     * Untagged tests first, then tests grouped by the set of tags they require.
+     */
+    static final Comparator<String> KEY_ORDER = Comparator.comparing(String::isEmpty).reversed().thenComparing(Comparator.naturalOrder());
+    private static final String KEY_SEPARATOR = ",";
+
+    Set<String> syncTags;
+    Set<String> resourceLockTags;
+
+    LockAffinity(Set<String> syncTags, Set<String> resourceLockTags) {
+        this.syncTags = syncTags;
+        this.resourceLockTags = resourceLockTags;
+    }
+
+    static LockAffinity get() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * @return false if the JVM has no sync tags, in which case the original order is kept
+     */
+    boolean enabled() {
+        return !syncTags.isEmpty();
+    }
+
+    /**
+     * Reads only tag names and the resource lock option, the rest of the sync property is of no interest for ordering.
+     */
+    static LockAffinity parse(@Nullable String syncProperty) {
+        if (syncProperty == null || syncProperty.isEmpty()) {
+            return new LockAffinity(Collections.emptySet(), Collections.emptySet());
+        }
+        val syncTags = new HashSet<String>();
+        val resourceLockTags = new HashSet<String>();
+        val resourceLockOption = Constants.SYNC_OPTION_RESOURCE_LOCK + Constants.SYNC_OPTION_SEPARATOR + true;
+        for (val syncValue : syncProperty.split(Pattern.quote(Constants.SYNC_PROPERTY_SEPARATOR))) {
+            val parts = syncValue.split(Pattern.quote(Constants.TAG_SEPARATOR));
+            syncTags.add(parts[0]);
+            for (var i = 2; i < parts.length; i++) {
+                if (resourceLockOption.equals(parts[i])) {
+                    resourceLockTags.add(parts[0]);
+                }
+            }
+        }
+        return new LockAffinity(syncTags, resourceLockTags);
+    }
+
+    /**
+     * @return sorted sync tags required by the class or any of its methods, joined, empty if there are none
+     */
+    String classKey(Class<?> testClass) {
+        val result = new TreeSet<String>();
+        collectClass(testClass, result);
+        if (!syncTags.isEmpty()) {
+            for (val method : ReflectionSupport.findMethods(testClass, method -> true, HierarchyTraversalMode.TOP_DOWN)) {
+                collect(method, result);
+            }
+        }
+        return String.join(KEY_SEPARATOR, result);
+    }
+
+    /**
+     * @return sorted sync tags required by the method, including the ones declared on its class, joined, empty if there are none
+     */
+    String methodKey(Class<?> testClass, Method method) {
+        val result = new TreeSet<String>();
+        collectClass(testClass, result);
+        collect(method, result);
+        return String.join(KEY_SEPARATOR, result);
+    }
+
+    private void collectClass(Class<?> testClass, Set<String> result) {
+        Class<?> current = testClass;
+        while (current != null && !syncTags.isEmpty()) {
+            collect(current, result);
+            current = Modifier.isStatic(current.getModifiers()) ? null : current.getEnclosingClass();
+        }
+    }
+
+    private void collect(AnnotatedElement element, Set<String> result) {
+        for (val tag : AnnotationSupport.findRepeatableAnnotations(element, Tag.class)) {
+            if (syncTags.contains(tag.value())) {
+                result.add(tag.value());
+            }
+        }
+        if (!resourceLockTags.isEmpty()) {
+            for (val resourceLock : AnnotationSupport.findRepeatableAnnotations(element, ResourceLock.class)) {
+                if (resourceLockTags.contains(resourceLock.value())) {
+                    result.add(resourceLock.value());
+                }
+            }
+        }
+    }
+
+    private static final class Holder {
+
+        static final LockAffinity INSTANCE = parse(System.getProperty(Constants.SYNC_PROPERTY));
+    }
+}
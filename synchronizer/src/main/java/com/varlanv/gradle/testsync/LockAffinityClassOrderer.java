@@ -0,0 +1,30 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.val;
+import org.junit.jupiter.api.ClassDescriptor;
+import org.junit.jupiter.api.ClassOrderer;
+import org.junit.jupiter.api.ClassOrdererContext;
+
+import java.util.HashMap;
+
+/**
+ * Orders test classes of the JVM so that classes without sync tags run first, while other JVMs hold the tags,
+ * and classes that require the same tags run one after another, instead of taking turns for the tags
+ * with every other class. Relative order of classes within each group is kept. The plugin sets it as
+ * {@code junit.jupiter.testclass.order.default} when lock affinity ordering is enabled.
+ */
+public final class LockAffinityClassOrderer implements ClassOrderer {
+
+    @Override
+    public void orderClasses(ClassOrdererContext context) {
+        val lockAffinity = LockAffinity.get();
+        if (!lockAffinity.enabled()) {
+            return;
+        }
+        val keys = new HashMap<ClassDescriptor, String>();
+        for (val descriptor : context.getClassDescriptors()) {
+            keys.put(descriptor, lockAffinity.classKey(descriptor.getTestClass()));
+        }
+        context.getClassDescriptors().sort((left, right) -> LockAffinity.KEY_ORDER.compare(keys.get(left), keys.get(right)));
+    }
+}
@@ -0,0 +1,30 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.val;
+import org.junit.jupiter.api.MethodDescriptor;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.MethodOrdererContext;
+
+import java.util.HashMap;
+
+/**
+ * Same as {@link LockAffinityClassOrderer}, but for methods of a test class: untagged methods first, then methods
+ * grouped by the sync tags they require. The plugin sets it as {@code junit.jupiter.testmethod.order.default}
+ * when lock affinity ordering is enabled.
+ */
+public final class LockAffinityMethodOrderer implements MethodOrderer {
+
+    @Override
+    public void orderMethods(MethodOrdererContext context) {
+        val lockAffinity = LockAffinity.get();
+        if (!lockAffinity.enabled()) {
+            return;
+        }
+        val testClass = context.getTestClass();
+        val keys = new HashMap<MethodDescriptor, String>();
+        for (val descriptor : context.getMethodDescriptors()) {
+            keys.put(descriptor, lockAffinity.methodKey(testClass, descriptor.getMethod()));
+        }
+        context.getMethodDescriptors().sort((left, right) -> LockAffinity.KEY_ORDER.compare(keys.get(left), keys.get(right)));
+    }
+}
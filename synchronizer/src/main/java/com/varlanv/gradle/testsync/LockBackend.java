@@ -0,0 +1,91 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Creates {@link ProcessLock} of each sync tag. All test JVMs of the build use the same backend, selected by
+ * {@link Constants#SYNC_BACKEND_PROPERTY}. File backend is built in, every other backend is looked up by name
+ * among {@link LockBackendProvider} services, including the ones shipped with the synchronizer.
+ */
+public interface LockBackend {
+
+    LockBackend FILE = tag -> new FileProcessLock((SyncTag) tag);
+
+    ProcessLock processLock(Tag tag);
+
+    @Nullable
+    static LockBackend create(@Nullable String name, Path syncFolderPath) {
+        return create(name, syncFolderPath, null);
+    }
+
+    /**
+     * @param name    name of the backend, null for the default file backend
+     * @param address address of the lock coordinator, passed as {@link Constants#SYNC_OPTION_COORDINATOR} option of the tags
+     * @return the backend, or null if it is not available in this JVM, in which case tests must not be run,
+     * because other JVMs of the build coordinate through the backend
+     */
+    @Nullable
+    static LockBackend create(@Nullable String name, Path syncFolderPath, @Nullable String address) {
+        if (name == null || name.isEmpty() || Constants.BACKEND_FILE.equals(name)) {
+            return FILE;
+        }
+        val provider = provider(name);
+        if (provider == null) {
+            JunitSynchronizingTestListener.printReport("Unknown lock backend [" + name + "]");
+            return null;
+        }
+        try {
+            return provider.create(syncFolderPath, address);
+        } catch (Throwable e) {
+            JunitSynchronizingTestListener.printReport("Lock backend [" + name + "] is not available - " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Providers that fail to load, for example because they were compiled for a newer Java, are skipped.
+     */
+    @Nullable
+    static LockBackendProvider provider(String name) {
+        val providers = ServiceLoader.load(LockBackendProvider.class, LockBackend.class.getClassLoader()).iterator();
+        while (true) {
+            try {
+                if (!providers.hasNext()) {
+                    return null;
+                }
+                val provider = providers.next();
+                if (name.equals(provider.name())) {
+                    return provider;
+                }
+            } catch (ServiceConfigurationError | LinkageError e) {
+                JunitSynchronizingTestListener.printReport("Skipping lock backend provider that failed to load - " + e);
+            }
+        }
+    }
+
+    /**
+     * Sync tag as seen by lock backends.
+     */
+    interface Tag {
+
+        /**
+         * Name of the tag, the same in all test JVMs of the build.
+         */
+        String name();
+
+        /**
+         * Path of the sync file of the tag, the same in all test JVMs of the build that run on the same host.
+         */
+        String fileName();
+
+        /**
+         * Number of {@link LockMode#PERMIT} holders that can hold the tag at the same time across all test JVMs.
+         */
+        int permits();
+    }
+}
@@ -0,0 +1,28 @@
+package com.varlanv.gradle.testsync;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+
+/**
+ * Service provider interface of lock backends, selected by name with {@code testSync { backend(...) }}.
+ * Implementations are looked up with {@link java.util.ServiceLoader}, so they must be on the runtime classpath
+ * of the tests, for example as {@code testRuntimeOnly} dependency, and be listed in
+ * {@code META-INF/services/com.varlanv.gradle.testsync.LockBackendProvider}.
+ */
+public interface LockBackendProvider {
+
+    /**
+     * Name of the backend, as passed to {@code backend(...)}.
+     */
+    String name();
+
+    /**
+     * Called once per test JVM, before the first test starts.
+     *
+     * @param syncFolderPath folder of sync files of the build, shared by test JVMs that run on the same host
+     * @param address        address passed to {@code backend(name, address)}, or of the coordinator started by the plugin,
+     *                       null if there is none
+     */
+    LockBackend create(Path syncFolderPath, @Nullable String address) throws Exception;
+}
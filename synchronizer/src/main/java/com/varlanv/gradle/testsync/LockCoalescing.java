@@ -0,0 +1,149 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.NonFinal;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps the process lock of a {@link SyncTag} for a short while after its last holder in the JVM released it, so
+ * that the next test of the JVM that needs the tag takes it over without a round trip to the other JVMs. Tests that
+ * run one after another then hand the tag over in memory, while other JVMs get it only when the chain of tests
+ * ends, instead of between every two tests.
+ * <p>
+ * The lock is given back when nobody in the JVM took it over within the linger time, which adapts to the usual gap
+ * between consecutive tests of the JVM, when the chain used up its budget of time or tests, or right away when
+ * other JVMs are queued for the tag. Queued JVMs are seen in the {@link TicketQueue}, which is therefore used for
+ * coalesced tags of the file backend even if {@code fifo} is not enabled. Only tags with a single permit are coalesced,
+ * so that every holder of the JVM holds all in-JVM permits of the tag, and the retained lock is only touched by
+ * threads that hold them.
+ */
+@RequiredArgsConstructor
+final class LockCoalescing {
+
+    private static final long MIN_LINGER_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MAX_LINGER_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    SyncTag syncTag;
+    long budgetNanos;
+    /**
+     * Maximum number of tests in a chain, 0 for no limit.
+     */
+    int maxTests;
+    AtomicReference<Retained> retained = new AtomicReference<>();
+    /**
+     * Start of the current chain and number of its tests, only used by the thread that holds all in-JVM permits.
+     */
+    @NonFinal
+    long chainStartNanos;
+    @NonFinal
+    int chainTests;
+    /**
+     * Moving average of the gap between release of the lock and its takeover by the next test of the JVM.
+     */
+    @NonFinal
+    volatile long gapNanos = MAX_LINGER_NANOS / 4;
+
+    /**
+     * Called by the thread that holds all in-JVM permits, before it takes the process lock.
+     *
+     * @return retained lock of the same mode and slot, or null if there is none, in which case a retained lock of
+     * another mode is released
+     */
+    @Nullable
+    Object takeOver(LockMode mode, int slot) {
+        val current = retained.getAndSet(null);
+        if (current == null) {
+            return null;
+        }
+        if (current.mode != mode || current.slot != slot) {
+            syncTag.releaseProcessLock(current.lock);
+            return null;
+        }
+        val gap = System.nanoTime() - current.retainedAtNanos;
+        gapNanos += (gap - gapNanos) / 8;
+        chainTests++;
+        return current.lock;
+    }
+
+    /**
+     * Called when the process lock was taken from the other JVMs, which starts a new chain.
+     */
+    void acquired() {
+        chainStartNanos = System.nanoTime();
+        chainTests = 1;
+    }
+
+    /**
+     * Called by the last holder of the JVM before it gives back the in-JVM permits.
+     *
+     * @return true if the lock is retained, false if the caller should release it
+     */
+    boolean retain(LockMode mode, int slot, Object lock) {
+        val now = System.nanoTime();
+        if ((maxTests > 0 && chainTests >= maxTests) || now - chainStartNanos >= budgetNanos || syncTag.hasWaitersInOtherJvms()) {
+            return false;
+        }
+        val current = new Retained(mode, slot, lock, now);
+        retained.set(current);
+        val lingerNanos = Math.max(MIN_LINGER_NANOS, Math.min(MAX_LINGER_NANOS, 4 * gapNanos));
+        Expiry.SCHEDULER.schedule(() -> expire(current), lingerNanos, TimeUnit.NANOSECONDS);
+        return true;
+    }
+
+    /**
+     * Releases the retained lock, unless a thread of the JVM holds the in-JVM permits, in which case that thread
+     * already took the lock over, or will do so before it takes the process lock.
+     */
+    void releaseRetained() {
+        val current = retained.get();
+        if (current != null) {
+            expire(current);
+        }
+    }
+
+    private void expire(Retained expected) {
+        val jvmLock = syncTag.jvmLock();
+        if (!jvmLock.tryAcquire(syncTag.permits())) {
+            return;
+        }
+        try {
+            if (retained.compareAndSet(expected, null)) {
+                // nobody took the lock over in time, next time linger for a shorter while
+                gapNanos /= 2;
+                syncTag.releaseProcessLock(expected.lock);
+            }
+        } finally {
+            jvmLock.release(syncTag.permits());
+        }
+    }
+
+    @RequiredArgsConstructor
+    static final class Retained {
+
+        LockMode mode;
+        int slot;
+        Object lock;
+        long retainedAtNanos;
+    }
+
+    private static final class Expiry {
+
+        static final ScheduledExecutorService SCHEDULER = scheduler();
+
+        private static ScheduledExecutorService scheduler() {
+            val scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+                val thread = new Thread(runnable, "testsync-lock-coalescing");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.setRemoveOnCancelPolicy(true);
+            return scheduler;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.varlanv.gradle.testsync;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Lock events reported to an external profiler. Implementation backed by JDK Flight Recorder is compiled separately,
+ * because the synchronizer itself targets Java 8, and is only loaded when JFR is available in the test JVM.
+ */
+interface LockEvents {
+
+    String JFR_IMPLEMENTATION = "com.varlanv.gradle.testsync.JfrLockEvents";
+
+    LockEvents NOOP = new LockEvents() {
+
+        @Override
+        public @Nullable Object beginWait() {
+            return null;
+        }
+
+        @Override
+        public @Nullable Object beginHold() {
+            return null;
+        }
+
+        @Override
+        public void waited(@Nullable Object event, SyncTag syncTag, LockMode mode, String testId) {
+        }
+
+        @Override
+        public void held(@Nullable Object event, SyncTag syncTag, LockMode mode, String testId) {
+        }
+    };
+
+    /**
+     * Starts timing of a wait.
+     *
+     * @return event to pass to {@link #waited}, or null if the event is not recorded at the moment
+     */
+    @Nullable
+    Object beginWait();
+
+    /**
+     * Starts timing of a hold.
+     *
+     * @return event to pass to {@link #held}, or null if the event is not recorded at the moment
+     */
+    @Nullable
+    Object beginHold();
+
+    void waited(@Nullable Object event, SyncTag syncTag, LockMode mode, String testId);
+
+    void held(@Nullable Object event, SyncTag syncTag, LockMode mode, String testId);
+
+    static LockEvents create() {
+        try {
+            Class.forName("jdk.jfr.FlightRecorder");
+            return (LockEvents) Class.forName(JFR_IMPLEMENTATION).getDeclaredConstructor().newInstance();
+        } catch (Throwable e) {
+            JunitSynchronizingTestListener.printErr("JFR lock events are disabled - " + e);
+            return NOOP;
+        }
+    }
+}
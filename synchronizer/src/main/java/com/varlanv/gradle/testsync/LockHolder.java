@@ -0,0 +1,66 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import lombok.experimental.NonFinal;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Lock of a single sync tag held by a single test.
+ */
+@Getter
+@RequiredArgsConstructor
+final class LockHolder {
+
+    private static final AtomicIntegerFieldUpdater<LockHolder> RELEASED = AtomicIntegerFieldUpdater.newUpdater(LockHolder.class, "released");
+
+    SyncTag syncTag;
+    LockMode mode;
+    /**
+     * Slot of the sync file held by {@link LockMode#PERMIT} holder, -1 for other modes.
+     */
+    int slot;
+    /**
+     * Lock returned by {@link ProcessLock} of the tag.
+     */
+    Object lock;
+    /**
+     * Hold event of {@link LockEvents}, if it is recorded.
+     */
+    @Setter
+    @NonFinal
+    @Nullable
+    Object heldEvent;
+    /**
+     * 1 once released, either by the test or by {@link Leases} when the lease of the lock expired.
+     */
+    @NonFinal
+    volatile int released;
+
+    /**
+     * @return false if the lock was already released
+     */
+    boolean release() {
+        if (!RELEASED.compareAndSet(this, 0, 1)) {
+            return false;
+        }
+        syncTag.release(this);
+        return true;
+    }
+
+    /**
+     * Releases the lock on behalf of the test, whose lease expired, see {@link SyncTag#revoke(LockHolder)}.
+     *
+     * @return false if the lock was already released
+     */
+    boolean revoke() {
+        if (!RELEASED.compareAndSet(this, 0, 1)) {
+            return false;
+        }
+        syncTag.revoke(this);
+        return true;
+    }
+}
@@ -0,0 +1,309 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.NonFinal;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+import org.junit.platform.engine.TestTag;
+import org.junit.platform.launcher.TestIdentifier;
+import org.junit.platform.launcher.TestPlan;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.varlanv.gradle.testsync.JunitSynchronizingTestListener.printErr;
+import static com.varlanv.gradle.testsync.JunitSynchronizingTestListener.printReport;
+
+/**
+ * Locks required by each test and container of the test plan, resolved once when the plan starts, and when dynamic
+ * tests are registered. Tests and containers that do not require any lock are not indexed, so that lookup of their
+ * locks on execution start and finish does not allocate and does not touch any sync tag.
+ */
+@RequiredArgsConstructor
+final class LockIndex {
+
+    SyncTag[] tagsList;
+    JupiterResourceLocks resourceLocks;
+    boolean containerScopeRequested;
+    ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    @NonFinal
+    @Nullable
+    volatile TestPlan testPlan;
+
+    void planStarted(TestPlan plan) {
+        testPlan = plan;
+        for (val root : plan.getRoots()) {
+            indexSubtree(plan, root);
+        }
+        if (containerScopeRequested) {
+            for (val entry : entries.values()) {
+                linkAncestors(plan, entry);
+            }
+        }
+    }
+
+    void dynamicTestRegistered(TestIdentifier identifier) {
+        val plan = testPlan;
+        if (plan != null) {
+            final LockMode[] lockModes;
+            if (identifier.isTest()) {
+                lockModes = testLockModes(identifier.getTags(), resourceLocks.find(identifier));
+            } else if (containerScopeRequested) {
+                // dynamic container has no children yet, its tests are registered after it
+                lockModes = containerLockModes(identifier, testLockModes(identifier.getTags(), resourceLocks.find(identifier)));
+            } else {
+                lockModes = null;
+            }
+            val entry = index(identifier, lockModes);
+            if (entry != null && containerScopeRequested) {
+                linkAncestors(plan, entry);
+            }
+        }
+    }
+
+    @Nullable
+    Entry find(TestIdentifier identifier) {
+        return entries.get(identifier.getUniqueId());
+    }
+
+    Iterable<Entry> entries() {
+        return entries.values();
+    }
+
+    /**
+     * Indexes the node and its subtree bottom-up, so that every container gets the modes required by its subtree
+     * from its children, without walking the subtree again.
+     *
+     * @return strongest mode of each tag required by the node and its subtree, or null if they do not require any tag
+     * or no container takes tags
+     */
+    @Nullable
+    private LockMode[] indexSubtree(TestPlan plan, TestIdentifier identifier) {
+        LockMode[] subtreeLockModes = null;
+        if (identifier.isTest()) {
+            val lockModes = testLockModes(identifier.getTags(), resourceLocks.find(identifier));
+            index(identifier, lockModes);
+            if (containerScopeRequested) {
+                subtreeLockModes = strongest(null, lockModes);
+            }
+        }
+        for (val child : plan.getChildren(identifier)) {
+            val childLockModes = indexSubtree(plan, child);
+            if (containerScopeRequested) {
+                subtreeLockModes = strongest(subtreeLockModes, childLockModes);
+            }
+        }
+        if (!identifier.isTest() && containerScopeRequested) {
+            // tags of the container itself are required by its dynamic tests, that are not in the plan yet
+            subtreeLockModes = strongest(subtreeLockModes, testLockModes(identifier.getTags(), resourceLocks.find(identifier)));
+            index(identifier, containerLockModes(identifier, subtreeLockModes));
+        }
+        return subtreeLockModes;
+    }
+
+    /**
+     * @param target modes to merge into, modified in place, or null to allocate new ones
+     * @return target with the strongest of both modes for each tag
+     */
+    @Nullable
+    private LockMode[] strongest(@Nullable LockMode[] target, @Nullable LockMode[] lockModes) {
+        if (lockModes == null) {
+            return target;
+        }
+        val result = target == null ? new LockMode[tagsList.length] : target;
+        for (var i = 0; i < lockModes.length; i++) {
+            val lockMode = lockModes[i];
+            if (lockMode != null) {
+                result[i] = result[i] == null ? lockMode : result[i].strongest(lockMode);
+            }
+        }
+        return result;
+    }
+
+    @Nullable
+    private Entry index(TestIdentifier identifier, @Nullable LockMode[] lockModes) {
+        if (lockModes == null) {
+            return null;
+        }
+        val entry = new Entry(identifier, lockModes, priority(identifier.getTags()));
+        entries.put(identifier.getUniqueId(), entry);
+        return entry;
+    }
+
+    private static int priority(Set<TestTag> testTags) {
+        for (val testTag : testTags) {
+            val name = testTag.getName();
+            if (name.startsWith(Constants.PRIORITY_TAG_PREFIX)) {
+                try {
+                    return Integer.parseInt(name.substring(Constants.PRIORITY_TAG_PREFIX.length()));
+                } catch (NumberFormatException e) {
+                    printErr("Ignoring priority tag [" + name + "] - priority is not a number");
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Tags of the entry that are also taken by one of its ancestors, are taken by the entry only when the ancestor
+     * failed to take them.
+     */
+    private void linkAncestors(TestPlan plan, Entry entry) {
+        var highestLinked = -1;
+        var lowestUnlinked = Integer.MAX_VALUE;
+        for (var i = 0; i < tagsList.length; i++) {
+            if (entry.lockModes[i] != null) {
+                var parent = plan.getParent(entry.identifier);
+                while (parent.isPresent()) {
+                    val parentEntry = entries.get(parent.get().getUniqueId());
+                    if (parentEntry != null && parentEntry.lockModes[i] != null) {
+                        if (entry.ancestors == null) {
+                            entry.ancestors = new Entry[tagsList.length];
+                        }
+                        entry.ancestors[i] = parentEntry;
+                        highestLinked = i;
+                        break;
+                    }
+                    parent = plan.getParent(parent.get());
+                }
+                if (entry.ancestors == null || entry.ancestors[i] == null) {
+                    lowestUnlinked = Math.min(lowestUnlinked, i);
+                }
+            }
+        }
+        if (lowestUnlinked < highestLinked) {
+            // only possible for dynamic tests, containers take the tags of the tests that are known when the plan starts
+            printReport(
+                "Test [" + entry.identifier.getUniqueId() + "] requires tag [" + tagsList[lowestUnlinked].name()
+                    + "] that its container does not hold, while the container holds tag [" + tagsList[highestLinked].name()
+                    + "], tags are not taken in canonical order and test JVMs may deadlock"
+            );
+        }
+    }
+
+    @Nullable
+    private LockMode[] testLockModes(Set<TestTag> testTags, Map<String, LockMode> testResourceLocks) {
+        if (testTags.isEmpty() && testResourceLocks.isEmpty()) {
+            return null;
+        }
+        LockMode[] lockModes = null;
+        for (var i = 0; i < tagsList.length; i++) {
+            val lockMode = lockMode(tagsList[i], testTags, testResourceLocks);
+            if (lockMode != null) {
+                if (lockModes == null) {
+                    lockModes = new LockMode[tagsList.length];
+                }
+                lockModes[i] = lockMode;
+            }
+        }
+        return lockModes;
+    }
+
+    /**
+     * Container-scoped tags are taken by the container when any of its descendants, or the container itself,
+     * requires the tag. The strongest mode requested by the subtree is used.
+     * <p>
+     * Tags are taken in canonical order of {@link #tagsList}, so that test JVMs can not deadlock on each other.
+     * A container that takes a tag therefore also takes every tag before it that its subtree requires, whatever their
+     * scope, otherwise its tests would take those tags after the container took a later one.
+     *
+     * @param subtreeLockModes strongest mode of each tag required by the container and its subtree
+     */
+    @Nullable
+    private LockMode[] containerLockModes(TestIdentifier container, @Nullable LockMode[] subtreeLockModes) {
+        if (subtreeLockModes == null) {
+            return null;
+        }
+        LockMode[] lockModes = null;
+        for (var i = tagsList.length - 1; i >= 0; i--) {
+            if (subtreeLockModes[i] != null && (lockModes != null || tagsList[i].scope().isScopeContainer(container))) {
+                if (lockModes == null) {
+                    lockModes = new LockMode[tagsList.length];
+                }
+                lockModes[i] = subtreeLockModes[i];
+            }
+        }
+        return lockModes;
+    }
+
+    @Nullable
+    static LockMode lockMode(SyncTag syncTag, Set<TestTag> testTags, Map<String, LockMode> testResourceLocks) {
+        LockMode lockMode = null;
+        if (testTags.contains(syncTag.testTag())) {
+            lockMode = syncTag.sharedWithinJvm() ? LockMode.SHARED : LockMode.PERMIT;
+        }
+        if (syncTag.resourceLock()) {
+            val resourceLockMode = testResourceLocks.get(syncTag.testTag().getName());
+            if (resourceLockMode != null) {
+                lockMode = lockMode == null ? resourceLockMode : lockMode.strongest(resourceLockMode);
+            }
+        }
+        return lockMode;
+    }
+
+    /**
+     * Locks of a single test or container.
+     */
+    @Getter
+    static final class Entry {
+
+        TestIdentifier identifier;
+        /**
+         * Required mode for each sync tag of the JVM, null for tags that are not required.
+         */
+        LockMode[] lockModes;
+        int requiredTags;
+        /**
+         * Position in the queues of the sync tags, higher goes first, see {@link Constants#PRIORITY_TAG_PREFIX}.
+         */
+        int priority;
+        /**
+         * Holders of the current execution, reused between executions.
+         */
+        LockHolder[] holders;
+        /**
+         * Closest ancestor that takes the same tag, for each tag, or null if there are none.
+         */
+        @NonFinal
+        @Nullable
+        Entry[] ancestors;
+
+        Entry(TestIdentifier identifier, LockMode[] lockModes, int priority) {
+            this.identifier = identifier;
+            this.lockModes = lockModes;
+            this.priority = priority;
+            var required = 0;
+            for (val lockMode : lockModes) {
+                if (lockMode != null) {
+                    required++;
+                }
+            }
+            this.requiredTags = required;
+            this.holders = new LockHolder[lockModes.length];
+        }
+
+        /**
+         * @return modes to acquire in the current execution, without the tags that are already held by ancestors
+         */
+        LockMode[] lockModesToAcquire() {
+            val ancestorEntries = ancestors;
+            if (ancestorEntries == null) {
+                return lockModes;
+            }
+            LockMode[] result = lockModes;
+            for (var i = 0; i < ancestorEntries.length; i++) {
+                val ancestor = ancestorEntries[i];
+                if (ancestor != null && ancestor.holders[i] != null) {
+                    if (result == lockModes) {
+                        result = lockModes.clone();
+                    }
+                    result[i] = null;
+                }
+            }
+            return result;
+        }
+    }
+}
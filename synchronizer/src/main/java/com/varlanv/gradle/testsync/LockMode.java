@@ -0,0 +1,27 @@
+package com.varlanv.gradle.testsync;
+
+/**
+ * How a test holds a sync tag. Constants are ordered by strength, so when a test requires the same tag in several modes,
+ * the strongest one wins.
+ */
+public enum LockMode {
+
+    /**
+     * Shared with other {@code SHARED} holders, excludes every other mode.
+     * Used for JUnit Jupiter {@code @ResourceLock} with {@code READ} access mode.
+     */
+    SHARED,
+    /**
+     * Takes one of the tag permits. Used for tests that are tagged with the sync tag.
+     */
+    PERMIT,
+    /**
+     * Excludes every other holder of the tag, regardless of permits.
+     * Used for JUnit Jupiter {@code @ResourceLock} with {@code READ_WRITE} access mode.
+     */
+    EXCLUSIVE;
+
+    LockMode strongest(LockMode other) {
+        return compareTo(other) >= 0 ? this : other;
+    }
+}
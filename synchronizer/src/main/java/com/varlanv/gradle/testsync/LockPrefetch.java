@@ -0,0 +1,248 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.NonFinal;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+import org.junit.platform.launcher.TestIdentifier;
+import org.junit.platform.launcher.TestPlan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.varlanv.gradle.testsync.JunitSynchronizingTestListener.printErr;
+
+/**
+ * Starts waiting for the tags of an upcoming test on a background thread, while the tests without tags that run
+ * before it are still running, so that the tags are already held when the test starts, and the time spent in the
+ * queues of the tags overlaps with useful work. Upcoming tests are known from the order of the test plan, which is
+ * the execution order as long as the JVM runs one test at a time. Prefetching turns itself off once two tests run
+ * at the same time.
+ * <p>
+ * Only one test is prefetched at a time. Its tags are given back once another test that requires tags starts first,
+ * or a test that follows it in the plan starts, for example because the test was skipped. Prefetching is not used
+ * with tags that are held by containers, because a container of the upcoming test would wait for the tags that
+ * are already held on behalf of the test.
+ */
+@RequiredArgsConstructor
+final class LockPrefetch {
+
+    /**
+     * Number of upcoming tests of the plan to look through for a test that requires tags.
+     */
+    int lookahead;
+    LockIndex lockIndex;
+    LockAcquisition lockAcquisition;
+    AtomicInteger runningTests = new AtomicInteger();
+    @NonFinal
+    volatile List<TestIdentifier> order = Collections.emptyList();
+    @NonFinal
+    volatile Map<String, Integer> positions = Collections.emptyMap();
+    @NonFinal
+    volatile boolean disabled;
+    /**
+     * Test that is currently prefetched, guarded by this.
+     */
+    @NonFinal
+    @Nullable
+    Prefetched prefetched;
+    @NonFinal
+    @Nullable
+    ExecutorService executor;
+
+    static LockPrefetch create(int lookahead, boolean containerScopeRequested, LockIndex lockIndex, LockAcquisition lockAcquisition) {
+        if (lookahead > 0 && containerScopeRequested) {
+            printErr("Lock prefetching is disabled, it is not supported for tags that are held by containers");
+            return new LockPrefetch(0, lockIndex, lockAcquisition);
+        }
+        return new LockPrefetch(Math.max(lookahead, 0), lockIndex, lockAcquisition);
+    }
+
+    static int lookahead(@Nullable String property) {
+        if (property == null || property.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(property);
+        } catch (NumberFormatException e) {
+            printErr("Lock prefetching is disabled, lookahead [" + property + "] is not a number");
+            return 0;
+        }
+    }
+
+    void planStarted(TestPlan plan) {
+        if (lookahead <= 0) {
+            return;
+        }
+        val tests = new ArrayList<TestIdentifier>();
+        for (val root : plan.getRoots()) {
+            collectTests(plan, root, tests);
+        }
+        val testPositions = new HashMap<String, Integer>(tests.size() * 2);
+        for (var i = 0; i < tests.size(); i++) {
+            testPositions.put(tests.get(i).getUniqueId(), i);
+        }
+        order = tests;
+        positions = testPositions;
+    }
+
+    /**
+     * Called when a test or container starts, before its own tags are acquired. Gives back the prefetched tags if
+     * the prefetched test is not going to run next.
+     *
+     * @param entry locks of the starting test, or null if it does not require any
+     * @return true if the tags of the entry were prefetched, and are now held by the entry
+     */
+    boolean started(TestIdentifier identifier, @Nullable LockIndex.Entry entry) {
+        if (lookahead <= 0) {
+            return false;
+        }
+        if (identifier.isTest() && runningTests.incrementAndGet() > 1 && !disabled) {
+            printErr("Lock prefetching is disabled, tests of the JVM run in parallel");
+            disabled = true;
+        }
+        final Prefetched current;
+        synchronized (this) {
+            current = prefetched;
+            if (current == null) {
+                return false;
+            }
+            val target = current.entry == entry && !disabled;
+            if (!target && entry == null && !passed(current, identifier)) {
+                return false;
+            }
+            prefetched = null;
+            if (!target) {
+                abandon(current);
+                return false;
+            }
+        }
+        val lockHolders = current.acquired.join();
+        if (lockHolders == null) {
+            return false;
+        }
+        System.arraycopy(lockHolders, 0, current.entry.holders(), 0, lockHolders.length);
+        return true;
+    }
+
+    /**
+     * Called when a test or container finished starting, with its own tags held. Starts waiting for the tags of the next
+     * test in the plan that requires them, if there is one within the lookahead.
+     */
+    void scheduleNext(TestIdentifier identifier) {
+        if (lookahead <= 0 || disabled || !identifier.isTest()) {
+            return;
+        }
+        val position = positions.get(identifier.getUniqueId());
+        if (position == null) {
+            return;
+        }
+        val tests = order;
+        val last = Math.min(position + lookahead, tests.size() - 1);
+        for (var i = position + 1; i <= last; i++) {
+            val entry = lockIndex.find(tests.get(i));
+            if (entry != null) {
+                prefetch(entry, i);
+                return;
+            }
+        }
+    }
+
+    void finished(TestIdentifier identifier) {
+        if (lookahead > 0 && identifier.isTest()) {
+            runningTests.decrementAndGet();
+        }
+    }
+
+    /**
+     * Called once all tests of the JVM are finished, gives back tags of a test that did not run.
+     */
+    void planFinished() {
+        if (lookahead <= 0) {
+            return;
+        }
+        synchronized (this) {
+            val current = prefetched;
+            if (current != null) {
+                prefetched = null;
+                abandon(current);
+            }
+        }
+    }
+
+    private void prefetch(LockIndex.Entry entry, int position) {
+        synchronized (this) {
+            if (prefetched != null) {
+                return;
+            }
+            val testId = entry.identifier().getUniqueId();
+            val lockHolders = new LockHolder[entry.holders().length];
+            val acquired = CompletableFuture.supplyAsync(() -> {
+                try {
+                    lockAcquisition.acquire(entry.lockModes(), entry.requiredTags(), lockHolders, testId, entry.priority());
+                    return lockHolders;
+                } catch (Exception e) {
+                    printErr("Failed to prefetch locks of [" + testId + "] - " + e.getMessage());
+                    lockAcquisition.release(lockHolders, testId);
+                    return null;
+                }
+            }, executor());
+            prefetched = new Prefetched(entry, position, testId, acquired);
+        }
+    }
+
+    /**
+     * Gives the tags back once they are acquired. Waiting for the acquisition is not interrupted, because
+     * interruption would close channels of the file locks.
+     */
+    private void abandon(Prefetched abandoned) {
+        abandoned.acquired.thenAccept(lockHolders -> {
+            if (lockHolders != null) {
+                lockAcquisition.release(lockHolders, abandoned.testId);
+            }
+        });
+    }
+
+    private boolean passed(Prefetched current, TestIdentifier identifier) {
+        val position = positions.get(identifier.getUniqueId());
+        return position != null && position > current.position;
+    }
+
+    private ExecutorService executor() {
+        var result = executor;
+        if (result == null) {
+            result = Executors.newSingleThreadExecutor(runnable -> {
+                val thread = new Thread(runnable, "testsync-lock-prefetch");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor = result;
+        }
+        return result;
+    }
+
+    private static void collectTests(TestPlan plan, TestIdentifier identifier, List<TestIdentifier> tests) {
+        if (identifier.isTest()) {
+            tests.add(identifier);
+        }
+        for (val child : plan.getChildren(identifier)) {
+            collectTests(plan, child, tests);
+        }
+    }
+
+    @RequiredArgsConstructor
+    static final class Prefetched {
+
+        LockIndex.Entry entry;
+        int position;
+        String testId;
+        CompletableFuture<LockHolder[]> acquired;
+    }
+}
@@ -0,0 +1,119 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Wire format between {@link SocketLockBackend} and {@link LockServer}. Every request is a frame of
+ * {@code [int length][byte op][int requestId][byte mode][int permits][long lockId][short nameLength][name]},
+ * every response is {@code [int requestId][byte status][long lockId]}.
+ * <p>
+ * Lock and try-lock requests are answered once the lock is granted or denied, release requests are not answered.
+ */
+final class LockProtocol {
+
+    static final byte OP_LOCK = 1;
+    static final byte OP_TRY_LOCK = 2;
+    static final byte OP_RELEASE = 3;
+    static final byte STATUS_DENIED = 0;
+    static final byte STATUS_GRANTED = 1;
+    static final int RESPONSE_SIZE = 4 + 1 + 8;
+    private static final int REQUEST_HEADER_SIZE = 1 + 4 + 1 + 4 + 8 + 2;
+    private static final int MAX_NAME_LENGTH = 4096;
+
+    private LockProtocol() {
+    }
+
+    static ByteBuffer request(byte op, int requestId, LockMode mode, int permits, long lockId, String name) {
+        val nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        val buffer = ByteBuffer.allocate(4 + REQUEST_HEADER_SIZE + nameBytes.length);
+        buffer.putInt(REQUEST_HEADER_SIZE + nameBytes.length)
+            .put(op)
+            .putInt(requestId)
+            .put((byte) mode.ordinal())
+            .putInt(permits)
+            .putLong(lockId)
+            .putShort((short) nameBytes.length)
+            .put(nameBytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    static ByteBuffer response(int requestId, byte status, long lockId) {
+        val buffer = ByteBuffer.allocate(RESPONSE_SIZE);
+        buffer.putInt(requestId).put(status).putLong(lockId);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @return next request, or null if the peer closed the connection
+     */
+    @Nullable
+    static Request readRequest(SocketChannel channel) throws IOException {
+        val lengthBuffer = ByteBuffer.allocate(4);
+        if (!readFully(channel, lengthBuffer, true)) {
+            return null;
+        }
+        val length = lengthBuffer.getInt(0);
+        if (length < REQUEST_HEADER_SIZE || length > REQUEST_HEADER_SIZE + MAX_NAME_LENGTH) {
+            throw new IOException("Malformed lock request of length [" + length + "]");
+        }
+        val buffer = ByteBuffer.allocate(length);
+        readFully(channel, buffer, false);
+        buffer.flip();
+        val op = buffer.get();
+        val requestId = buffer.getInt();
+        val modeOrdinal = buffer.get();
+        val permits = buffer.getInt();
+        val lockId = buffer.getLong();
+        val nameBytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(nameBytes);
+        val modes = LockMode.values();
+        if (modeOrdinal < 0 || modeOrdinal >= modes.length) {
+            throw new IOException("Malformed lock mode [" + modeOrdinal + "]");
+        }
+        return new Request(op, requestId, modes[modeOrdinal], permits, lockId, new String(nameBytes, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return false if the peer closed the connection before the first byte
+     */
+    static boolean readFully(SocketChannel channel, ByteBuffer buffer, boolean eofAllowed) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (eofAllowed && buffer.position() == 0) {
+                    return false;
+                }
+                throw new EOFException("Connection closed in the middle of a message");
+            }
+        }
+        return true;
+    }
+
+    static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    static final class Request {
+
+        byte op;
+        int requestId;
+        LockMode mode;
+        int permits;
+        long lockId;
+        String name;
+    }
+}
@@ -0,0 +1,451 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.experimental.NonFinal;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock coordinator that test JVMs talk to through {@link SocketLockBackend}, instead of locking sync files.
+ * Requests of each tag are granted strictly in arrival order, so that no JVM can starve another one, and locks
+ * of a JVM are released as soon as its connection is closed, whether the JVM finished or crashed.
+ * <p>
+ * Runs inside the Gradle daemon, where it is loaded from the synchronizer jar in an isolated class loader,
+ * so it must not reference JUnit classes or {@link JunitSynchronizingTestListener}. Over TCP it can also run
+ * standalone, to coordinate builds that run on several hosts:
+ * <pre>
+ * java -cp synchronizer.jar com.varlanv.gradle.testsync.LockServer 7777
+ * </pre>
+ */
+public final class LockServer implements AutoCloseable {
+
+    ServerSocketChannel serverChannel;
+    @Nullable
+    Path socketPath;
+    Thread acceptThread;
+    Map<String, TagQueue> queues = new ConcurrentHashMap<>();
+    Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    AtomicLong lockIds = new AtomicLong();
+    AtomicInteger connectionCount = new AtomicInteger();
+    AtomicInteger releasedOnDisconnect = new AtomicInteger();
+    @NonFinal
+    volatile boolean closed;
+
+    private LockServer(ServerSocketChannel serverChannel, @Nullable Path socketPath) {
+        this.serverChannel = serverChannel;
+        this.socketPath = socketPath;
+        this.acceptThread = new Thread(this::acceptLoop, "testsync-lock-server");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * Runs standalone TCP server until the process is stopped.
+     *
+     * @param args port, and optionally address to bind to, all interfaces by default
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java -cp <synchronizer jar> " + LockServer.class.getName() + " <port> [bind address]");
+            System.exit(2);
+            return;
+        }
+        val port = Integer.parseInt(args[0]);
+        val server = tcp(args.length == 2 ? new InetSocketAddress(args[1], port) : new InetSocketAddress(port));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println(server.summary());
+            try {
+                server.close();
+            } catch (IOException ignored) {
+                // process is exiting anyway
+            }
+        }));
+        System.out.println("Test sync lock server is listening on " + server.address());
+        server.acceptThread.join();
+    }
+
+    /**
+     * Starts the coordinator on a Unix domain socket, called reflectively by the build service of the plugin.
+     */
+    static LockServer unix(Path socketPath) throws IOException {
+        Files.deleteIfExists(socketPath);
+        return new LockServer(UnixSockets.bind(socketPath), socketPath);
+    }
+
+    /**
+     * Starts the coordinator on a TCP socket, port 0 binds to an ephemeral port.
+     */
+    static LockServer tcp(InetSocketAddress bindAddress) throws IOException {
+        val channel = ServerSocketChannel.open();
+        try {
+            channel.bind(bindAddress);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new LockServer(channel, null);
+    }
+
+    /**
+     * @param address {@code host:port}
+     */
+    static InetSocketAddress parseAddress(String address) {
+        val separatorIdx = address.lastIndexOf(':');
+        if (separatorIdx <= 0 || separatorIdx == address.length() - 1) {
+            throw new IllegalArgumentException("Lock server address must be in format [host:port], but received [" + address + "]");
+        }
+        return new InetSocketAddress(address.substring(0, separatorIdx), Integer.parseInt(address.substring(separatorIdx + 1)));
+    }
+
+    /**
+     * @return socket path for Unix domain socket, {@code host:port} for TCP
+     */
+    String address() throws IOException {
+        if (socketPath != null) {
+            return socketPath.toString();
+        }
+        val localAddress = (InetSocketAddress) serverChannel.getLocalAddress();
+        return localAddress.getHostString() + ":" + localAddress.getPort();
+    }
+
+    /**
+     * @return one line per tag with lock metrics collected since the start
+     */
+    String summary() {
+        val sb = new StringBuilder()
+            .append("Lock coordinator served ").append(connectionCount.get()).append(" test JVMs")
+            .append(", released ").append(releasedOnDisconnect.get()).append(" locks of disconnected JVMs");
+        for (val queue : new TreeMap<>(queues).values()) {
+            sb.append(System.lineSeparator()).append(queue.summary());
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            serverChannel.close();
+        } finally {
+            for (val connection : connections) {
+                connection.close();
+            }
+            if (socketPath != null) {
+                Files.deleteIfExists(socketPath);
+            }
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            final SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                if (closed) {
+                    return;
+                }
+                continue;
+            }
+            if (socketPath == null) {
+                try {
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                } catch (IOException ignored) {
+                    // only affects latency
+                }
+            }
+            val connection = new Connection(channel, connectionCount.incrementAndGet());
+            connections.add(connection);
+            val thread = new Thread(connection, "testsync-lock-server-connection-" + connection.id);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private TagQueue queue(String name, int permits) {
+        return queues.computeIfAbsent(name, key -> new TagQueue(key, permits));
+    }
+
+    private void grant(List<Waiter> granted) {
+        for (val waiter : granted) {
+            waiter.connection.respond(waiter.requestId, LockProtocol.STATUS_GRANTED, waiter.lockId);
+        }
+    }
+
+    final class Connection implements Runnable {
+
+        SocketChannel channel;
+        int id;
+        @NonFinal
+        volatile boolean disconnected;
+
+        Connection(SocketChannel channel, int id) {
+            this.channel = channel;
+            this.id = id;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    val request = LockProtocol.readRequest(channel);
+                    if (request == null) {
+                        return;
+                    }
+                    handle(request);
+                }
+            } catch (IOException ignored) {
+                // connection is gone, which is how JVMs that exit or crash are noticed
+            } finally {
+                disconnect();
+            }
+        }
+
+        private void handle(LockProtocol.Request request) throws IOException {
+            val queue = queue(request.name(), request.permits());
+            switch (request.op()) {
+                case LockProtocol.OP_LOCK:
+                    grant(queue.enqueue(new Waiter(this, request.requestId(), request.mode())));
+                    break;
+                case LockProtocol.OP_TRY_LOCK:
+                    val lockId = queue.tryGrant(this, request.mode());
+                    respond(request.requestId(), lockId == 0L ? LockProtocol.STATUS_DENIED : LockProtocol.STATUS_GRANTED, lockId);
+                    break;
+                case LockProtocol.OP_RELEASE:
+                    grant(queue.release(this, request.lockId()));
+                    break;
+                default:
+                    throw new IOException("Unknown lock request [" + request.op() + "]");
+            }
+        }
+
+        void respond(int requestId, byte status, long lockId) {
+            try {
+                synchronized (this) {
+                    LockProtocol.writeFully(channel, LockProtocol.response(requestId, status, lockId));
+                }
+            } catch (IOException e) {
+                // reader thread of this connection notices the failure and releases the locks
+                close();
+            }
+        }
+
+        /**
+         * Flag is set before the queues are cleaned up, so that a lock is either granted before the cleanup
+         * and released by it, or not granted at all.
+         */
+        private void disconnect() {
+            disconnected = true;
+            connections.remove(this);
+            for (val queue : queues.values()) {
+                grant(queue.disconnect(this));
+            }
+            close();
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // already closed
+            }
+        }
+    }
+
+    static final class Waiter {
+
+        Connection connection;
+        int requestId;
+        LockMode mode;
+        long enqueuedNanos = System.nanoTime();
+        @NonFinal
+        long lockId;
+
+        Waiter(Connection connection, int requestId, LockMode mode) {
+            this.connection = connection;
+            this.requestId = requestId;
+            this.mode = mode;
+        }
+    }
+
+    /**
+     * Holders and FIFO queue of a single tag. {@link LockMode#PERMIT} holders of all JVMs share {@link #permits},
+     * {@link LockMode#SHARED} holders exclude permit holders, {@link LockMode#EXCLUSIVE} holder excludes everyone.
+     */
+    final class TagQueue {
+
+        String name;
+        int permits;
+        ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+        Map<Long, Waiter> holders = new HashMap<>();
+        @NonFinal
+        int permitHolders;
+        @NonFinal
+        int sharedHolders;
+        @NonFinal
+        boolean exclusiveHeld;
+        @NonFinal
+        long grants;
+        @NonFinal
+        long queued;
+        @NonFinal
+        long totalWaitNanos;
+        @NonFinal
+        long maxWaitNanos;
+        @NonFinal
+        int maxQueueDepth;
+
+        TagQueue(String name, int permits) {
+            this.name = name;
+            this.permits = permits;
+        }
+
+        synchronized List<Waiter> enqueue(Waiter waiter) {
+            waiters.addLast(waiter);
+            val granted = drain();
+            if (!granted.contains(waiter)) {
+                queued++;
+                maxQueueDepth = Math.max(maxQueueDepth, waiters.size());
+            }
+            return granted;
+        }
+
+        /**
+         * Does not overtake queued waiters, even if the lock is compatible with current holders.
+         *
+         * @return id of the granted lock, 0 if it was not granted
+         */
+        synchronized long tryGrant(Connection connection, LockMode mode) {
+            if (!waiters.isEmpty() || !compatible(mode)) {
+                return 0L;
+            }
+            val waiter = new Waiter(connection, 0, mode);
+            hold(waiter);
+            return waiter.lockId;
+        }
+
+        synchronized List<Waiter> release(Connection connection, long lockId) {
+            val waiter = holders.get(lockId);
+            if (waiter == null || waiter.connection != connection) {
+                return new ArrayList<>(0);
+            }
+            unhold(lockId);
+            return drain();
+        }
+
+        synchronized List<Waiter> disconnect(Connection connection) {
+            waiters.removeIf(waiter -> waiter.connection == connection);
+            val it = holders.entrySet().iterator();
+            while (it.hasNext()) {
+                val holder = it.next();
+                if (holder.getValue().connection == connection) {
+                    release(holder.getValue().mode);
+                    it.remove();
+                    releasedOnDisconnect.incrementAndGet();
+                }
+            }
+            return drain();
+        }
+
+        private List<Waiter> drain() {
+            val granted = new ArrayList<Waiter>(1);
+            for (Iterator<Waiter> it = waiters.iterator(); it.hasNext(); ) {
+                val waiter = it.next();
+                if (waiter.connection.disconnected) {
+                    it.remove();
+                    continue;
+                }
+                if (!compatible(waiter.mode)) {
+                    break;
+                }
+                it.remove();
+                hold(waiter);
+                val waitNanos = System.nanoTime() - waiter.enqueuedNanos;
+                totalWaitNanos += waitNanos;
+                maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+                granted.add(waiter);
+            }
+            return granted;
+        }
+
+        private boolean compatible(LockMode mode) {
+            switch (mode) {
+                case EXCLUSIVE:
+                    return !exclusiveHeld && sharedHolders == 0 && permitHolders == 0;
+                case SHARED:
+                    return !exclusiveHeld && permitHolders == 0;
+                default:
+                    return !exclusiveHeld && sharedHolders == 0 && permitHolders < permits;
+            }
+        }
+
+        private void hold(Waiter waiter) {
+            waiter.lockId = lockIds.incrementAndGet();
+            holders.put(waiter.lockId, waiter);
+            grants++;
+            switch (waiter.mode) {
+                case EXCLUSIVE:
+                    exclusiveHeld = true;
+                    break;
+                case SHARED:
+                    sharedHolders++;
+                    break;
+                default:
+                    permitHolders++;
+            }
+        }
+
+        private void unhold(long lockId) {
+            val waiter = holders.remove(lockId);
+            if (waiter != null) {
+                release(waiter.mode);
+            }
+        }
+
+        private void release(LockMode mode) {
+            switch (mode) {
+                case EXCLUSIVE:
+                    exclusiveHeld = false;
+                    break;
+                case SHARED:
+                    sharedHolders--;
+                    break;
+                default:
+                    permitHolders--;
+            }
+        }
+
+        synchronized String summary() {
+            return "  [" + name + "] " + grants + " grants, " + queued + " queued"
+                + ", avg wait " + millis(queued == 0 ? 0 : totalWaitNanos / queued) + " ms"
+                + ", max wait " + millis(maxWaitNanos) + " ms"
+                + ", max queue " + maxQueueDepth;
+        }
+
+        private String millis(long nanos) {
+            return String.format("%.2f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.varlanv.gradle.testsync.JunitSynchronizingTestListener.printErr;
+
+/**
+ * Lock events of the JVM, recorded into a fixed-size ring buffer in memory-mapped {@code trace_<pid>} file
+ * of the sync folder. Recording an event does not allocate and does not do any I/O besides writing to the mapping,
+ * and since the mapping is backed by the page cache, recorded events survive a crash of the JVM.
+ * <p>
+ * File layout, all numbers are big-endian:
+ * <pre>
+ * header, {@link Constants#TRACE_HEADER_SIZE} bytes:
+ *   0  int  magic
+ *   4  int  version
+ *   8  long pid
+ *   16 long wall clock millis at start
+ *   24 long nanoTime at start
+ *   32 int  capacity, in records
+ *   36 int  number of tags
+ *   40 long number of recorded events
+ *   48 module, then tags, each as unsigned short length followed by UTF-8 bytes
+ * records, {@link Constants#TRACE_RECORD_SIZE} bytes each:
+ *   0  long sequence number + 1, written last, 0 for an empty record
+ *   8  long nanoTime
+ *   16 int  pid
+ *   20 int  event
+ *   24 int  tag index
+ *   28 int  hash of test unique id
+ * names, {@link Constants#TRACE_NAMES_SIZE} bytes, entries one after another:
+ *   0  int  length of the unique id in bytes, written last, 0 where the entries end
+ *   4  int  hash of test unique id
+ *   8  unique id of the test, UTF-8 bytes
+ * </pre>
+ * Unique id of a test is written to the names area when the test requests its locks, so that events of a JVM that
+ * crashed can still be resolved back to its tests. Once the names area is full, events of further tests stay unnamed.
+ */
+final class LockTrace {
+
+    private static final int EVENT_COUNT_OFFSET = 40;
+    private static final int TAGS_OFFSET = 48;
+    private static final int NAME_HEADER_SIZE = 8;
+    private static final LockTrace DISABLED = new LockTrace(null, 0, 0);
+
+    @Nullable
+    MappedByteBuffer buffer;
+    int pid;
+    int capacity;
+    int namesOffset;
+    AtomicLong sequence = new AtomicLong();
+    /**
+     * Offset of the next entry within the names area.
+     */
+    AtomicInteger namesEnd = new AtomicInteger();
+    AtomicBoolean namesFull = new AtomicBoolean();
+
+    private LockTrace(@Nullable MappedByteBuffer buffer, int pid, int capacity) {
+        this.buffer = buffer;
+        this.pid = pid;
+        this.capacity = capacity;
+        this.namesOffset = Constants.TRACE_HEADER_SIZE + capacity * Constants.TRACE_RECORD_SIZE;
+    }
+
+    static LockTrace disabled() {
+        return DISABLED;
+    }
+
+    static LockTrace create(Path syncFolderPath, long pid, String module, SyncTag[] tags) {
+        val path = syncFolderPath.resolve(Constants.TRACE_FILE_PREFIX + pid);
+        val capacity = Constants.TRACE_CAPACITY;
+        val size = Constants.TRACE_HEADER_SIZE + (long) capacity * Constants.TRACE_RECORD_SIZE + Constants.TRACE_NAMES_SIZE;
+        try (val channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // mapping stays valid after the channel is closed
+            val buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(0, Constants.TRACE_MAGIC);
+            buffer.putInt(4, Constants.TRACE_VERSION);
+            buffer.putLong(8, pid);
+            buffer.putLong(16, System.currentTimeMillis());
+            buffer.putLong(24, System.nanoTime());
+            buffer.putInt(32, capacity);
+            buffer.putInt(36, writeTags(buffer, module, tags));
+            buffer.putLong(EVENT_COUNT_OFFSET, 0L);
+            return new LockTrace(buffer, (int) pid, capacity);
+        } catch (Exception e) {
+            printErr("Lock tracing will be disabled because trace file [" + path + "] could not be mapped - " + e.getMessage());
+            return DISABLED;
+        }
+    }
+
+    private static int writeTags(MappedByteBuffer buffer, String module, SyncTag[] tags) {
+        var offset = writeString(buffer, TAGS_OFFSET, module);
+        var count = 0;
+        for (val tag : tags) {
+            val next = writeString(buffer, offset, tag.testTag().getName());
+            if (next < 0) {
+                printErr("Not all tags fit into trace file header, events of remaining tags will not be named");
+                break;
+            }
+            offset = next;
+            count++;
+        }
+        return count;
+    }
+
+    private static int writeString(MappedByteBuffer buffer, int offset, String value) {
+        val bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (offset < 0 || offset + 2 + bytes.length > Constants.TRACE_HEADER_SIZE) {
+            return -1;
+        }
+        buffer.putShort(offset, (short) bytes.length);
+        for (var i = 0; i < bytes.length; i++) {
+            buffer.put(offset + 2 + i, bytes[i]);
+        }
+        return offset + 2 + bytes.length;
+    }
+
+    boolean enabled() {
+        return buffer != null;
+    }
+
+    /**
+     * Writes unique id of the test into the names area, so that its hash in the recorded events can be resolved back
+     * to the test. Like recording of events, writing the name does not allocate.
+     */
+    void testStarted(String testId) {
+        val buf = buffer;
+        if (buf == null || namesFull.get()) {
+            return;
+        }
+        val length = utf8Length(testId);
+        val entryOffset = namesEnd.getAndAdd(NAME_HEADER_SIZE + length);
+        if (entryOffset < 0 || entryOffset + NAME_HEADER_SIZE + length > Constants.TRACE_NAMES_SIZE) {
+            if (namesFull.compareAndSet(false, true)) {
+                printErr("Names area of lock trace is full, events of further tests will not be named");
+            }
+            return;
+        }
+        val offset = namesOffset + entryOffset;
+        buf.putInt(offset + 4, testId.hashCode());
+        writeUtf8(buf, offset + NAME_HEADER_SIZE, testId);
+        buf.putInt(offset, length);
+    }
+
+    private static int utf8Length(String value) {
+        var length = 0;
+        for (var i = 0; i < value.length(); i++) {
+            val c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static void writeUtf8(MappedByteBuffer buffer, int offset, String value) {
+        var position = offset;
+        for (var i = 0; i < value.length(); i++) {
+            var c = (int) value.charAt(i);
+            if (c < 0x80) {
+                buffer.put(position++, (byte) c);
+            } else if (c < 0x800) {
+                buffer.put(position++, (byte) (0xC0 | c >> 6));
+                buffer.put(position++, (byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate((char) c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                c = Character.toCodePoint((char) c, value.charAt(++i));
+                buffer.put(position++, (byte) (0xF0 | c >> 18));
+                buffer.put(position++, (byte) (0x80 | c >> 12 & 0x3F));
+                buffer.put(position++, (byte) (0x80 | c >> 6 & 0x3F));
+                buffer.put(position++, (byte) (0x80 | c & 0x3F));
+            } else {
+                buffer.put(position++, (byte) (0xE0 | c >> 12));
+                buffer.put(position++, (byte) (0x80 | c >> 6 & 0x3F));
+                buffer.put(position++, (byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    void requested(int tagIndex, String testId) {
+        record(Constants.TRACE_EVENT_REQUESTED, tagIndex, testId);
+    }
+
+    void acquired(int tagIndex, String testId) {
+        record(Constants.TRACE_EVENT_ACQUIRED, tagIndex, testId);
+    }
+
+    void released(int tagIndex, String testId) {
+        record(Constants.TRACE_EVENT_RELEASED, tagIndex, testId);
+    }
+
+    private void record(int event, int tagIndex, String testId) {
+        val buf = buffer;
+        if (buf == null) {
+            return;
+        }
+        val seq = sequence.getAndIncrement();
+        val offset = Constants.TRACE_HEADER_SIZE + (int) (seq % capacity) * Constants.TRACE_RECORD_SIZE;
+        buf.putLong(offset, 0L);
+        buf.putLong(offset + 8, System.nanoTime());
+        buf.putInt(offset + 16, pid);
+        buf.putInt(offset + 20, event);
+        buf.putInt(offset + 24, tagIndex);
+        buf.putInt(offset + 28, testId.hashCode());
+        buf.putLong(offset, seq + 1);
+        buf.putLong(EVENT_COUNT_OFFSET, seq + 1);
+    }
+}
@@ -0,0 +1,40 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.val;
+import org.junit.jupiter.api.extension.BeforeAllCallback;
+import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.opentest4j.TestAbortedException;
+
+/**
+ * Fails or skips tests whose wait for a tag timed out, see {@link LockWaitTimeouts}. Found by Jupiter extension
+ * auto-detection, if the test task enables it, or registered explicitly with
+ * {@code @ExtendWith(LockWaitTimeoutExtension.class)}. Tests of containers that the extension did not run for keep
+ * waiting for the tag after the maximum wait, so that they never run without it.
+ * Timeout of a container, such as a class that holds the tag with class scope, applies to all of its tests.
+ */
+public final class LockWaitTimeoutExtension implements BeforeAllCallback, BeforeEachCallback {
+
+    @Override
+    public void beforeAll(ExtensionContext context) {
+        LockWaitTimeouts.enforcedIn(context.getUniqueId());
+        check(context);
+    }
+
+    @Override
+    public void beforeEach(ExtensionContext context) {
+        check(context);
+    }
+
+    private static void check(ExtensionContext context) {
+        for (ExtensionContext current = context; current != null; current = current.getParent().orElse(null)) {
+            val timeout = LockWaitTimeouts.find(current.getUniqueId());
+            if (timeout != null) {
+                if (timeout.skip()) {
+                    throw new TestAbortedException(timeout.message());
+                }
+                throw new IllegalStateException(timeout.message());
+            }
+        }
+    }
+}
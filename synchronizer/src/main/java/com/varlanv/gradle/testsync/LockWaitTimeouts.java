@@ -0,0 +1,125 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+import org.junit.platform.launcher.TestPlan;
+
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tests and containers that gave up waiting for a tag after {@link SyncTag#maxWaitMillis()}, by unique id.
+ * A {@link org.junit.platform.launcher.TestExecutionListener} can not fail or skip a test, so the listener records
+ * the timeout here, and {@link LockWaitTimeoutExtension} fails or skips the test before its body runs.
+ * <p>
+ * A test only gives up waiting when the extension is known to be active for it, either because Jupiter extension
+ * auto-detection is enabled, or because the extension already ran for one of the containers of the test. Otherwise
+ * the test would run without the tag, so it reports the holders and keeps waiting instead.
+ */
+final class LockWaitTimeouts {
+
+    private static final ConcurrentMap<String, Timeout> TIMEOUTS = new ConcurrentHashMap<>();
+    private static final Set<String> ENFORCING_CONTAINERS = ConcurrentHashMap.newKeySet();
+    private static final AtomicBoolean AUTODETECTED = new AtomicBoolean();
+
+    private LockWaitTimeouts() {
+    }
+
+    static void planStarted(TestPlan plan) {
+        try {
+            val parameters = plan.getConfigurationParameters();
+            if (parameters.getBoolean(Constants.JUPITER_EXTENSIONS_AUTODETECTION_PROPERTY).orElse(false)
+                && parameters.get(Constants.JUPITER_EXTENSIONS_AUTODETECTION_INCLUDE_PROPERTY).map(LockWaitTimeouts::matchesExtension).orElse(true)
+                && !parameters.get(Constants.JUPITER_EXTENSIONS_AUTODETECTION_EXCLUDE_PROPERTY).map(LockWaitTimeouts::matchesExtension).orElse(false)) {
+                AUTODETECTED.set(true);
+            }
+        } catch (NoSuchMethodError e) {
+            // JUnit Platform older than 1.8, rely on the extension to announce itself
+        }
+    }
+
+    /**
+     * @param patterns comma-separated class name patterns of Jupiter configuration, where {@code *} matches any sequence
+     */
+    static boolean matchesExtension(String patterns) {
+        for (val pattern : patterns.split(",")) {
+            val parts = pattern.trim().split("\\*", -1);
+            val regex = new StringBuilder();
+            for (var i = 0; i < parts.length; i++) {
+                if (i > 0) {
+                    regex.append(".*");
+                }
+                if (!parts[i].isEmpty()) {
+                    regex.append(Pattern.quote(parts[i]));
+                }
+            }
+            if (Pattern.matches(regex.toString(), Constants.LOCK_WAIT_TIMEOUT_EXTENSION)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called by {@link LockWaitTimeoutExtension} for every container it runs for.
+     */
+    static void enforcedIn(String containerId) {
+        ENFORCING_CONTAINERS.add(containerId);
+    }
+
+    /**
+     * @return true if {@link LockWaitTimeoutExtension} will fail or skip the test, if it gives up waiting
+     */
+    static boolean isEnforced(String testId) {
+        if (AUTODETECTED.get()) {
+            return true;
+        }
+        for (val containerId : ENFORCING_CONTAINERS) {
+            if (testId.startsWith(containerId) && testId.length() > containerId.length() && testId.charAt(containerId.length()) == '/') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static void timedOut(String testId, String message, boolean skip) {
+        TIMEOUTS.put(testId, new Timeout(message, skip));
+    }
+
+    static boolean isTimedOut(String testId) {
+        return !TIMEOUTS.isEmpty() && TIMEOUTS.containsKey(testId);
+    }
+
+    @Nullable
+    static Timeout find(String testId) {
+        return TIMEOUTS.isEmpty() ? null : TIMEOUTS.get(testId);
+    }
+
+    static void finished(String testId) {
+        if (!TIMEOUTS.isEmpty()) {
+            TIMEOUTS.remove(testId);
+        }
+    }
+
+    /**
+     * Forgets the state of a test plan, used by tests that run in the same JVM.
+     */
+    static void reset() {
+        TIMEOUTS.clear();
+        ENFORCING_CONTAINERS.clear();
+        AUTODETECTED.set(false);
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    static final class Timeout {
+
+        String message;
+        boolean skip;
+    }
+}
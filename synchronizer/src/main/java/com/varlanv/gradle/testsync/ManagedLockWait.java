@@ -0,0 +1,74 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.NonFinal;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Blocking acquisition of a {@link SyncTag} that lets {@link ForkJoinPool} compensate for the waiting worker.
+ * JUnit Jupiter runs tests in parallel on a fork-join pool, and a worker that waits for a tag held by another JVM
+ * would otherwise be lost to the pool, so a few tests queued on one tag could stall all other tests of the JVM.
+ * Through {@link ForkJoinPool#managedBlock(ForkJoinPool.ManagedBlocker)} the pool starts a spare worker while this
+ * one is blocked, within the limits that the pool was configured with.
+ */
+@RequiredArgsConstructor
+final class ManagedLockWait implements ForkJoinPool.ManagedBlocker {
+
+    SyncTag syncTag;
+    LockMode mode;
+    int priority;
+    /**
+     * Maximum wait in nanoseconds, 0 to wait without a limit.
+     */
+    long timeoutNanos;
+    @NonFinal
+    @Nullable
+    LockHolder lockHolder;
+    @NonFinal
+    boolean done;
+
+    /**
+     * @return holder of the lock, or null if it was not acquired in time or failed to be acquired
+     */
+    @Nullable
+    static LockHolder acquire(SyncTag syncTag, LockMode mode, int priority, long timeoutNanos) {
+        if (!(Thread.currentThread() instanceof ForkJoinWorkerThread)) {
+            return acquireBlocking(syncTag, mode, priority, timeoutNanos);
+        }
+        val wait = new ManagedLockWait(syncTag, mode, priority, timeoutNanos);
+        try {
+            ForkJoinPool.managedBlock(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return wait.lockHolder;
+    }
+
+    @Nullable
+    private static LockHolder acquireBlocking(SyncTag syncTag, LockMode mode, int priority, long timeoutNanos) {
+        return timeoutNanos > 0 ? syncTag.acquire(mode, priority, timeoutNanos) : syncTag.acquire(mode, priority);
+    }
+
+    /**
+     * Tries the tag without blocking first, so that uncontended acquisition does not make the pool start a worker.
+     */
+    @Override
+    public boolean isReleasable() {
+        if (!done) {
+            lockHolder = syncTag.tryAcquire(mode);
+            done = lockHolder != null;
+        }
+        return done;
+    }
+
+    @Override
+    public boolean block() {
+        lockHolder = acquireBlocking(syncTag, mode, priority, timeoutNanos);
+        done = true;
+        return true;
+    }
+}
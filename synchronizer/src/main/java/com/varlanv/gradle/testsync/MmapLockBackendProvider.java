@@ -0,0 +1,26 @@
+package com.varlanv.gradle.testsync;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+
+/**
+ * Provider of {@code MmapLockBackend}, which is compiled separately because it needs Java 9 {@code VarHandle},
+ * and is therefore loaded reflectively.
+ */
+public final class MmapLockBackendProvider implements LockBackendProvider {
+
+    private static final String IMPLEMENTATION = "com.varlanv.gradle.testsync.MmapLockBackend";
+
+    @Override
+    public String name() {
+        return Constants.BACKEND_MMAP;
+    }
+
+    @Override
+    public LockBackend create(Path syncFolderPath, @Nullable String address) throws Exception {
+        return (LockBackend) Class.forName(IMPLEMENTATION)
+            .getDeclaredConstructor(Path.class)
+            .newInstance(syncFolderPath);
+    }
+}
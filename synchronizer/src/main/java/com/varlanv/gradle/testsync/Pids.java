@@ -0,0 +1,33 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.val;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Process id helpers, compatible with Java 8 where {@code ProcessHandle} is not available.
+ */
+final class Pids {
+
+    private static final long CURRENT = resolveCurrent();
+
+    private Pids() {
+    }
+
+    /**
+     * @return id of the current process, or -1 if it could not be resolved
+     */
+    static long current() {
+        return CURRENT;
+    }
+
+    private static long resolveCurrent() {
+        val runtimeName = ManagementFactory.getRuntimeMXBean().getName();
+        val separatorIdx = runtimeName.indexOf('@');
+        try {
+            return Long.parseLong(separatorIdx > 0 ? runtimeName.substring(0, separatorIdx) : runtimeName);
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+}
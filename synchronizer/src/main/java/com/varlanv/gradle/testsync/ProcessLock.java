@@ -0,0 +1,70 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.channels.FileLockInterruptionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Tier of a {@link SyncTag} that coordinates test JVMs. It is only called by threads that already passed the in-JVM
+ * tier, so at most {@link LockBackend.Tag#permits()} {@link LockMode#PERMIT} holders of the JVM, each with a distinct slot,
+ * a single {@link LockMode#SHARED} group leader or a single {@link LockMode#EXCLUSIVE} holder use it at a time.
+ * <p>
+ * Permit holders of different JVMs can hold the lock together, up to {@link LockBackend.Tag#permits()} of them. Shared holders
+ * of different JVMs can hold the lock together, but not with permit holders. Exclusive holder excludes everyone.
+ */
+public interface ProcessLock {
+
+    /**
+     * Blocks until the lock is granted.
+     *
+     * @param slot slot claimed in the JVM by {@link LockMode#PERMIT} holder, -1 for other modes
+     * @return lock to pass to {@link #release(Object)}
+     */
+    Object lock(LockMode mode, int slot) throws IOException;
+
+    /**
+     * Same as {@link #lock(LockMode, int)}, but returns null instead of waiting when the lock is not available right away.
+     */
+    @Nullable
+    Object tryLock(LockMode mode, int slot) throws IOException;
+
+    /**
+     * Same as {@link #lock(LockMode, int)}, but gives up after the timeout, used for tags with maximum wait.
+     * Default implementation polls {@link #tryLock(LockMode, int)} with exponential backoff, backends that can wait
+     * with a timeout natively should override it.
+     *
+     * @return lock to pass to {@link #release(Object)}, or null if it was not granted in time
+     */
+    @Nullable
+    default Object lock(LockMode mode, int slot, long timeoutNanos) throws IOException {
+        val deadline = System.nanoTime() + timeoutNanos;
+        for (var pauseMillis = 1L; ; pauseMillis = Math.min(pauseMillis * 2, 64L)) {
+            val lock = tryLock(mode, slot);
+            if (lock != null) {
+                return lock;
+            }
+            val remainingNanos = deadline - System.nanoTime();
+            if (remainingNanos <= 0) {
+                return null;
+            }
+            LockSupport.parkNanos(Math.min(remainingNanos, TimeUnit.MILLISECONDS.toNanos(pauseMillis)));
+            if (Thread.currentThread().isInterrupted()) {
+                throw new FileLockInterruptionException();
+            }
+        }
+    }
+
+    void release(Object lock) throws IOException;
+
+    /**
+     * @return true if {@link LockMode#PERMIT} holders of different JVMs exclude each other by slot, so that a waiter
+     * takes whichever slot frees up first, false if the backend counts permits on its own and ignores the slot
+     */
+    default boolean slotted() {
+        return false;
+    }
+}
@@ -0,0 +1,208 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.NonFinal;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileLockInterruptionException;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link LockBackend} that asks a {@link LockServer} for locks, instead of locking sync files. The JVM keeps a single
+ * connection to the server, requests of all threads are multiplexed over it by request id, and a reader thread hands
+ * responses over to the waiting threads. Closing the connection, including by the OS when the JVM dies,
+ * releases all locks of the JVM on the server.
+ * <p>
+ * Tags are identified on the server by tag name, so that JVMs agree on a tag regardless of their sync file paths.
+ */
+final class SocketLockBackend implements LockBackend, Closeable {
+
+    SocketChannel channel;
+    ConcurrentMap<Integer, CompletableFuture<Long>> pending = new ConcurrentHashMap<>();
+    AtomicInteger requestIds = new AtomicInteger();
+    @NonFinal
+    @Nullable
+    volatile IOException failure;
+
+    SocketLockBackend(SocketChannel channel) {
+        this.channel = channel;
+        val readerThread = new Thread(this::readLoop, "testsync-lock-client");
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    static SocketLockBackend unix(Path socketPath) throws IOException {
+        return new SocketLockBackend(UnixSockets.connect(socketPath));
+    }
+
+    /**
+     * @param address {@code host:port} of the server
+     */
+    static SocketLockBackend tcp(String address) throws IOException {
+        val channel = SocketChannel.open();
+        try {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.connect(LockServer.parseAddress(address));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new SocketLockBackend(channel);
+    }
+
+    @Override
+    public ProcessLock processLock(Tag tag) {
+        return new TagLock(tag.name(), tag.permits());
+    }
+
+    /**
+     * Closes the connection, which releases all locks of this JVM on the server.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void readLoop() {
+        val buffer = ByteBuffer.allocate(LockProtocol.RESPONSE_SIZE);
+        try {
+            while (true) {
+                buffer.clear();
+                if (!LockProtocol.readFully(channel, buffer, true)) {
+                    throw new IOException("Lock coordinator closed the connection");
+                }
+                val future = pending.remove(buffer.getInt(0));
+                if (future != null) {
+                    future.complete(buffer.get(4) == LockProtocol.STATUS_GRANTED ? buffer.getLong(5) : 0L);
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+            for (val future : pending.values()) {
+                future.completeExceptionally(e);
+            }
+            pending.clear();
+        }
+    }
+
+    /**
+     * @return id of the granted lock, 0 if it was not granted
+     */
+    private long request(byte op, LockMode mode, int permits, String name) throws IOException {
+        return request(op, mode, permits, name, -1L);
+    }
+
+    /**
+     * @param timeoutNanos time to wait for the response, negative to wait without a limit
+     * @return id of the granted lock, 0 if it was not granted or not granted in time
+     */
+    private long request(byte op, LockMode mode, int permits, String name, long timeoutNanos) throws IOException {
+        val requestId = requestIds.incrementAndGet();
+        val future = new CompletableFuture<Long>();
+        pending.put(requestId, future);
+        val currentFailure = failure;
+        if (currentFailure != null) {
+            pending.remove(requestId);
+            throw currentFailure;
+        }
+        try {
+            send(LockProtocol.request(op, requestId, mode, permits, 0L, name));
+        } catch (IOException e) {
+            pending.remove(requestId);
+            throw e;
+        }
+        try {
+            return timeoutNanos < 0 ? future.get() : future.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            giveBackWhenGranted(future, mode, permits, name);
+            return 0L;
+        } catch (InterruptedException e) {
+            giveBackWhenGranted(future, mode, permits, name);
+            Thread.currentThread().interrupt();
+            throw new FileLockInterruptionException();
+        } catch (ExecutionException e) {
+            val cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    /**
+     * The request stays queued on the server after the caller stopped waiting, so the lock may still be granted later,
+     * in which case it is given back right away.
+     */
+    private void giveBackWhenGranted(CompletableFuture<Long> future, LockMode mode, int permits, String name) {
+        future.thenAccept(lockId -> {
+            if (lockId != 0L) {
+                releaseQuietly(mode, permits, name, lockId);
+            }
+        });
+    }
+
+    private void release(LockMode mode, int permits, String name, long lockId) throws IOException {
+        send(LockProtocol.request(LockProtocol.OP_RELEASE, 0, mode, permits, lockId, name));
+    }
+
+    private void releaseQuietly(LockMode mode, int permits, String name, long lockId) {
+        try {
+            release(mode, permits, name, lockId);
+        } catch (IOException ignored) {
+            // connection is gone, so the server has already released the lock
+        }
+    }
+
+    private void send(ByteBuffer buffer) throws IOException {
+        synchronized (this) {
+            LockProtocol.writeFully(channel, buffer);
+        }
+    }
+
+    @RequiredArgsConstructor
+    final class TagLock implements ProcessLock {
+
+        String name;
+        int permits;
+
+        @Override
+        public Object lock(LockMode mode, int slot) throws IOException {
+            return new Grant(mode, request(LockProtocol.OP_LOCK, mode, permits, name));
+        }
+
+        @Override
+        public @Nullable Object tryLock(LockMode mode, int slot) throws IOException {
+            val lockId = request(LockProtocol.OP_TRY_LOCK, mode, permits, name);
+            return lockId == 0L ? null : new Grant(mode, lockId);
+        }
+
+        @Override
+        public @Nullable Object lock(LockMode mode, int slot, long timeoutNanos) throws IOException {
+            val lockId = request(LockProtocol.OP_LOCK, mode, permits, name, timeoutNanos);
+            return lockId == 0L ? null : new Grant(mode, lockId);
+        }
+
+        @Override
+        public void release(Object lock) throws IOException {
+            val grant = (Grant) lock;
+            SocketLockBackend.this.release(grant.mode, permits, name, grant.lockId);
+        }
+    }
+
+    @RequiredArgsConstructor
+    static final class Grant {
+
+        LockMode mode;
+        long lockId;
+    }
+}
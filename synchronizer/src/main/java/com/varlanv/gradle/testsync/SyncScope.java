@@ -0,0 +1,39 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.val;
+import org.junit.platform.engine.support.descriptor.ClassSource;
+import org.junit.platform.engine.support.descriptor.MethodSource;
+import org.junit.platform.launcher.TestIdentifier;
+
+/**
+ * Granularity at which a sync tag is held. A container that holds a tag also holds the tags that come before it in
+ * the canonical order and are required by its tests, whatever their scope, see {@link LockIndex}.
+ */
+enum SyncScope {
+
+    /**
+     * Lock is taken when a test starts and released when it finishes.
+     */
+    TEST,
+    /**
+     * Lock is taken when a test class starts and released when it finishes, so that class-level setup and teardown
+     * run under the lock, and tests of the class do not hand the lock over to each other.
+     */
+    CLASS,
+    /**
+     * Lock is taken when a test template (repeated test, parameterized test, test factory) starts and released when
+     * it finishes.
+     */
+    TEMPLATE;
+
+    /**
+     * @return true if the lock of this scope should be taken when given container starts
+     */
+    boolean isScopeContainer(TestIdentifier testIdentifier) {
+        if (this == TEST || !testIdentifier.isContainer()) {
+            return false;
+        }
+        val source = testIdentifier.getSource().orElse(null);
+        return this == CLASS ? source instanceof ClassSource : source instanceof MethodSource;
+    }
+}
@@ -0,0 +1,763 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.experimental.NonFinal;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+import org.junit.platform.engine.TestTag;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.FileLockInterruptionException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.varlanv.gradle.testsync.JunitSynchronizingTestListener.printErr;
+import static com.varlanv.gradle.testsync.JunitSynchronizingTestListener.printReport;
+
+/**
+ * Two-tier lock of a single sync tag: threads of the same JVM coordinate in memory first,
+ * and only then take the OS file lock that coordinates JVMs.
+ */
+@Getter
+final class SyncTag implements LockBackend.Tag {
+
+    /**
+     * Deadline of acquisitions that wait without a limit.
+     */
+    static final long NO_DEADLINE = Long.MIN_VALUE;
+    private static final long MAX_SLOT_PAUSE_MILLIS = 64L;
+
+    String fileName;
+    TestTag testTag;
+    /**
+     * Opened on first use, so that test JVMs do not open sync files of tags that their tests do not use.
+     */
+    @NonFinal
+    @Nullable
+    volatile FileChannel syncFileChannel;
+    /**
+     * Number of tests that can hold this tag at the same time across all test JVMs, see {@link ProcessLock}
+     * for how they are coordinated between JVMs.
+     */
+    int permits;
+    /**
+     * Whether JUnit Jupiter {@code @ResourceLock} annotations with resource name equal to this tag should be synchronized.
+     */
+    boolean resourceLock;
+    /**
+     * Granularity at which tests of this JVM hold the tag.
+     */
+    SyncScope scope;
+    /**
+     * Address of the lock coordinator, passed to {@link LockBackend#create} for backends that do not lock sync files.
+     */
+    @Nullable
+    String coordinator;
+    /**
+     * Longest time in milliseconds a test may hold the tag before {@link Leases} revoke its lock, 0 for no limit.
+     */
+    long leaseMillis;
+    /**
+     * Longest time in milliseconds a test may wait for the tag, 0 for no limit, see {@link LockWaitTimeouts}.
+     */
+    long maxWaitMillis;
+    boolean skipOnMaxWait;
+    boolean dumpHolderStack;
+    /**
+     * Whether JVMs take turns for the file lock in {@link TicketQueue} order, instead of the order chosen by the OS.
+     */
+    boolean fifo;
+    /**
+     * Whether tests tagged with this tag join the {@link LockMode#SHARED} group of their JVM, which holds the process
+     * lock exclusively, so that tests of the same JVM run together, while JVMs hold the tag one at a time.
+     */
+    boolean sharedWithinJvm;
+    /**
+     * Opened on first use of the process lock if {@link #fifo} or {@link #coalescing} is enabled and the tag is locked
+     * with {@link FileProcessLock}.
+     */
+    @NonFinal
+    @Nullable
+    volatile TicketQueue ticketQueue;
+    @NonFinal
+    volatile boolean ticketQueueResolved;
+    /**
+     * Keeps the process lock between consecutive tests of this JVM, null if coalescing is not enabled for the tag.
+     */
+    @Nullable
+    LockCoalescing coalescing;
+    /**
+     * In-JVM tier in front of the file lock. {@link FileLock} is held on behalf of the whole JVM, so a second
+     * thread calling {@link FileChannel#lock()} on the same channel would fail with
+     * {@link java.nio.channels.OverlappingFileLockException} instead of waiting. Threads of the same JVM
+     * therefore park here, and only the current holders of this semaphore talk to the OS file lock.
+     * Semaphore is used instead of {@link java.util.concurrent.locks.Lock}, because JUnit does not guarantee
+     * that test start and finish events are delivered on the same thread.
+     * {@link LockMode#PERMIT} holders take one permit, {@link LockMode#SHARED} group and {@link LockMode#EXCLUSIVE} holder take all of them.
+     */
+    Semaphore jvmLock;
+    /**
+     * Slots of the sync file that are currently claimed by threads of this JVM, 1 means claimed.
+     */
+    AtomicIntegerArray slots;
+    /**
+     * {@link LockMode#SHARED} holders of this JVM, that share a single process lock, see {@link #sharedGroupMode()}.
+     */
+    SharedGroup sharedGroup = new SharedGroup();
+    /**
+     * Tier that coordinates JVMs, backed by the sync file unless another {@link LockBackend} is configured.
+     */
+    @NonFinal
+    ProcessLock processLock;
+
+    SyncTag(String fileName, TestTag testTag, @Nullable FileChannel syncFileChannel, SyncTagOptions options) {
+        if (options.permits() < 1) {
+            throw new IllegalArgumentException("Permits must be positive, but received [" + options.permits() + "]");
+        }
+        this.fileName = fileName;
+        this.testTag = testTag;
+        this.syncFileChannel = syncFileChannel;
+        this.permits = options.permits();
+        this.resourceLock = options.resourceLock();
+        this.scope = options.scope();
+        this.coordinator = options.coordinator();
+        this.leaseMillis = options.leaseMillis();
+        this.maxWaitMillis = options.maxWaitMillis();
+        this.skipOnMaxWait = options.skipOnMaxWait();
+        this.dumpHolderStack = options.dumpHolderStack();
+        this.fifo = options.fifo();
+        this.sharedWithinJvm = options.sharedWithinJvm();
+        this.jvmLock = new Semaphore(permits, true);
+        this.slots = new AtomicIntegerArray(permits);
+        this.processLock = new FileProcessLock(this);
+        this.coalescing = createCoalescing(options);
+    }
+
+    SyncTag(String fileName, TestTag testTag, FileChannel syncFileChannel, int permits) {
+        this(fileName, testTag, syncFileChannel, SyncTagOptions.defaults().permits(permits));
+    }
+
+    SyncTag(String fileName, TestTag testTag, FileChannel syncFileChannel) {
+        this(fileName, testTag, syncFileChannel, SyncTagOptions.defaults());
+    }
+
+    SyncTag(String fileName, TestTag testTag, SyncTagOptions options) {
+        this(fileName, testTag, null, options);
+    }
+
+    @Override
+    public String name() {
+        return testTag.getName();
+    }
+
+    @SneakyThrows
+    FileChannel syncFileChannel() {
+        var channel = syncFileChannel;
+        if (channel == null) {
+            synchronized (this) {
+                channel = syncFileChannel;
+                if (channel == null) {
+                    channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    syncFileChannel = channel;
+                }
+            }
+        }
+        return channel;
+    }
+
+    /**
+     * Replaces the tier that coordinates JVMs, must be called before the tag is used.
+     */
+    SyncTag processLock(LockBackend lockBackend) {
+        this.processLock = lockBackend.processLock(this);
+        return this;
+    }
+
+    @Nullable
+    LockHolder acquire() {
+        return acquire(LockMode.PERMIT);
+    }
+
+    @Nullable
+    LockHolder acquire(LockMode mode) {
+        return acquireUntil(mode, 0, NO_DEADLINE);
+    }
+
+    /**
+     * @param priority position in {@link TicketQueue}, higher goes first
+     */
+    @Nullable
+    LockHolder acquire(LockMode mode, int priority) {
+        return acquireUntil(mode, priority, NO_DEADLINE);
+    }
+
+    /**
+     * Same as {@link #acquire(LockMode)}, but gives up after the timeout.
+     *
+     * @return holder of the lock, or null if it was not acquired in time or failed to be acquired
+     */
+    @Nullable
+    LockHolder acquire(LockMode mode, int priority, long timeoutNanos) {
+        return acquireUntil(mode, priority, System.nanoTime() + timeoutNanos);
+    }
+
+    @Nullable
+    private LockHolder acquireUntil(LockMode mode, int priority, long deadline) {
+        switch (mode) {
+            case SHARED:
+                return acquireShared(priority, deadline);
+            case EXCLUSIVE:
+                return acquireExclusive(priority, deadline);
+            default:
+                return acquirePermit(priority, deadline);
+        }
+    }
+
+    /**
+     * Same as {@link #acquire(LockMode)}, but returns null instead of waiting when the tag is not available right away.
+     */
+    @Nullable
+    LockHolder tryAcquire(LockMode mode) {
+        switch (mode) {
+            case SHARED:
+                return tryAcquireShared();
+            case EXCLUSIVE:
+                return tryAcquireExclusive();
+            default:
+                return tryAcquirePermit();
+        }
+    }
+
+    void release(LockHolder lockHolder) {
+        release(lockHolder, true);
+    }
+
+    /**
+     * Same as {@link #release(LockHolder)}, but the process lock is never kept by {@link LockCoalescing}, so that
+     * other JVMs take the tag over instead of the next test of this JVM, which is likely stuck as well.
+     */
+    void revoke(LockHolder lockHolder) {
+        release(lockHolder, false);
+        releaseRetained();
+    }
+
+    private void release(LockHolder lockHolder, boolean retain) {
+        switch (lockHolder.mode()) {
+            case SHARED:
+                releaseShared(retain);
+                break;
+            case EXCLUSIVE:
+                try {
+                    releaseOrRetain(LockMode.EXCLUSIVE, -1, lockHolder.lock(), retain);
+                } finally {
+                    jvmLock.release(permits);
+                }
+                break;
+            default:
+                try {
+                    releaseOrRetain(LockMode.PERMIT, lockHolder.slot(), lockHolder.lock(), retain);
+                } finally {
+                    slots.set(lockHolder.slot(), 0);
+                    jvmLock.release();
+                }
+        }
+    }
+
+    @Nullable
+    private LockHolder acquirePermit(int priority, long deadline) {
+        if (!awaitJvmPermits(1, deadline)) {
+            return null;
+        }
+        try {
+            if (permits > 1) {
+                val lockHolder = tryAcquireFreeSlot();
+                if (lockHolder != null) {
+                    return lockHolder;
+                }
+            }
+            val lockHolder = acquireSlot(priority, deadline);
+            if (lockHolder == null) {
+                jvmLock.release();
+            }
+            return lockHolder;
+        } catch (Exception e) {
+            jvmLock.release();
+            printErr("Failed to acquire file lock for file [" + fileName + "] - " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Nullable
+    private LockHolder tryAcquirePermit() {
+        if (!jvmLock.tryAcquire()) {
+            return null;
+        }
+        try {
+            val lockHolder = tryAcquireFreeSlot();
+            if (lockHolder != null) {
+                return lockHolder;
+            }
+        } catch (Exception e) {
+            printErr("Failed to try file lock for file [" + fileName + "] - " + e.getMessage());
+        }
+        jvmLock.release();
+        return null;
+    }
+
+    @Nullable
+    private LockHolder tryAcquireExclusive() {
+        if (!jvmLock.tryAcquire(permits)) {
+            return null;
+        }
+        try {
+            val lock = tryLockProcess(LockMode.EXCLUSIVE, -1);
+            if (lock != null) {
+                return new LockHolder(this, LockMode.EXCLUSIVE, -1, lock);
+            }
+        } catch (Exception e) {
+            printErr("Failed to try exclusive file lock for file [" + fileName + "] - " + e.getMessage());
+        }
+        jvmLock.release(permits);
+        return null;
+    }
+
+    @Nullable
+    private LockHolder tryAcquireShared() {
+        val group = sharedGroup;
+        synchronized (group) {
+            if (group.acquiring) {
+                return null;
+            }
+            if (group.holders > 0 && group.lock != null) {
+                if (stopsJoining()) {
+                    return null;
+                }
+                group.holders++;
+                return new LockHolder(this, LockMode.SHARED, -1, group.lock);
+            }
+            if (!jvmLock.tryAcquire(permits)) {
+                return null;
+            }
+            Object lock = null;
+            try {
+                lock = tryLockProcess(sharedGroupMode(), -1);
+            } catch (Exception e) {
+                printErr("Failed to try shared file lock for file [" + fileName + "] - " + e.getMessage());
+            }
+            if (lock == null) {
+                jvmLock.release(permits);
+                return null;
+            }
+            group.holders = 1;
+            group.lock = lock;
+            return new LockHolder(this, LockMode.SHARED, -1, lock);
+        }
+    }
+
+    @Nullable
+    private LockHolder acquireExclusive(int priority, long deadline) {
+        if (!awaitJvmPermits(permits, deadline)) {
+            return null;
+        }
+        try {
+            val lock = lockProcess(LockMode.EXCLUSIVE, -1, priority, deadline);
+            if (lock == null) {
+                jvmLock.release(permits);
+                return null;
+            }
+            return new LockHolder(this, LockMode.EXCLUSIVE, -1, lock);
+        } catch (Exception e) {
+            jvmLock.release(permits);
+            printErr("Failed to acquire exclusive file lock for file [" + fileName + "] - " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * First {@link LockMode#SHARED} holder of the JVM becomes the group leader: it takes all in-JVM permits and
+     * the process lock, while the following ones wait for the leader and then join the group without any I/O.
+     * New holders stop joining once somebody else is queued for the in-JVM tier, so that a long stream
+     * of shared holders does not starve the other modes.
+     */
+    @Nullable
+    private LockHolder acquireShared(int priority, long deadline) {
+        val group = sharedGroup;
+        synchronized (group) {
+            try {
+                while (group.acquiring || group.holders > 0 && stopsJoining()) {
+                    if (deadline == NO_DEADLINE) {
+                        group.wait();
+                    } else {
+                        val remainingNanos = deadline - System.nanoTime();
+                        if (remainingNanos <= 0) {
+                            return null;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(group, remainingNanos);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                printErr("Interrupted while waiting for shared lock for file [" + fileName + "]");
+                return null;
+            }
+            if (group.holders > 0 && group.lock != null) {
+                group.holders++;
+                return new LockHolder(this, LockMode.SHARED, -1, group.lock);
+            }
+            group.acquiring = true;
+        }
+        Object lock = null;
+        try {
+            if (awaitJvmPermits(permits, deadline)) {
+                try {
+                    lock = lockProcess(sharedGroupMode(), -1, priority, deadline);
+                } catch (Exception e) {
+                    printErr("Failed to acquire shared file lock for file [" + fileName + "] - " + e.getMessage());
+                }
+                if (lock == null) {
+                    jvmLock.release(permits);
+                }
+            }
+        } finally {
+            synchronized (group) {
+                group.acquiring = false;
+                if (lock != null) {
+                    group.holders = 1;
+                    group.lock = lock;
+                }
+                group.notifyAll();
+            }
+        }
+        return lock == null ? null : new LockHolder(this, LockMode.SHARED, -1, lock);
+    }
+
+    private void releaseShared(boolean retain) {
+        val group = sharedGroup;
+        Object lock = null;
+        synchronized (group) {
+            group.holders--;
+            if (group.holders == 0) {
+                lock = group.lock;
+                group.lock = null;
+                group.notifyAll();
+            }
+        }
+        if (lock != null) {
+            try {
+                releaseOrRetain(sharedGroupMode(), -1, lock, retain);
+            } finally {
+                jvmLock.release(permits);
+            }
+        }
+    }
+
+    /**
+     * Releases the process lock that is kept by {@link LockCoalescing}, called once all tests of the JVM are finished.
+     */
+    void releaseRetained() {
+        if (coalescing != null) {
+            coalescing.releaseRetained();
+        }
+    }
+
+    /**
+     * Group that is shared within the JVM also stops taking new holders when other JVMs are queued for the tag,
+     * otherwise parallel tests of the JVM could keep the tag forever.
+     */
+    private boolean stopsJoining() {
+        return jvmLock.hasQueuedThreads() || (sharedWithinJvm && hasWaitersInOtherJvms());
+    }
+
+    /**
+     * @return mode in which the {@link LockMode#SHARED} group of this JVM holds the process lock
+     */
+    private LockMode sharedGroupMode() {
+        return sharedWithinJvm ? LockMode.EXCLUSIVE : LockMode.SHARED;
+    }
+
+    private boolean awaitJvmPermits(int count, long deadline) {
+        try {
+            if (deadline == NO_DEADLINE) {
+                jvmLock.acquire(count);
+                return true;
+            }
+            return jvmLock.tryAcquire(count, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            printErr("Interrupted while waiting for lock for file [" + fileName + "]");
+            return false;
+        }
+    }
+
+    @Nullable
+    private LockHolder tryAcquireFreeSlot() throws IOException {
+        for (var slot = 0; slot < permits; slot++) {
+            if (slots.compareAndSet(slot, 0, 1)) {
+                Object lock = null;
+                try {
+                    lock = tryLockProcess(LockMode.PERMIT, slot);
+                } finally {
+                    if (lock == null) {
+                        slots.set(slot, 0);
+                    }
+                }
+                if (lock != null) {
+                    return new LockHolder(this, LockMode.PERMIT, slot, lock);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Waits for one of the slots that are not claimed in this JVM. Such slot always exists, because
+     * {@link #jvmLock} does not let more than {@link #permits} threads through. With a {@link ProcessLock#slotted()}
+     * backend and several permits, the holder of any slot may give it back first, so all unclaimed slots are polled
+     * by {@link AnySlotLock}. Otherwise the waiter blocks on a single slot, picked at random, so that waiters from
+     * different JVMs are spread across slots instead of queueing on the first one.
+     */
+    @Nullable
+    private LockHolder acquireSlot(int priority, long deadline) throws IOException {
+        if (permits > 1 && processLock.slotted()) {
+            val anySlotLock = new AnySlotLock();
+            val queue = ticketQueue();
+            val lock = queue != null
+                ? queue.lock(anySlotLock, LockMode.PERMIT, -1, permits, priority, deadline)
+                : lockProcess(anySlotLock, LockMode.PERMIT, -1, deadline);
+            if (lock == null) {
+                return null;
+            }
+            val claimedSlot = (ClaimedSlot) lock;
+            return new LockHolder(this, LockMode.PERMIT, claimedSlot.slot, claimedSlot.lock);
+        }
+        val start = permits == 1 ? 0 : ThreadLocalRandom.current().nextInt(permits);
+        for (var i = 0; i < permits; i++) {
+            val slot = (start + i) % permits;
+            if (slots.compareAndSet(slot, 0, 1)) {
+                var acquired = false;
+                try {
+                    val lock = lockProcess(LockMode.PERMIT, slot, priority, deadline);
+                    if (lock == null) {
+                        return null;
+                    }
+                    acquired = true;
+                    return new LockHolder(this, LockMode.PERMIT, slot, lock);
+                } finally {
+                    if (!acquired) {
+                        slots.set(slot, 0);
+                    }
+                }
+            }
+        }
+        throw new IllegalStateException("No free slot found for file [" + fileName + "], this is likely a bug in synchronizer");
+    }
+
+    /**
+     * @return lock of {@link #processLock}, or null if it was not granted before the deadline
+     */
+    @Nullable
+    private Object lockProcess(LockMode mode, int slot, int priority, long deadline) throws IOException {
+        val retained = takeOverRetained(mode, slot);
+        if (retained != null) {
+            return retained;
+        }
+        val queue = ticketQueue();
+        val lock = queue != null
+            ? queue.lock(processLock, mode, slot, mode == LockMode.PERMIT ? permits : 1, priority, deadline)
+            : lockProcess(processLock, mode, slot, deadline);
+        return acquiredFresh(lock);
+    }
+
+    @Nullable
+    static Object lockProcess(ProcessLock processLock, LockMode mode, int slot, long deadline) throws IOException {
+        if (deadline == NO_DEADLINE) {
+            return processLock.lock(mode, slot);
+        }
+        val remainingNanos = deadline - System.nanoTime();
+        return remainingNanos <= 0 ? processLock.tryLock(mode, slot) : processLock.lock(mode, slot, remainingNanos);
+    }
+
+    /**
+     * Unlike {@link ProcessLock#tryLock(LockMode, int)}, does not take the lock from under the waiters of {@link TicketQueue}.
+     */
+    @Nullable
+    private Object tryLockProcess(LockMode mode, int slot) throws IOException {
+        val retained = takeOverRetained(mode, slot);
+        if (retained != null) {
+            return retained;
+        }
+        val queue = ticketQueue();
+        return acquiredFresh(queue != null ? queue.tryLock(processLock, mode, slot) : processLock.tryLock(mode, slot));
+    }
+
+    @Nullable
+    private Object takeOverRetained(LockMode mode, int slot) {
+        return coalescing == null ? null : coalescing.takeOver(mode, slot);
+    }
+
+    @Nullable
+    private Object acquiredFresh(@Nullable Object lock) {
+        if (lock != null && coalescing != null) {
+            coalescing.acquired();
+        }
+        return lock;
+    }
+
+    private void releaseOrRetain(LockMode mode, int slot, Object lock, boolean retain) {
+        if (!retain || coalescing == null || !coalescing.retain(mode, slot, lock)) {
+            releaseProcessLock(lock);
+        }
+    }
+
+    /**
+     * @return true if JVMs other than this one are known to wait for the tag, only known with {@link TicketQueue},
+     * which is opened for coalesced tags even without {@link #fifo}
+     */
+    boolean hasWaitersInOtherJvms() {
+        val queue = ticketQueue();
+        return queue != null && queue.hasOtherWaiters();
+    }
+
+    /**
+     * Coalescing relies on every holder of the JVM holding all in-JVM permits, which is only the case with a single permit.
+     */
+    @Nullable
+    private LockCoalescing createCoalescing(SyncTagOptions options) {
+        if (options.coalesceMillis() <= 0) {
+            return null;
+        }
+        if (permits > 1) {
+            printErr("Coalescing of tag [" + testTag.getName() + "] is ignored, it is only supported for tags with a single permit");
+            return null;
+        }
+        return new LockCoalescing(this, TimeUnit.MILLISECONDS.toNanos(options.coalesceMillis()), options.coalesceTests());
+    }
+
+    @Nullable
+    private TicketQueue ticketQueue() {
+        if (ticketQueueResolved) {
+            return ticketQueue;
+        }
+        synchronized (this) {
+            if (!ticketQueueResolved) {
+                if (coalescing != null && !(processLock instanceof FileProcessLock)) {
+                    printReport(
+                        "Tag [" + testTag.getName() + "] is coalesced, but its backend does not tell when other JVMs wait for it, "
+                            + "so a chain of tests keeps the tag for its whole budget"
+                    );
+                }
+                if ((fifo || coalescing != null) && processLock instanceof FileProcessLock) {
+                    try {
+                        ticketQueue = TicketQueue.open(Paths.get(fileName + ".queue"), Pids.current());
+                    } catch (Exception e) {
+                        printErr("Ticket queue of file [" + fileName + "] will be disabled, failed to open it - " + e.getMessage());
+                    }
+                }
+                ticketQueueResolved = true;
+            }
+            return ticketQueue;
+        }
+    }
+
+    void releaseProcessLock(Object lock) {
+        try {
+            processLock.release(lock);
+        } catch (Exception e) {
+            printErr("Failed to release lock for file [" + fileName + "] - " + e.getMessage());
+        }
+    }
+
+    /**
+     * {@link ProcessLock} of {@link #processLock} that ignores the requested slot, and grants whichever slot that is
+     * not claimed in this JVM becomes free first, as {@link ClaimedSlot}. Slot stays claimed until the holder releases it.
+     */
+    private final class AnySlotLock implements ProcessLock {
+
+        @Override
+        public Object lock(LockMode mode, int slot) throws IOException {
+            val lock = lock(mode, slot, Long.MAX_VALUE);
+            if (lock == null) {
+                throw new IllegalStateException("No slot granted for file [" + fileName + "], this is likely a bug in synchronizer");
+            }
+            return lock;
+        }
+
+        @Override
+        public @Nullable Object tryLock(LockMode mode, int slot) throws IOException {
+            val start = ThreadLocalRandom.current().nextInt(permits);
+            for (var i = 0; i < permits; i++) {
+                val candidate = (start + i) % permits;
+                if (slots.compareAndSet(candidate, 0, 1)) {
+                    Object lock = null;
+                    try {
+                        lock = processLock.tryLock(LockMode.PERMIT, candidate);
+                    } finally {
+                        if (lock == null) {
+                            slots.set(candidate, 0);
+                        }
+                    }
+                    if (lock != null) {
+                        return new ClaimedSlot(candidate, lock);
+                    }
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public @Nullable Object lock(LockMode mode, int slot, long timeoutNanos) throws IOException {
+            val start = System.nanoTime();
+            for (var pauseMillis = 1L; ; pauseMillis = Math.min(pauseMillis * 2, MAX_SLOT_PAUSE_MILLIS)) {
+                val lock = tryLock(mode, slot);
+                if (lock != null) {
+                    return lock;
+                }
+                val remainingNanos = timeoutNanos - (System.nanoTime() - start);
+                if (remainingNanos <= 0) {
+                    return null;
+                }
+                LockSupport.parkNanos(Math.min(remainingNanos, TimeUnit.MILLISECONDS.toNanos(pauseMillis)));
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new FileLockInterruptionException();
+                }
+            }
+        }
+
+        @Override
+        public void release(Object lock) throws IOException {
+            val claimedSlot = (ClaimedSlot) lock;
+            try {
+                processLock.release(claimedSlot.lock);
+            } finally {
+                slots.set(claimedSlot.slot, 0);
+            }
+        }
+    }
+
+    @RequiredArgsConstructor
+    static final class ClaimedSlot {
+
+        int slot;
+        Object lock;
+    }
+
+    static final class SharedGroup {
+
+        @NonFinal
+        int holders;
+        @NonFinal
+        boolean acquiring;
+        @NonFinal
+        @Nullable
+        Object lock;
+    }
+}
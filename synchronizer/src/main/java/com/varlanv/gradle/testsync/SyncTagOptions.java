@@ -0,0 +1,145 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.Getter;
+import lombok.experimental.NonFinal;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Per-tag options passed from the plugin as {@code key=value} entries after the sync file path.
+ * Unknown keys are ignored.
+ */
+@Getter
+final class SyncTagOptions {
+
+    @NonFinal
+    int permits = 1;
+    @NonFinal
+    boolean resourceLock;
+    @NonFinal
+    SyncScope scope = SyncScope.TEST;
+    /**
+     * Address of the lock coordinator, for backends that do not lock sync files.
+     */
+    @NonFinal
+    @Nullable
+    String coordinator;
+    /**
+     * Longest time in milliseconds a test may hold the tag before its lock is revoked, 0 for no limit.
+     */
+    @NonFinal
+    long leaseMillis;
+    /**
+     * Longest time in milliseconds a test may wait for the tag, 0 for no limit.
+     */
+    @NonFinal
+    long maxWaitMillis;
+    /**
+     * Whether a test that waited for longer than {@link #maxWaitMillis} is skipped instead of failed.
+     */
+    @NonFinal
+    boolean skipOnMaxWait;
+    /**
+     * Whether the stack of the holder is included in the report of a test that waited for longer than {@link #maxWaitMillis}.
+     */
+    @NonFinal
+    boolean dumpHolderStack;
+    /**
+     * Whether JVMs take turns for the tag in first-come first-served order, see {@link TicketQueue}.
+     */
+    @NonFinal
+    boolean fifo;
+    /**
+     * Longest time in milliseconds a chain of tests of the JVM may keep the tag between each other, 0 to release
+     * the tag after every test, see {@link LockCoalescing}.
+     */
+    @NonFinal
+    long coalesceMillis;
+    /**
+     * Largest number of tests in a chain that keeps the tag, 0 for no limit.
+     */
+    @NonFinal
+    int coalesceTests;
+    /**
+     * Whether tests of the same JVM hold the tag together, while JVMs hold it one at a time.
+     */
+    @NonFinal
+    boolean sharedWithinJvm;
+
+    static SyncTagOptions defaults() {
+        return new SyncTagOptions();
+    }
+
+    /**
+     * @throws IllegalArgumentException if any of the options is malformed
+     */
+    static SyncTagOptions parse(String[] values, int fromIndex) {
+        val options = new SyncTagOptions();
+        for (var i = fromIndex; i < values.length; i++) {
+            val option = values[i];
+            val optionSeparatorIdx = option.indexOf(Constants.SYNC_OPTION_SEPARATOR);
+            if (optionSeparatorIdx < 0) {
+                throw new IllegalArgumentException("Failed to parse sync tag option [" + option + "]");
+            }
+            val optionKey = option.substring(0, optionSeparatorIdx);
+            val optionValue = option.substring(optionSeparatorIdx + Constants.SYNC_OPTION_SEPARATOR.length());
+            if (Constants.SYNC_OPTION_PERMITS.equals(optionKey)) {
+                options.permits = Integer.parseInt(optionValue);
+            } else if (Constants.SYNC_OPTION_RESOURCE_LOCK.equals(optionKey)) {
+                options.resourceLock = Boolean.parseBoolean(optionValue);
+            } else if (Constants.SYNC_OPTION_SCOPE.equals(optionKey)) {
+                options.scope = SyncScope.valueOf(optionValue);
+            } else if (Constants.SYNC_OPTION_COORDINATOR.equals(optionKey)) {
+                options.coordinator = optionValue;
+            } else if (Constants.SYNC_OPTION_LEASE.equals(optionKey)) {
+                options.leaseMillis = Long.parseLong(optionValue);
+            } else if (Constants.SYNC_OPTION_MAX_WAIT.equals(optionKey)) {
+                options.maxWaitMillis = Long.parseLong(optionValue);
+            } else if (Constants.SYNC_OPTION_ON_MAX_WAIT.equals(optionKey)) {
+                options.skipOnMaxWait = Constants.ON_MAX_WAIT_SKIP.equals(optionValue);
+            } else if (Constants.SYNC_OPTION_DUMP_HOLDER_STACK.equals(optionKey)) {
+                options.dumpHolderStack = Boolean.parseBoolean(optionValue);
+            } else if (Constants.SYNC_OPTION_FIFO.equals(optionKey)) {
+                options.fifo = Boolean.parseBoolean(optionValue);
+            } else if (Constants.SYNC_OPTION_COALESCE.equals(optionKey)) {
+                options.coalesceMillis = Long.parseLong(optionValue);
+            } else if (Constants.SYNC_OPTION_COALESCE_TESTS.equals(optionKey)) {
+                options.coalesceTests = Integer.parseInt(optionValue);
+            } else if (Constants.SYNC_OPTION_SHARED_WITHIN_JVM.equals(optionKey)) {
+                options.sharedWithinJvm = Boolean.parseBoolean(optionValue);
+            }
+        }
+        return options;
+    }
+
+    SyncTagOptions permits(int permits) {
+        this.permits = permits;
+        return this;
+    }
+
+    SyncTagOptions leaseMillis(long leaseMillis) {
+        this.leaseMillis = leaseMillis;
+        return this;
+    }
+
+    SyncTagOptions maxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+        return this;
+    }
+
+    SyncTagOptions scope(SyncScope scope) {
+        this.scope = scope;
+        return this;
+    }
+
+    SyncTagOptions sharedWithinJvm(boolean sharedWithinJvm) {
+        this.sharedWithinJvm = sharedWithinJvm;
+        return this;
+    }
+
+    SyncTagOptions coalesce(long coalesceMillis, int coalesceTests) {
+        this.coalesceMillis = coalesceMillis;
+        this.coalesceTests = coalesceTests;
+        return this;
+    }
+}
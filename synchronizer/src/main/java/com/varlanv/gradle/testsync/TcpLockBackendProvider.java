@@ -0,0 +1,25 @@
+package com.varlanv.gradle.testsync;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+
+/**
+ * Provider of {@link SocketLockBackend} connected to a {@link LockServer} over TCP, either the one embedded
+ * in the Gradle daemon, or a standalone one shared by builds on several hosts.
+ */
+public final class TcpLockBackendProvider implements LockBackendProvider {
+
+    @Override
+    public String name() {
+        return Constants.BACKEND_TCP;
+    }
+
+    @Override
+    public LockBackend create(Path syncFolderPath, @Nullable String address) throws Exception {
+        if (address == null) {
+            throw new IllegalStateException("Address of the lock server is not set");
+        }
+        return SocketLockBackend.tcp(address);
+    }
+}
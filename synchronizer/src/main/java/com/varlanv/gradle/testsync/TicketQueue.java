@@ -0,0 +1,253 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.FileLockInterruptionException;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.varlanv.gradle.testsync.JunitSynchronizingTestListener.printErr;
+
+/**
+ * Cross-JVM queue of waiters for the file lock of a tag. OS file locks are granted in no particular order, so under
+ * contention one JVM can reacquire a tag again and again, while another one starves. With the queue, only the first
+ * waiters, ordered by priority and then by ticket, attempt the file lock, and a JVM can not take the lock around
+ * the queue while anyone is queued.
+ * <p>
+ * Queue lives in a memory-mapped {@code <sync file>.queue} file, all numbers are big-endian:
+ * <pre>
+ *   0  int next ticket
+ *   4  int number of entries
+ *   8  entries, {@link #ENTRY_SIZE} bytes each, in no particular order:
+ *        0 int  ticket
+ *        4 int  priority, higher goes first
+ *        8 long pid
+ * </pre>
+ * Byte 0 of the file is locked around every access of the queue, and every queued waiter holds the lock of byte
+ * {@link #LIVENESS_OFFSET} + ticket, so that entries of JVMs that died while waiting are recognized by their released
+ * lock and dropped.
+ */
+final class TicketQueue {
+
+    private static final int FILE_SIZE = 4096;
+    private static final int HEADER_SIZE = 8;
+    private static final int ENTRY_SIZE = 16;
+    private static final int CAPACITY = (FILE_SIZE - HEADER_SIZE) / ENTRY_SIZE;
+    private static final long LIVENESS_OFFSET = 1L << 32;
+    private static final long MAX_PAUSE_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+
+    FileChannel channel;
+    MappedByteBuffer buffer;
+    long pid;
+
+    private TicketQueue(FileChannel channel, MappedByteBuffer buffer, long pid) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.pid = pid;
+    }
+
+    static TicketQueue open(Path path, long pid) throws IOException {
+        val channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            return new TicketQueue(channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE), pid);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Takes the lock right away if nobody is queued, so that an uncontended tag costs a single extra lock of the guard.
+     *
+     * @return lock of the process lock, or null if it is taken or somebody is queued for it
+     */
+    @Nullable
+    Object tryLock(ProcessLock processLock, LockMode mode, int slot) throws IOException {
+        synchronized (this) {
+            val guard = channel.lock(0, 1, false);
+            try {
+                return buffer.getInt(4) == 0 ? processLock.tryLock(mode, slot) : null;
+            } finally {
+                guard.release();
+            }
+        }
+    }
+
+    /**
+     * Waits in the queue until the waiter is among the first {@code turns} waiters, and then waits for the process lock.
+     *
+     * @param turns    number of waiters at the head of the queue that attempt the process lock at the same time
+     * @param deadline {@link System#nanoTime()} to give up at, or {@link SyncTag#NO_DEADLINE}
+     * @return lock of the process lock, or null if it was not granted before the deadline
+     */
+    @Nullable
+    Object lock(ProcessLock processLock, LockMode mode, int slot, int turns, int priority, long deadline) throws IOException {
+        var ticket = 0;
+        FileLock liveness = null;
+        synchronized (this) {
+            val guard = channel.lock(0, 1, false);
+            try {
+                val count = buffer.getInt(4);
+                if (count == 0) {
+                    val lock = processLock.tryLock(mode, slot);
+                    if (lock != null) {
+                        return lock;
+                    }
+                }
+                if (count < CAPACITY) {
+                    ticket = buffer.getInt(0);
+                    buffer.putInt(0, ticket + 1);
+                    liveness = channel.lock(livenessOffset(ticket), 1, false);
+                    val offset = HEADER_SIZE + count * ENTRY_SIZE;
+                    buffer.putInt(offset, ticket);
+                    buffer.putInt(offset + 4, priority);
+                    buffer.putLong(offset + 8, pid);
+                    buffer.putInt(4, count + 1);
+                }
+            } finally {
+                guard.release();
+            }
+        }
+        if (liveness == null) {
+            // waiting happens without the guard, so that other JVMs can still leave the queue and free up its entries
+            printErr("Ticket queue of tag is full, waiting for the lock out of order");
+            return SyncTag.lockProcess(processLock, mode, slot, deadline);
+        }
+        try {
+            for (var pauseNanos = TimeUnit.MILLISECONDS.toNanos(1); ; pauseNanos = Math.min(pauseNanos * 2, MAX_PAUSE_NANOS)) {
+                if (rank(ticket, priority) < turns) {
+                    return SyncTag.lockProcess(processLock, mode, slot, deadline);
+                }
+                if (deadline != SyncTag.NO_DEADLINE) {
+                    val remainingNanos = deadline - System.nanoTime();
+                    if (remainingNanos <= 0) {
+                        return null;
+                    }
+                    pauseNanos = Math.min(pauseNanos, remainingNanos);
+                }
+                LockSupport.parkNanos(pauseNanos);
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new FileLockInterruptionException();
+                }
+            }
+        } finally {
+            remove(ticket);
+            liveness.release();
+        }
+    }
+
+    /**
+     * Reads the queue without the guard lock, the answer is a hint that may be stale by the time it is used.
+     *
+     * @return true if a JVM other than this one is queued for the lock
+     */
+    boolean hasOtherWaiters() {
+        synchronized (this) {
+            val count = Math.min(buffer.getInt(4), CAPACITY);
+            for (var i = 0; i < count; i++) {
+                if (buffer.getLong(HEADER_SIZE + i * ENTRY_SIZE + 8) != pid) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Reads the queue without the guard lock, like {@link #hasOtherWaiters()}.
+     *
+     * @return number of entries in the queue, including entries of dead JVMs that were not dropped yet
+     */
+    int size() {
+        synchronized (this) {
+            return Math.min(buffer.getInt(4), CAPACITY);
+        }
+    }
+
+    /**
+     * @return number of live waiters ahead of the ticket, entries of dead JVMs are dropped on the way
+     */
+    private int rank(int ticket, int priority) throws IOException {
+        synchronized (this) {
+            val guard = channel.lock(0, 1, false);
+            try {
+                var rank = 0;
+                var count = buffer.getInt(4);
+                for (var i = 0; i < count; i++) {
+                    val offset = HEADER_SIZE + i * ENTRY_SIZE;
+                    val otherTicket = buffer.getInt(offset);
+                    val otherPriority = buffer.getInt(offset + 4);
+                    if (otherPriority > priority || otherPriority == priority && otherTicket - ticket < 0) {
+                        if (buffer.getLong(offset + 8) != pid && isDead(otherTicket)) {
+                            removeAt(i, count);
+                            count--;
+                            i--;
+                        } else {
+                            rank++;
+                        }
+                    }
+                }
+                return rank;
+            } finally {
+                guard.release();
+            }
+        }
+    }
+
+    private boolean isDead(int ticket) throws IOException {
+        try {
+            val liveness = channel.tryLock(livenessOffset(ticket), 1, false);
+            if (liveness == null) {
+                return false;
+            }
+            liveness.release();
+            return true;
+        } catch (OverlappingFileLockException e) {
+            // held by this JVM
+            return false;
+        }
+    }
+
+    private void remove(int ticket) throws IOException {
+        synchronized (this) {
+            val guard = channel.lock(0, 1, false);
+            try {
+                val count = buffer.getInt(4);
+                for (var i = 0; i < count; i++) {
+                    if (buffer.getInt(HEADER_SIZE + i * ENTRY_SIZE) == ticket) {
+                        removeAt(i, count);
+                        return;
+                    }
+                }
+            } finally {
+                guard.release();
+            }
+        }
+    }
+
+    /**
+     * Moves the last entry into the place of the removed one, order of entries does not matter.
+     */
+    private void removeAt(int index, int count) {
+        val offset = HEADER_SIZE + index * ENTRY_SIZE;
+        val lastOffset = HEADER_SIZE + (count - 1) * ENTRY_SIZE;
+        if (offset != lastOffset) {
+            buffer.putInt(offset, buffer.getInt(lastOffset));
+            buffer.putInt(offset + 4, buffer.getInt(lastOffset + 4));
+            buffer.putLong(offset + 8, buffer.getLong(lastOffset + 8));
+        }
+        buffer.putInt(4, count - 1);
+    }
+
+    private static long livenessOffset(int ticket) {
+        return LIVENESS_OFFSET + (ticket & 0xFFFFFFFFL);
+    }
+}
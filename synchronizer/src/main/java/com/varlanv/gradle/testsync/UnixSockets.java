@@ -0,0 +1,76 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.val;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/**
+ * Unix domain socket channels, that are only available since Java 16. Synchronizer targets Java 8, so
+ * {@code UnixDomainSocketAddress} and the protocol family overloads of {@code open} are looked up reflectively.
+ */
+final class UnixSockets {
+
+    private UnixSockets() {
+    }
+
+    static ServerSocketChannel bind(Path socketPath) throws IOException {
+        val channel = (ServerSocketChannel) invoke(ServerSocketChannel.class, "open", ProtocolFamily.class, unix());
+        try {
+            channel.bind(address(socketPath));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    static SocketChannel connect(Path socketPath) throws IOException {
+        val channel = (SocketChannel) invoke(SocketChannel.class, "open", ProtocolFamily.class, unix());
+        try {
+            channel.connect(address(socketPath));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    private static ProtocolFamily unix() throws IOException {
+        try {
+            return StandardProtocolFamily.valueOf("UNIX");
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unix domain sockets require Java 16 or newer, but running on Java " + System.getProperty("java.version"), e);
+        }
+    }
+
+    private static SocketAddress address(Path socketPath) throws IOException {
+        final Class<?> addressClass;
+        try {
+            addressClass = Class.forName("java.net.UnixDomainSocketAddress");
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unix domain sockets require Java 16 or newer, but running on Java " + System.getProperty("java.version"), e);
+        }
+        return (SocketAddress) invoke(addressClass, "of", Path.class, socketPath);
+    }
+
+    private static Object invoke(Class<?> type, String methodName, Class<?> parameterType, Object argument) throws IOException {
+        try {
+            return type.getMethod(methodName, parameterType).invoke(null, argument);
+        } catch (InvocationTargetException e) {
+            val cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IOException(e);
+        }
+    }
+}
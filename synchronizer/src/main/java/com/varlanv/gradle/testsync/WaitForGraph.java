@@ -0,0 +1,285 @@
+package com.varlanv.gradle.testsync;
+
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.NonFinal;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.varlanv.gradle.testsync.JunitSynchronizingTestListener.printErr;
+import static com.varlanv.gradle.testsync.JunitSynchronizingTestListener.printReport;
+
+/**
+ * Wait-for graph of test JVMs, shared through the sync folder.
+ * <p>
+ * Every JVM tracks which tags its tests hold and wait for. Once some test waits for longer than
+ * {@link #CHECK_INTERVAL_MILLIS}, a daemon watchdog thread starts publishing the state of the JVM to
+ * {@code waitfor_<pid>} file in the sync folder, reads the files of other JVMs and looks for a cycle that includes
+ * the current JVM. A cycle that is seen by two consecutive checks is reported to stderr, naming JVMs, tags and tests.
+ * Publishing stops, and the file is deleted, when no test of the JVM waits for long anymore.
+ * <p>
+ * Publishing JVMs rewrite their files on every check, so a file that was not modified for {@link #STALE_STATE_MILLIS}
+ * is left over by a JVM that was killed before it could delete it. Such files are ignored and deleted, so that holds
+ * and waits of dead JVMs do not show up as a deadlock.
+ */
+final class WaitForGraph {
+
+    static final String FILE_PREFIX = "waitfor_";
+    private static final long CHECK_INTERVAL_MILLIS = 5_000L;
+    static final long STALE_STATE_MILLIS = 2 * CHECK_INTERVAL_MILLIS;
+    private static final String HOLD = "H";
+    private static final String WAIT = "W";
+    private static final String FIELD_SEPARATOR = "\t";
+
+    Path syncFolderPath;
+    long pid;
+    Path stateFilePath;
+    ConcurrentMap<Entry, Boolean> waiting = new ConcurrentHashMap<>();
+    ConcurrentMap<LockHolder, Entry> holding = new ConcurrentHashMap<>();
+    AtomicBoolean watchdogStarted = new AtomicBoolean();
+    @NonFinal
+    @Nullable
+    String previousCycle;
+    @NonFinal
+    @Nullable
+    String reportedCycle;
+
+    WaitForGraph(Path syncFolderPath, long pid) {
+        this.syncFolderPath = syncFolderPath;
+        this.pid = pid;
+        this.stateFilePath = syncFolderPath.resolve(FILE_PREFIX + pid);
+    }
+
+    Entry waitStarted(SyncTag syncTag, String testId) {
+        val entry = new Entry(syncTag.testTag().getName(), testId, System.currentTimeMillis());
+        waiting.put(entry, Boolean.TRUE);
+        if (!watchdogStarted.get() && watchdogStarted.compareAndSet(false, true)) {
+            startWatchdog();
+        }
+        return entry;
+    }
+
+    void waitFinished(Entry entry, @Nullable LockHolder lockHolder) {
+        waiting.remove(entry);
+        if (lockHolder != null) {
+            holding.put(lockHolder, entry);
+        }
+    }
+
+    void held(SyncTag syncTag, String testId, LockHolder lockHolder) {
+        holding.put(lockHolder, new Entry(syncTag.testTag().getName(), testId, System.currentTimeMillis()));
+    }
+
+    void released(LockHolder lockHolder) {
+        holding.remove(lockHolder);
+    }
+
+    private void startWatchdog() {
+        val watchdog = new Thread(this::runWatchdog, "testsync-wait-for-graph");
+        watchdog.setDaemon(true);
+        watchdog.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::deleteStateFile, "testsync-wait-for-graph-cleanup"));
+    }
+
+    private void runWatchdog() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Thread.sleep(CHECK_INTERVAL_MILLIS);
+                check();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void check() {
+        check(System.currentTimeMillis());
+    }
+
+    /**
+     * @param now current time in milliseconds, waits that started at least {@link #CHECK_INTERVAL_MILLIS} earlier are long
+     * @return description of the cycle found by this check, or null if there is none
+     */
+    @Nullable
+    String check(long now) {
+        try {
+            if (!hasLongWait(now)) {
+                previousCycle = null;
+                deleteStateFile();
+                return null;
+            }
+            writeState();
+            val cycle = findCycle(readStates());
+            if (cycle == null) {
+                previousCycle = null;
+                return null;
+            }
+            if (cycle.equals(previousCycle) && !cycle.equals(reportedCycle)) {
+                printReport("Potential deadlock detected, test JVMs are waiting for each other:" + System.lineSeparator() + cycle);
+                reportedCycle = cycle;
+            }
+            previousCycle = cycle;
+            return cycle;
+        } catch (Exception e) {
+            printErr("Failed to check wait-for graph in folder [" + syncFolderPath + "] - " + e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean hasLongWait(long now) {
+        for (val entry : waiting.keySet()) {
+            if (now - entry.since >= CHECK_INTERVAL_MILLIS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeState() throws Exception {
+        val lines = new ArrayList<String>();
+        for (val entry : holding.values()) {
+            lines.add(HOLD + FIELD_SEPARATOR + entry.tag + FIELD_SEPARATOR + entry.testId);
+        }
+        for (val entry : waiting.keySet()) {
+            lines.add(WAIT + FIELD_SEPARATOR + entry.tag + FIELD_SEPARATOR + entry.testId);
+        }
+        val tmpFilePath = syncFolderPath.resolve(stateFilePath.getFileName() + ".tmp");
+        Files.write(tmpFilePath, lines, StandardCharsets.UTF_8);
+        Files.move(tmpFilePath, stateFilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Map<Long, JvmState> readStates() throws Exception {
+        val states = new HashMap<Long, JvmState>();
+        val staleBefore = System.currentTimeMillis() - STALE_STATE_MILLIS;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(syncFolderPath, FILE_PREFIX + "*")) {
+            for (val file : files) {
+                val fileName = file.getFileName().toString();
+                if (fileName.endsWith(".tmp")) {
+                    continue;
+                }
+                final long filePid;
+                try {
+                    filePid = Long.parseLong(fileName.substring(FILE_PREFIX.length()));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                final List<String> lines;
+                try {
+                    if (filePid != pid && Files.getLastModifiedTime(file).toMillis() < staleBefore) {
+                        Files.deleteIfExists(file);
+                        continue;
+                    }
+                    lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                val state = new JvmState();
+                for (val line : lines) {
+                    val fields = line.split(FIELD_SEPARATOR, 3);
+                    if (fields.length == 3) {
+                        val target = HOLD.equals(fields[0]) ? state.holds : state.waits;
+                        target.add(fields[1] + FIELD_SEPARATOR + fields[2]);
+                    }
+                }
+                states.put(filePid, state);
+            }
+        }
+        return states;
+    }
+
+    /**
+     * @return description of a cycle that includes the current JVM, starting from the lowest pid, or null if there is no cycle
+     */
+    @Nullable
+    private String findCycle(Map<Long, JvmState> states) {
+        val edges = new HashMap<Long, Set<Long>>();
+        for (val waiter : states.entrySet()) {
+            val waitedTags = tags(waiter.getValue().waits);
+            for (val holder : states.entrySet()) {
+                if (!holder.getKey().equals(waiter.getKey()) && !Collections.disjoint(waitedTags, tags(holder.getValue().holds))) {
+                    edges.computeIfAbsent(waiter.getKey(), key -> new TreeSet<>()).add(holder.getKey());
+                }
+            }
+        }
+        val path = new ArrayList<Long>();
+        if (!findPathBack(pid, edges, path, new HashSet<>())) {
+            return null;
+        }
+        var minIdx = 0;
+        for (var i = 1; i < path.size(); i++) {
+            if (path.get(i) < path.get(minIdx)) {
+                minIdx = i;
+            }
+        }
+        val description = new StringBuilder();
+        for (var i = 0; i < path.size(); i++) {
+            val cyclePid = path.get((minIdx + i) % path.size());
+            val state = states.get(cyclePid);
+            description.append("  JVM with pid [").append(cyclePid).append("] holds ").append(state.holds)
+                .append(" and waits for ").append(state.waits).append(System.lineSeparator());
+        }
+        return description.toString();
+    }
+
+    private boolean findPathBack(long current, Map<Long, Set<Long>> edges, List<Long> path, Set<Long> visited) {
+        path.add(current);
+        visited.add(current);
+        for (val next : edges.getOrDefault(current, Collections.emptySet())) {
+            if (next == pid) {
+                return true;
+            }
+            if (!visited.contains(next) && findPathBack(next, edges, path, visited)) {
+                return true;
+            }
+        }
+        path.remove(path.size() - 1);
+        return false;
+    }
+
+    private static Set<String> tags(List<String> entries) {
+        val tags = new HashSet<String>();
+        for (val entry : entries) {
+            tags.add(entry.substring(0, entry.indexOf(FIELD_SEPARATOR)));
+        }
+        return tags;
+    }
+
+    private void deleteStateFile() {
+        try {
+            Files.deleteIfExists(stateFilePath);
+        } catch (Exception e) {
+            printErr("Failed to delete wait-for graph file [" + stateFilePath + "] - " + e.getMessage());
+        }
+    }
+
+    @RequiredArgsConstructor
+    static final class Entry {
+
+        String tag;
+        String testId;
+        long since;
+    }
+
+    static final class JvmState {
+
+        List<String> holds = new ArrayList<>();
+        List<String> waits = new ArrayList<>();
+    }
+}
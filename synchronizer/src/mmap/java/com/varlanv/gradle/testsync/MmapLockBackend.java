@@ -0,0 +1,266 @@
+package com.varlanv.gradle.testsync;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLockInterruptionException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link LockBackend} that coordinates JVMs through a single memory-mapped control file in the sync folder, instead
+ * of a file lock per tag. Uncontended acquire and release are a couple of CAS instructions on shared memory, with no
+ * system calls. Lives in a separate source set, because the synchronizer targets Java 8, and is loaded reflectively
+ * by {@link MmapLockBackendProvider}.
+ * <p>
+ * Control file is a hash table of {@link #ENTRIES} entries of {@link #ENTRY_SIZE} bytes, keyed by hash of the sync file
+ * name, so that JVMs agree on the entry of a tag regardless of the tags each of them is configured with. An entry is:
+ * <ul>
+ *     <li>key, 0 for a free entry</li>
+ *     <li>state: mode of current holders in the high byte and their number in the low bits</li>
+ *     <li>pid of a JVM waiting for exclusive lock, new permit and shared holders are not let in while it is set,
+ *     so that a stream of them can not starve exclusive holders</li>
+ *     <li>pids of current holders, used to recover locks of JVMs that died while holding them</li>
+ * </ul>
+ * Waiters spin for a short while, and then park with exponential backoff, since there is no way to wake up
+ * a thread of another process. A JVM killed exactly between the update of the state and of its pid entry leaks
+ * one hold until the end of the build, this window is a few instructions long.
+ */
+final class MmapLockBackend implements LockBackend {
+
+    static final int ENTRIES = 512;
+    static final int ENTRY_SIZE = 512;
+    private static final int KEY_OFFSET = 0;
+    private static final int STATE_OFFSET = 8;
+    private static final int EXCLUSIVE_WAITER_OFFSET = 16;
+    private static final int OWNERS_OFFSET = 24;
+    static final int OWNERS = (ENTRY_SIZE - OWNERS_OFFSET) / Long.BYTES;
+    private static final int MODE_SHIFT = 56;
+    private static final long COUNT_MASK = 0xFFFFFFFFL;
+    private static final long MODE_NONE = 0;
+    private static final long MODE_PERMIT = 1;
+    private static final long MODE_SHARED = 2;
+    private static final long MODE_EXCLUSIVE = 3;
+    private static final int SPINS = 100;
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(20);
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final long LIVENESS_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final Integer[] OWNER_TOKENS = new Integer[OWNERS];
+
+    static {
+        for (int i = 0; i < OWNERS; i++) {
+            OWNER_TOKENS[i] = i;
+        }
+    }
+
+    private final MappedByteBuffer buffer;
+    private final long pid;
+
+    MmapLockBackend(Path syncFolderPath) throws IOException {
+        this(syncFolderPath, ProcessHandle.current().pid());
+    }
+
+    MmapLockBackend(Path syncFolderPath, long pid) throws IOException {
+        try (FileChannel channel = FileChannel.open(
+            syncFolderPath.resolve(Constants.MMAP_LOCKS_FILE_NAME),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE
+        )) {
+            // one spare entry at the end, so that JVMs that extend the file at the same time never touch live entries
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) (ENTRIES + 1) * ENTRY_SIZE);
+        }
+        this.pid = pid;
+    }
+
+    @Override
+    public ProcessLock processLock(Tag tag) {
+        if (tag.permits() > OWNERS) {
+            throw new IllegalArgumentException(
+                "Memory-mapped lock backend supports up to " + OWNERS + " permits, but tag [" + tag.name()
+                    + "] has " + tag.permits()
+            );
+        }
+        return new TagLock(entry(tag.fileName()), tag.permits(), tag.fileName());
+    }
+
+    private int entry(String fileName) {
+        final long key = key(fileName);
+        final int start = (int) Long.remainderUnsigned(key, ENTRIES);
+        for (int i = 0; i < ENTRIES; i++) {
+            final int entry = ((start + i) % ENTRIES) * ENTRY_SIZE;
+            final long existing = (long) LONGS.getVolatile(buffer, entry + KEY_OFFSET);
+            if (existing == key) {
+                return entry;
+            }
+            if (existing == 0L) {
+                if (LONGS.compareAndSet(buffer, entry + KEY_OFFSET, 0L, key)
+                    || (long) LONGS.getVolatile(buffer, entry + KEY_OFFSET) == key) {
+                    return entry;
+                }
+            }
+        }
+        throw new IllegalStateException("No free entry left in control file for sync file [" + fileName + "]");
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the file name, never 0.
+     */
+    static long key(String fileName) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < fileName.length(); i++) {
+            hash ^= fileName.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0L ? 1L : hash;
+    }
+
+    private static boolean isAlive(long pid) {
+        return ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
+    }
+
+    final class TagLock implements ProcessLock {
+
+        private final int entry;
+        private final int permits;
+        private final String fileName;
+
+        TagLock(int entry, int permits, String fileName) {
+            this.entry = entry;
+            this.permits = permits;
+            this.fileName = fileName;
+        }
+
+        @Override
+        public Object lock(LockMode mode, int slot) throws IOException {
+            int spins = 0;
+            long parkNanos = MIN_PARK_NANOS;
+            long lastLivenessCheck = System.nanoTime();
+            try {
+                while (true) {
+                    final Object lock = tryAcquire(mode, true);
+                    if (lock != null) {
+                        return lock;
+                    }
+                    if (spins < SPINS) {
+                        spins++;
+                        Thread.onSpinWait();
+                        continue;
+                    }
+                    LockSupport.parkNanos(parkNanos);
+                    parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new FileLockInterruptionException();
+                    }
+                    final long now = System.nanoTime();
+                    if (now - lastLivenessCheck > LIVENESS_CHECK_NANOS) {
+                        lastLivenessCheck = now;
+                        recoverDeadHolders();
+                    }
+                }
+            } finally {
+                if (mode == LockMode.EXCLUSIVE) {
+                    LONGS.compareAndSet(buffer, entry + EXCLUSIVE_WAITER_OFFSET, pid, 0L);
+                }
+            }
+        }
+
+        @Override
+        public Object tryLock(LockMode mode, int slot) {
+            return tryAcquire(mode, false);
+        }
+
+        @Override
+        public void release(Object lock) {
+            final int owner = (Integer) lock;
+            LONGS.setVolatile(buffer, ownerOffset(owner), 0L);
+            decrement();
+        }
+
+        private Object tryAcquire(LockMode mode, boolean waiting) {
+            while (true) {
+                final long state = (long) LONGS.getVolatile(buffer, entry + STATE_OFFSET);
+                final long heldMode = state >>> MODE_SHIFT;
+                final long count = state & COUNT_MASK;
+                final long next;
+                if (mode == LockMode.EXCLUSIVE) {
+                    if (heldMode != MODE_NONE) {
+                        if (waiting) {
+                            LONGS.compareAndSet(buffer, entry + EXCLUSIVE_WAITER_OFFSET, 0L, pid);
+                        }
+                        return null;
+                    }
+                    next = (MODE_EXCLUSIVE << MODE_SHIFT) | 1L;
+                } else {
+                    final long exclusiveWaiter = (long) LONGS.getVolatile(buffer, entry + EXCLUSIVE_WAITER_OFFSET);
+                    if (exclusiveWaiter != 0L) {
+                        return null;
+                    }
+                    final long requestedMode = mode == LockMode.SHARED ? MODE_SHARED : MODE_PERMIT;
+                    final long limit = mode == LockMode.SHARED ? OWNERS : permits;
+                    if (heldMode != MODE_NONE && (heldMode != requestedMode || count >= limit)) {
+                        return null;
+                    }
+                    next = (requestedMode << MODE_SHIFT) | (count + 1);
+                }
+                if (LONGS.compareAndSet(buffer, entry + STATE_OFFSET, state, next)) {
+                    final Object lock = registerOwner();
+                    if (lock == null) {
+                        decrement();
+                    }
+                    return lock;
+                }
+            }
+        }
+
+        private Object registerOwner() {
+            for (int owner = 0; owner < OWNERS; owner++) {
+                if (LONGS.compareAndSet(buffer, ownerOffset(owner), 0L, pid)) {
+                    return OWNER_TOKENS[owner];
+                }
+            }
+            return null;
+        }
+
+        private void decrement() {
+            while (true) {
+                final long state = (long) LONGS.getVolatile(buffer, entry + STATE_OFFSET);
+                final long count = state & COUNT_MASK;
+                final long next = count <= 1 ? 0L : state - 1;
+                if (LONGS.compareAndSet(buffer, entry + STATE_OFFSET, state, next)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Releases holds and exclusive wait of JVMs that are no longer alive.
+         */
+        void recoverDeadHolders() {
+            for (int owner = 0; owner < OWNERS; owner++) {
+                final long ownerPid = (long) LONGS.getVolatile(buffer, ownerOffset(owner));
+                if (ownerPid != 0L && ownerPid != pid && !isAlive(ownerPid)
+                    && LONGS.compareAndSet(buffer, ownerOffset(owner), ownerPid, 0L)) {
+                    decrement();
+                    JunitSynchronizingTestListener.printErr(
+                        "Released lock of file [" + fileName + "] held by process [" + ownerPid + "] that is no longer alive"
+                    );
+                }
+            }
+            final long exclusiveWaiter = (long) LONGS.getVolatile(buffer, entry + EXCLUSIVE_WAITER_OFFSET);
+            if (exclusiveWaiter != 0L && exclusiveWaiter != pid && !isAlive(exclusiveWaiter)) {
+                LONGS.compareAndSet(buffer, entry + EXCLUSIVE_WAITER_OFFSET, exclusiveWaiter, 0L);
+            }
+        }
+
+        private int ownerOffset(int owner) {
+            return entry + OWNERS_OFFSET + owner * Long.BYTES;
+        }
+    }
+}
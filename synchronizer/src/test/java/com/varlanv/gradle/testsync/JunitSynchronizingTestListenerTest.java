@@ -2,21 +2,67 @@ package com.varlanv.gradle.testsync;
 
 import com.varlanv.gradle.plugin.BaseTest;
 import com.varlanv.gradle.plugin.UnitTest;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.parallel.ResourceLock;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
+import org.junit.platform.engine.EngineDiscoveryRequest;
+import org.junit.platform.engine.ExecutionRequest;
+import org.junit.platform.engine.TestDescriptor;
+import org.junit.platform.engine.TestEngine;
+import org.junit.platform.engine.TestSource;
 import org.junit.platform.engine.TestTag;
+import org.junit.platform.engine.UniqueId;
+import org.junit.platform.engine.support.descriptor.AbstractTestDescriptor;
+import org.junit.platform.engine.support.descriptor.ClassSource;
+import org.junit.platform.engine.support.descriptor.EngineDescriptor;
+import org.junit.platform.engine.support.descriptor.MethodSource;
+import org.junit.platform.launcher.TestIdentifier;
+import org.junit.platform.launcher.TestPlan;
+import org.junit.platform.launcher.core.LauncherConfig;
+import org.junit.platform.launcher.core.LauncherDiscoveryRequestBuilder;
+import org.junit.platform.launcher.core.LauncherFactory;
+import org.opentest4j.TestAbortedException;
 
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class JunitSynchronizingTestListenerTest implements BaseTest {
 
+    private static final String LOCK_WAIT_TIMEOUTS = "LockWaitTimeouts";
+
     String syncSysProperty = "fakeSyncSysProperty";
     String syncSysPropertySeparator = Constants.SYNC_PROPERTY_SEPARATOR;
     String syncTagSeparator = Constants.TAG_SEPARATOR;
@@ -149,4 +195,1378 @@ public class JunitSynchronizingTestListenerTest implements BaseTest {
             assertThat(subject.array()).isEmpty();
         }
     }
+
+    @Nested
+    class SyncTagTest implements UnitTest {
+
+        @Test
+        @DisplayName("should take whichever slot frees up first when all slots are held by other JVMs")
+        void should_take_whichever_slot_frees_up_first_when_all_slots_are_held_by_other_jvms() throws Exception {
+            var processLock = new SemaphoreProcessLock(2, true);
+            var slotLocks = processLock.slotLocks;
+            var subject = new SyncTag("syncfile", TestTag.create("qwe"), SyncTagOptions.defaults().permits(2)).processLock(tag -> processLock);
+            // other JVMs hold both slots
+            slotLocks[0].acquire();
+            slotLocks[1].acquire();
+
+            var waiter = CompletableFuture.supplyAsync(subject::acquire);
+            Thread.sleep(100);
+            assertThat(waiter).isNotDone();
+
+            slotLocks[1].release();
+            var holder = waiter.get(5, TimeUnit.SECONDS);
+            assertThat(holder).isNotNull();
+            assertThat(holder.slot()).isEqualTo(1);
+            holder.release();
+            slotLocks[0].release();
+        }
+
+        @Test
+        @DisplayName("should make second thread wait for lock when lock is already held by the same JVM")
+        void should_make_second_thread_wait_for_lock_when_lock_is_already_held_by_the_same_jvm() {
+            useTempFile(file -> {
+                try (var channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    var subject = new SyncTag(file.toString(), TestTag.create("qwe"), channel);
+                    var first = subject.acquire();
+                    assertThat(first).isNotNull();
+
+                    var second = CompletableFuture.supplyAsync(subject::acquire);
+                    Thread.sleep(100);
+                    assertThat(second).isNotDone();
+
+                    first.release();
+                    var secondHolder = second.get(5, TimeUnit.SECONDS);
+                    assertThat(secondHolder).isNotNull();
+                    secondHolder.release();
+                }
+            });
+        }
+
+        @Test
+        @DisplayName("should allow as many concurrent holders as there are permits")
+        void should_allow_as_many_concurrent_holders_as_there_are_permits() {
+            useTempFile(file -> {
+                try (var channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    var subject = new SyncTag(file.toString(), TestTag.create("qwe"), channel, 2);
+                    var first = subject.acquire();
+                    var second = subject.acquire();
+                    assertThat(first).isNotNull();
+                    assertThat(second).isNotNull();
+
+                    var third = CompletableFuture.supplyAsync(subject::acquire);
+                    Thread.sleep(100);
+                    assertThat(third).isNotDone();
+
+                    second.release();
+                    var thirdHolder = third.get(5, TimeUnit.SECONDS);
+                    assertThat(thirdHolder).isNotNull();
+                    first.release();
+                    thirdHolder.release();
+                }
+            });
+        }
+
+        @Test
+        @DisplayName("should parse permits option from sync property")
+        void should_parse_permits_option_from_sync_property() {
+            useTempFile(file -> {
+                System.setProperty(
+                    syncSysProperty,
+                    "qwe" + syncTagSeparator + file.toAbsolutePath()
+                        + syncTagSeparator + Constants.SYNC_OPTION_PERMITS + Constants.SYNC_OPTION_SEPARATOR + "4"
+                );
+                var subject = new JunitSynchronizingTestListener.SyncTagsFromSystemProperty(
+                    syncSysProperty,
+                    syncSysPropertySeparator,
+                    syncTagSeparator
+                );
+
+                var array = subject.array();
+                assertThat(array).hasSize(1);
+                assertThat(array[0].permits()).isEqualTo(4);
+            });
+        }
+
+        @Test
+        @DisplayName("should allow concurrent shared holders and make exclusive holder wait for them")
+        void should_allow_concurrent_shared_holders_and_make_exclusive_holder_wait_for_them() {
+            useTempFile(file -> {
+                try (var channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    var subject = new SyncTag(file.toString(), TestTag.create("qwe"), channel);
+                    var firstShared = subject.acquire(LockMode.SHARED);
+                    var secondShared = CompletableFuture.supplyAsync(() -> subject.acquire(LockMode.SHARED)).get(5, TimeUnit.SECONDS);
+                    assertThat(firstShared).isNotNull();
+                    assertThat(secondShared).isNotNull();
+
+                    var exclusive = CompletableFuture.supplyAsync(() -> subject.acquire(LockMode.EXCLUSIVE));
+                    Thread.sleep(100);
+                    assertThat(exclusive).isNotDone();
+
+                    firstShared.release();
+                    Thread.sleep(100);
+                    assertThat(exclusive).isNotDone();
+
+                    secondShared.release();
+                    var exclusiveHolder = exclusive.get(5, TimeUnit.SECONDS);
+                    assertThat(exclusiveHolder).isNotNull();
+                    exclusiveHolder.release();
+                }
+            });
+        }
+
+        @Test
+        @DisplayName("should not wait in tryAcquire when lock is already held")
+        void should_not_wait_in_try_acquire_when_lock_is_already_held() {
+            useTempFile(file -> {
+                try (var channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    var subject = new SyncTag(file.toString(), TestTag.create("qwe"), channel);
+                    var first = subject.tryAcquire(LockMode.PERMIT);
+                    assertThat(first).isNotNull();
+
+                    var second = CompletableFuture.supplyAsync(() -> subject.tryAcquire(LockMode.EXCLUSIVE)).get(5, TimeUnit.SECONDS);
+                    assertThat(second).isNull();
+
+                    first.release();
+                    var third = subject.tryAcquire(LockMode.EXCLUSIVE);
+                    assertThat(third).isNotNull();
+                    third.release();
+                }
+            });
+        }
+    }
+
+    @Nested
+    class LockTraceTest implements UnitTest {
+
+        @Test
+        @DisplayName("should record lock events into trace file")
+        void should_record_lock_events_into_trace_file() {
+            useTempDir(dir -> {
+                var syncFile = Files.createFile(dir.resolve("syncfile"));
+                try (var channel = FileChannel.open(syncFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    var tags = new SyncTag[]{new SyncTag(syncFile.toString(), TestTag.create("qwe"), channel)};
+                    var subject = LockTrace.create(dir, 42L, ":module:test", tags);
+                    assertThat(subject.enabled()).isTrue();
+
+                    subject.requested(0, "test-id");
+                    subject.acquired(0, "test-id");
+                    subject.released(0, "test-id");
+
+                    var bytes = ByteBuffer.wrap(Files.readAllBytes(dir.resolve(Constants.TRACE_FILE_PREFIX + 42)));
+                    assertThat(bytes.getInt(0)).isEqualTo(Constants.TRACE_MAGIC);
+                    assertThat(bytes.getLong(8)).isEqualTo(42L);
+                    assertThat(bytes.getInt(36)).isEqualTo(1);
+                    assertThat(bytes.getLong(40)).isEqualTo(3L);
+                    var events = new ArrayList<Integer>();
+                    for (var i = 0; i < 3; i++) {
+                        var offset = Constants.TRACE_HEADER_SIZE + i * Constants.TRACE_RECORD_SIZE;
+                        assertThat(bytes.getLong(offset)).isEqualTo(i + 1L);
+                        assertThat(bytes.getInt(offset + 16)).isEqualTo(42);
+                        assertThat(bytes.getInt(offset + 24)).isEqualTo(0);
+                        assertThat(bytes.getInt(offset + 28)).isEqualTo("test-id".hashCode());
+                        events.add(bytes.getInt(offset + 20));
+                    }
+                    assertThat(events).containsExactly(
+                        Constants.TRACE_EVENT_REQUESTED,
+                        Constants.TRACE_EVENT_ACQUIRED,
+                        Constants.TRACE_EVENT_RELEASED
+                    );
+                }
+            });
+        }
+
+        @Test
+        @DisplayName("should write test names into trace file as soon as tests request their locks")
+        void should_write_test_names_into_trace_file_as_soon_as_tests_request_their_locks() {
+            useTempDir(dir -> {
+                var tags = new SyncTag[]{new SyncTag("syncfile", TestTag.create("qwe"), SyncTagOptions.defaults())};
+                var subject = LockTrace.create(dir, 42L, ":module:test", tags);
+
+                subject.testStarted("[test:first]");
+                subject.testStarted("[test:\u0444\uD83D\uDE00]");
+
+                // read without the test plan finishing, as if the JVM crashed right after
+                var bytes = ByteBuffer.wrap(Files.readAllBytes(dir.resolve(Constants.TRACE_FILE_PREFIX + 42)));
+                var offset = Constants.TRACE_HEADER_SIZE + Constants.TRACE_CAPACITY * Constants.TRACE_RECORD_SIZE;
+                var names = new ArrayList<String>();
+                while (bytes.getInt(offset) > 0) {
+                    var length = bytes.getInt(offset);
+                    var name = new String(bytes.array(), offset + 8, length, StandardCharsets.UTF_8);
+                    assertThat(bytes.getInt(offset + 4)).isEqualTo(name.hashCode());
+                    names.add(name);
+                    offset += 8 + length;
+                }
+                assertThat(names).containsExactly("[test:first]", "[test:\u0444\uD83D\uDE00]");
+            });
+        }
+    }
+
+    @Nested
+    class MmapLockBackendTest implements UnitTest {
+
+        @Test
+        @DisplayName("should exclude permit holders of other JVMs while exclusive lock is held")
+        void should_exclude_permit_holders_of_other_jvms_while_exclusive_lock_is_held() {
+            useTempDir(dir -> {
+                var syncFile = Files.createFile(dir.resolve("syncfile")).toString();
+                var first = new MmapLockBackend(dir, 1L).processLock(new SyncTag(syncFile, TestTag.create("qwe"), SyncTagOptions.defaults().permits(2)));
+                var second = new MmapLockBackend(dir, 2L).processLock(new SyncTag(syncFile, TestTag.create("qwe"), SyncTagOptions.defaults().permits(2)));
+
+                var exclusive = first.tryLock(LockMode.EXCLUSIVE, -1);
+                assertThat(exclusive).isNotNull();
+                assertThat(second.tryLock(LockMode.PERMIT, 0)).isNull();
+
+                first.release(exclusive);
+                var firstPermit = second.tryLock(LockMode.PERMIT, 0);
+                var secondPermit = first.tryLock(LockMode.PERMIT, 0);
+                assertThat(firstPermit).isNotNull();
+                assertThat(secondPermit).isNotNull();
+                assertThat(second.tryLock(LockMode.PERMIT, 1)).isNull();
+                assertThat(first.tryLock(LockMode.SHARED, -1)).isNull();
+
+                second.release(firstPermit);
+                first.release(secondPermit);
+                assertThat(second.tryLock(LockMode.SHARED, -1)).isNotNull();
+            });
+        }
+
+        @Test
+        @DisplayName("should recover lock held by process that is no longer alive")
+        void should_recover_lock_held_by_process_that_is_no_longer_alive() {
+            useTempDir(dir -> {
+                var syncFile = Files.createFile(dir.resolve("syncfile")).toString();
+                var dead = new MmapLockBackend(dir, Long.MAX_VALUE).processLock(new SyncTag(syncFile, TestTag.create("qwe"), SyncTagOptions.defaults()));
+                var alive = new MmapLockBackend(dir).processLock(new SyncTag(syncFile, TestTag.create("qwe"), SyncTagOptions.defaults()));
+                assertThat(dead.tryLock(LockMode.EXCLUSIVE, -1)).isNotNull();
+
+                var lock = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return alive.lock(LockMode.PERMIT, 0);
+                    } catch (Exception e) {
+                        throw BaseTest.hide(e);
+                    }
+                }).get(5, TimeUnit.SECONDS);
+                assertThat(lock).isNotNull();
+                alive.release(lock);
+            });
+        }
+    }
+
+    @Nested
+    class JfrLockEventsTest implements UnitTest {
+
+        @Test
+        @DisplayName("should record wait and hold events while a recording is running")
+        void should_record_wait_and_hold_events_while_a_recording_is_running() {
+            useTempDir(dir -> {
+                var syncTag = new SyncTag("syncfile", TestTag.create("qwe"), SyncTagOptions.defaults());
+                var subject = LockEvents.create();
+                assertThat(subject).isInstanceOf(JfrLockEvents.class);
+                // events are not recorded without a recording
+                assertThat(subject.beginWait()).isNull();
+                assertThat(subject.beginHold()).isNull();
+
+                var recordingFile = dir.resolve("recording.jfr");
+                try (var recording = new Recording()) {
+                    recording.enable("com.varlanv.testsync.LockWait");
+                    recording.enable("com.varlanv.testsync.LockHeld");
+                    recording.start();
+                    var wait = subject.beginWait();
+                    assertThat(wait).isNotNull();
+                    subject.waited(wait, syncTag, LockMode.PERMIT, "[test:jfr-wait]");
+                    var hold = subject.beginHold();
+                    assertThat(hold).isNotNull();
+                    subject.held(hold, syncTag, LockMode.EXCLUSIVE, "[test:jfr-hold]");
+                    recording.stop();
+                    recording.dump(recordingFile);
+                }
+
+                // other tests of the JVM may record their own events meanwhile
+                var events = RecordingFile.readAllEvents(recordingFile).stream()
+                    .filter(event -> event.getString("testId").startsWith("[test:jfr-"))
+                    .toList();
+                assertThat(events).hasSize(2);
+                var waitEvent = events.stream().filter(event -> event.getEventType().getName().equals("com.varlanv.testsync.LockWait")).findFirst().orElseThrow();
+                assertThat(waitEvent.getString("tag")).isEqualTo("qwe");
+                assertThat(waitEvent.getString("fileName")).isEqualTo("syncfile");
+                assertThat(waitEvent.getString("mode")).isEqualTo("PERMIT");
+                assertThat(waitEvent.getString("testId")).isEqualTo("[test:jfr-wait]");
+                var heldEvent = events.stream().filter(event -> event.getEventType().getName().equals("com.varlanv.testsync.LockHeld")).findFirst().orElseThrow();
+                assertThat(heldEvent.getString("mode")).isEqualTo("EXCLUSIVE");
+                assertThat(heldEvent.getString("testId")).isEqualTo("[test:jfr-hold]");
+            });
+        }
+
+        @Test
+        @DisplayName("should not record anything without JFR")
+        void should_not_record_anything_without_jfr() {
+            useTempDir(dir -> {
+                var syncFile = Files.createFile(dir.resolve("syncfile"));
+                try (var channel = FileChannel.open(syncFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    var tags = new SyncTag[]{new SyncTag(syncFile.toString(), TestTag.create("qwe"), channel)};
+                    var subject = LockEvents.NOOP;
+                    assertThat(subject.beginWait()).isNull();
+                    assertThat(subject.beginHold()).isNull();
+                    subject.waited(null, tags[0], LockMode.PERMIT, "[test:first]");
+                    subject.held(null, tags[0], LockMode.PERMIT, "[test:first]");
+
+                    var lockAcquisition = new LockAcquisition(tags, new WaitForGraph(dir, 1L), Leases.create(dir, 1L, ":module:test"), LockTrace.disabled(), subject, false);
+                    var lockHolders = new LockHolder[1];
+                    lockAcquisition.acquire(new LockMode[]{LockMode.PERMIT}, 1, lockHolders, "[test:first]");
+                    assertThat(lockHolders[0]).isNotNull();
+                    assertThat(lockHolders[0].heldEvent()).isNull();
+                    lockAcquisition.release(lockHolders, "[test:first]");
+                }
+            });
+        }
+    }
+
+    @Nested
+    class LeasesTest implements UnitTest {
+
+        @Test
+        @DisplayName("should revoke lock held for longer than its lease and hand it over to the waiter")
+        void should_revoke_lock_held_for_longer_than_its_lease_and_hand_it_over_to_the_waiter() {
+            useTempDir(dir -> {
+                var syncFile = Files.createFile(dir.resolve("syncfile"));
+                try (var channel = FileChannel.open(syncFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    var subject = new SyncTag(syncFile.toString(), TestTag.create("qwe"), channel, SyncTagOptions.defaults().leaseMillis(500));
+                    var leases = Leases.create(dir, 1L, ":module:test");
+                    var holder = subject.acquire();
+                    leases.held(holder, "[test:first]");
+                    var now = System.currentTimeMillis();
+                    leases.renew(1L, now);
+                    var leaseLines = Files.readAllLines(dir.resolve(Leases.FILE_PREFIX + 1L));
+                    assertThat(leaseLines).hasSize(2);
+                    assertThat(leaseLines.get(0)).startsWith("1\t");
+                    assertThat(leaseLines.get(0)).endsWith("\t:module:test");
+                    assertThat(leaseLines.get(1)).startsWith("H\tqwe\t").endsWith("\t[test:first]");
+
+                    var waiter = CompletableFuture.supplyAsync(subject::acquire);
+                    Thread.sleep(100);
+                    assertThat(waiter).isNotDone();
+
+                    leases.renew(1L, now + 1_000L);
+                    var waiterHolder = waiter.get(5, TimeUnit.SECONDS);
+                    assertThat(waiterHolder).isNotNull();
+                    assertThat(dir.resolve(Leases.FILE_PREFIX + 1L)).doesNotExist();
+                    assertThat(holder.release()).isFalse();
+                    assertThat(waiterHolder.release()).isTrue();
+                }
+            });
+        }
+
+        @Test
+        @DisplayName("should give revoked lock back to other JVMs even if the tag is coalesced")
+        void should_give_revoked_lock_back_to_other_jvms_even_if_the_tag_is_coalesced() {
+            useTempDir(dir -> {
+                var processLock = new CountingProcessLock();
+                var subject = new SyncTag(
+                    "syncfile",
+                    TestTag.create("qwe"),
+                    SyncTagOptions.defaults().leaseMillis(500).coalesce(TimeUnit.MINUTES.toMillis(1), 0)
+                ).processLock(tag -> processLock);
+                var leases = Leases.create(dir, 1L, ":module:test");
+                var holder = subject.acquire();
+                leases.held(holder, "[test:first]");
+
+                leases.renew(1L, System.currentTimeMillis() + 1_000L);
+                assertThat(processLock.releases).hasValue(1);
+                assertThat(holder.release()).isFalse();
+
+                // nothing is retained, so the next test of the JVM has to take the process lock again
+                var next = subject.acquire();
+                assertThat(next).isNotNull();
+                assertThat(processLock.lockModes).hasSize(2);
+                next.release();
+                subject.releaseRetained();
+                assertThat(processLock.releases).hasValue(2);
+            });
+        }
+
+        @Test
+        @ResourceLock(LOCK_WAIT_TIMEOUTS)
+        @DisplayName("should give up waiting after max wait and name the holder")
+        void should_give_up_waiting_after_max_wait_and_name_the_holder() {
+            useTempDir(dir -> {
+                var syncFile = Files.createFile(dir.resolve("syncfile"));
+                try (var channel = FileChannel.open(syncFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    var tags = new SyncTag[]{new SyncTag(syncFile.toString(), TestTag.create("qwe"), channel, SyncTagOptions.defaults().maxWaitMillis(200))};
+                    var subject = new LockAcquisition(tags, new WaitForGraph(dir, 1L), Leases.create(dir, 1L, ":module:test"), LockTrace.disabled(), LockEvents.create(), false);
+                    var holderLocks = new LockHolder[1];
+                    subject.acquire(new LockMode[]{LockMode.PERMIT}, 1, holderLocks, "[engine:e]/[test:holder]");
+                    assertThat(holderLocks[0]).isNotNull();
+                    LockWaitTimeouts.enforcedIn("[engine:e]");
+
+                    var waiterLocks = new LockHolder[1];
+                    CompletableFuture.runAsync(() -> subject.acquire(new LockMode[]{LockMode.PERMIT}, 1, waiterLocks, "[engine:e]/[test:waiter]"))
+                        .get(5, TimeUnit.SECONDS);
+                    assertThat(waiterLocks[0]).isNull();
+                    var timeout = LockWaitTimeouts.find("[engine:e]/[test:waiter]");
+                    assertThat(timeout).isNotNull();
+                    assertThat(timeout.skip()).isFalse();
+                    assertThat(timeout.message()).contains("[qwe]", "test [[engine:e]/[test:holder]] of module [:module:test] in JVM with pid [1]");
+
+                    LockWaitTimeouts.finished("[engine:e]/[test:waiter]");
+                    subject.release(holderLocks, "[engine:e]/[test:holder]");
+                    assertThat(LockWaitTimeouts.isTimedOut("[engine:e]/[test:waiter]")).isFalse();
+                } finally {
+                    LockWaitTimeouts.reset();
+                }
+            });
+        }
+
+        @Test
+        @ResourceLock(LOCK_WAIT_TIMEOUTS)
+        @DisplayName("should keep waiting after max wait when timeout is not enforced for the test")
+        void should_keep_waiting_after_max_wait_when_timeout_is_not_enforced_for_the_test() {
+            useTempDir(dir -> {
+                var syncFile = Files.createFile(dir.resolve("syncfile"));
+                try (var channel = FileChannel.open(syncFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    var tags = new SyncTag[]{new SyncTag(syncFile.toString(), TestTag.create("qwe"), channel, SyncTagOptions.defaults().maxWaitMillis(100))};
+                    var subject = new LockAcquisition(tags, new WaitForGraph(dir, 1L), Leases.create(dir, 1L, ":module:test"), LockTrace.disabled(), LockEvents.create(), false);
+                    var holderLocks = new LockHolder[1];
+                    subject.acquire(new LockMode[]{LockMode.PERMIT}, 1, holderLocks, "[engine:e]/[test:holder]");
+                    assertThat(holderLocks[0]).isNotNull();
+
+                    var waiterLocks = new LockHolder[1];
+                    var waiter = CompletableFuture.runAsync(() -> subject.acquire(new LockMode[]{LockMode.PERMIT}, 1, waiterLocks, "[engine:e]/[test:waiter]"));
+                    Thread.sleep(400);
+                    assertThat(waiter).isNotDone();
+                    assertThat(LockWaitTimeouts.isTimedOut("[engine:e]/[test:waiter]")).isFalse();
+
+                    subject.release(holderLocks, "[engine:e]/[test:holder]");
+                    waiter.get(5, TimeUnit.SECONDS);
+                    assertThat(waiterLocks[0]).isNotNull();
+                    subject.release(waiterLocks, "[engine:e]/[test:waiter]");
+                }
+            });
+        }
+    }
+
+    @Nested
+    class TicketQueueTest implements UnitTest {
+
+        @Test
+        @DisplayName("should grant lock to queued waiters by priority and then in arrival order")
+        void should_grant_lock_to_queued_waiters_by_priority_and_then_in_arrival_order() {
+            useTempDir(dir -> {
+                var processLock = new SemaphoreProcessLock(1, false);
+                var queue = TicketQueue.open(dir.resolve("syncfile.queue"), 1L);
+                var holder = queue.lock(processLock, LockMode.EXCLUSIVE, -1, 1, 0, SyncTag.NO_DEADLINE);
+                assertThat(holder).isNotNull();
+
+                var order = new CopyOnWriteArrayList<String>();
+                var waiters = new ArrayList<CompletableFuture<Void>>();
+                var queued = 0;
+                for (var waiter : new String[]{"first:0", "second:0", "urgent:5"}) {
+                    waiters.add(CompletableFuture.runAsync(() -> {
+                        try {
+                            var priority = Integer.parseInt(waiter.substring(waiter.indexOf(':') + 1));
+                            var lock = queue.lock(processLock, LockMode.EXCLUSIVE, -1, 1, priority, SyncTag.NO_DEADLINE);
+                            order.add(waiter.substring(0, waiter.indexOf(':')));
+                            processLock.release(lock);
+                        } catch (Exception e) {
+                            throw BaseTest.hide(e);
+                        }
+                    }));
+                    // arrival order is the ticket order, so the next waiter starts only once this one took its ticket
+                    awaitQueueSize(queue, ++queued);
+                }
+                // lock is free, but waiters are queued, so it can not be taken around the queue
+                processLock.release(holder);
+                assertThat(queue.tryLock(processLock, LockMode.EXCLUSIVE, -1)).isNull();
+
+                CompletableFuture.allOf(waiters.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+                assertThat(order).containsExactly("urgent", "first", "second");
+                var lock = queue.tryLock(processLock, LockMode.EXCLUSIVE, -1);
+                assertThat(lock).isNotNull();
+                processLock.release(lock);
+            });
+        }
+
+        @Test
+        @DisplayName("should wait for the lock without holding the queue when the queue is full")
+        void should_wait_for_the_lock_without_holding_the_queue_when_the_queue_is_full() {
+            useTempDir(dir -> {
+                var processLock = new SemaphoreProcessLock(1, false);
+                var queuePath = dir.resolve("syncfile.queue");
+                try (var channel = FileChannel.open(queuePath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                    // next ticket and number of entries, as if other JVMs filled up the queue
+                    channel.write(ByteBuffer.allocate(8).putInt(0).putInt(Integer.MAX_VALUE).flip());
+                }
+                var queue = TicketQueue.open(queuePath, 1L);
+                var holder = processLock.tryLock(LockMode.EXCLUSIVE, -1);
+                assertThat(holder).isNotNull();
+
+                var waiter = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return queue.lock(processLock, LockMode.EXCLUSIVE, -1, 1, 0, SyncTag.NO_DEADLINE);
+                    } catch (Exception e) {
+                        throw BaseTest.hide(e);
+                    }
+                });
+                Thread.sleep(100);
+                assertThat(waiter).isNotDone();
+                // queue is not held by the waiter, so other threads of the JVM can still use it
+                var other = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return queue.tryLock(processLock, LockMode.EXCLUSIVE, -1);
+                    } catch (Exception e) {
+                        throw BaseTest.hide(e);
+                    }
+                });
+                assertThat(other.get(5, TimeUnit.SECONDS)).isNull();
+
+                processLock.release(holder);
+                var lock = waiter.get(5, TimeUnit.SECONDS);
+                assertThat(lock).isNotNull();
+                processLock.release(lock);
+            });
+        }
+    }
+
+    @Nested
+    class LockCoalescingTest implements UnitTest {
+
+        @Test
+        @DisplayName("should keep process lock between consecutive holders until the test budget is used up")
+        void should_keep_process_lock_between_consecutive_holders_until_the_test_budget_is_used_up() {
+            useTempFile(file -> {
+                var processLock = new CountingProcessLock();
+                var subject = new SyncTag(
+                    file.toString(),
+                    TestTag.create("qwe"),
+                    SyncTagOptions.defaults().coalesce(TimeUnit.MINUTES.toMillis(1), 2)
+                ).processLock(tag -> processLock);
+
+                subject.acquire().release();
+                subject.acquire().release();
+                assertThat(processLock.lockModes).hasSize(1);
+                assertThat(processLock.releases).hasValue(1);
+
+                subject.acquire().release();
+                assertThat(processLock.lockModes).hasSize(2);
+                subject.releaseRetained();
+                assertThat(processLock.releases).hasValue(2);
+            });
+        }
+
+        @Test
+        @DisplayName("should give process lock back when the chain used up its time budget")
+        void should_give_process_lock_back_when_the_chain_used_up_its_time_budget() {
+            useTempFile(file -> {
+                var processLock = new CountingProcessLock();
+                var subject = new SyncTag(
+                    file.toString(),
+                    TestTag.create("qwe"),
+                    SyncTagOptions.defaults().coalesce(50, 0)
+                ).processLock(tag -> processLock);
+
+                subject.acquire().release();
+                var second = subject.acquire();
+                assertThat(processLock.lockModes).hasSize(1);
+                Thread.sleep(100);
+                second.release();
+                assertThat(processLock.releases).hasValue(1);
+
+                subject.acquire().release();
+                assertThat(processLock.lockModes).hasSize(2);
+                subject.releaseRetained();
+            });
+        }
+
+        @Test
+        @DisplayName("should give process lock back when nobody took it over within the linger time")
+        void should_give_process_lock_back_when_nobody_took_it_over_within_the_linger_time() {
+            useTempFile(file -> {
+                var processLock = new CountingProcessLock();
+                var subject = new SyncTag(
+                    file.toString(),
+                    TestTag.create("qwe"),
+                    SyncTagOptions.defaults().coalesce(TimeUnit.MINUTES.toMillis(1), 0)
+                ).processLock(tag -> processLock);
+
+                subject.acquire().release();
+                var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (processLock.releases.get() == 0 && System.nanoTime() < deadline) {
+                    Thread.sleep(1);
+                }
+                assertThat(processLock.releases).hasValue(1);
+
+                subject.acquire().release();
+                assertThat(processLock.lockModes).hasSize(2);
+                subject.releaseRetained();
+            });
+        }
+
+        @Test
+        @DisplayName("should give process lock back right away when another JVM is queued for the tag")
+        void should_give_process_lock_back_right_away_when_another_jvm_is_queued_for_the_tag() {
+            useTempDir(dir -> {
+                var syncFile = Files.createFile(dir.resolve("syncfile"));
+                try (var queueChannel = FileChannel.open(dir.resolve("syncfile.queue"), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                    // next ticket, number of entries and a waiter of another JVM, with lower priority so that it does not
+                    // get ahead of this JVM, queue is used for coalesced tags even without fifo
+                    queueChannel.write(ByteBuffer.allocate(24).putInt(1).putInt(1).putInt(0).putInt(-1).putLong(Long.MAX_VALUE).flip());
+                }
+                try (var channel = FileChannel.open(syncFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                     var otherJvmChannel = FileChannel.open(syncFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    var subject = new SyncTag(
+                        syncFile.toString(),
+                        TestTag.create("qwe"),
+                        channel,
+                        SyncTagOptions.defaults().coalesce(TimeUnit.MINUTES.toMillis(1), 0)
+                    );
+
+                    subject.acquire().release();
+
+                    // file lock is not held by this JVM anymore, otherwise locking it again would overlap
+                    var lock = otherJvmChannel.tryLock(0, 1, false);
+                    assertThat(lock).isNotNull();
+                    lock.release();
+                }
+            });
+        }
+    }
+
+    @Nested
+    class SharedWithinJvmTest implements UnitTest {
+
+        @Test
+        @DisplayName("should let tagged tests of the same jvm hold the tag together with a single exclusive process lock")
+        void should_let_tagged_tests_of_the_same_jvm_hold_the_tag_together_with_a_single_exclusive_process_lock() {
+            useTempFile(file -> {
+                var processLock = new CountingProcessLock();
+                var subject = new SyncTag(
+                    file.toString(),
+                    TestTag.create("qwe"),
+                    SyncTagOptions.defaults().sharedWithinJvm(true)
+                ).processLock(tag -> processLock);
+                var lockMode = LockIndex.lockMode(subject, Set.of(TestTag.create("qwe")), Map.of());
+                assertThat(lockMode).isEqualTo(LockMode.SHARED);
+
+                var first = subject.acquire(lockMode);
+                var second = CompletableFuture.supplyAsync(() -> subject.acquire(lockMode)).get(5, TimeUnit.SECONDS);
+                assertThat(first).isNotNull();
+                assertThat(second).isNotNull();
+                assertThat(processLock.lockModes).containsExactly(LockMode.EXCLUSIVE);
+
+                first.release();
+                assertThat(processLock.releases).hasValue(0);
+                second.release();
+                assertThat(processLock.releases).hasValue(1);
+            });
+        }
+    }
+
+    @Nested
+    @ResourceLock(LOCK_WAIT_TIMEOUTS)
+    class LockWaitTimeoutsTest implements UnitTest {
+
+        private static final String CLASS_ID = "[engine:junit-jupiter]/[class:com.example.SomeTest]";
+        private static final String TEST_ID = CLASS_ID + "/[method:test()]";
+
+        @AfterEach
+        void resetTimeouts() {
+            LockWaitTimeouts.reset();
+        }
+
+        @Test
+        @DisplayName("should fail test whose wait for a tag timed out")
+        void should_fail_test_whose_wait_for_a_tag_timed_out() {
+            LockWaitTimeouts.timedOut(TEST_ID, "waited for too long", false);
+            var extension = new LockWaitTimeoutExtension();
+            var classContext = extensionContext(CLASS_ID, null);
+
+            extension.beforeAll(classContext);
+            assertThatThrownBy(() -> extension.beforeEach(extensionContext(TEST_ID, classContext)))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("waited for too long");
+
+            LockWaitTimeouts.finished(TEST_ID);
+            extension.beforeEach(extensionContext(TEST_ID, classContext));
+        }
+
+        @Test
+        @DisplayName("should skip tests of container whose wait for a tag timed out")
+        void should_skip_tests_of_container_whose_wait_for_a_tag_timed_out() {
+            LockWaitTimeouts.timedOut(CLASS_ID, "waited for too long", true);
+            var extension = new LockWaitTimeoutExtension();
+            var classContext = extensionContext(CLASS_ID, null);
+
+            assertThatThrownBy(() -> extension.beforeAll(classContext))
+                .isInstanceOf(TestAbortedException.class)
+                .hasMessage("waited for too long");
+            assertThatThrownBy(() -> extension.beforeEach(extensionContext(TEST_ID, classContext)))
+                .isInstanceOf(TestAbortedException.class);
+        }
+
+        @Test
+        @DisplayName("should only give up waiting in containers that the extension runs for")
+        void should_only_give_up_waiting_in_containers_that_the_extension_runs_for() {
+            assertThat(LockWaitTimeouts.isEnforced(TEST_ID)).isFalse();
+
+            new LockWaitTimeoutExtension().beforeAll(extensionContext(CLASS_ID, null));
+
+            assertThat(LockWaitTimeouts.isEnforced(TEST_ID)).isTrue();
+            assertThat(LockWaitTimeouts.isEnforced(CLASS_ID)).isFalse();
+            assertThat(LockWaitTimeouts.isEnforced(CLASS_ID + "Other/[method:test()]")).isFalse();
+        }
+
+        @Test
+        @DisplayName("should match extension against auto-detection patterns")
+        void should_match_extension_against_auto_detection_patterns() {
+            assertThat(LockWaitTimeouts.matchesExtension("com.varlanv.gradle.testsync.*")).isTrue();
+            assertThat(LockWaitTimeouts.matchesExtension("org.example.*, *.LockWaitTimeoutExtension")).isTrue();
+            assertThat(LockWaitTimeouts.matchesExtension("com.varlanv.gradle.testsync.LockWaitTimeoutExtension")).isTrue();
+            assertThat(LockWaitTimeouts.matchesExtension("org.example.*")).isFalse();
+            assertThat(LockWaitTimeouts.matchesExtension("com.varlanv.gradle.testsync.Lock")).isFalse();
+        }
+
+        private ExtensionContext extensionContext(String uniqueId, ExtensionContext parent) {
+            return (ExtensionContext) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[]{ExtensionContext.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getUniqueId" -> uniqueId;
+                    case "getParent" -> Optional.ofNullable(parent);
+                    default -> throw new UnsupportedOperationException(method.getName());
+                }
+            );
+        }
+    }
+
+    @Nested
+    class LockAcquisitionTest implements UnitTest {
+
+        @Test
+        @DisplayName("should release partially acquired tags and wait for the tag held elsewhere when acquiring atomically")
+        void should_release_partially_acquired_tags_and_wait_for_the_tag_held_elsewhere_when_acquiring_atomically() {
+            useTempDir(dir -> {
+                var syncFileA = Files.createFile(dir.resolve("syncfile_a"));
+                var syncFileB = Files.createFile(dir.resolve("syncfile_b"));
+                try (var channelA = FileChannel.open(syncFileA, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                     var channelB = FileChannel.open(syncFileB, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    var tagA = new SyncTag(syncFileA.toString(), TestTag.create("a"), channelA);
+                    var tagB = new SyncTag(syncFileB.toString(), TestTag.create("b"), channelB);
+                    var subject = new LockAcquisition(new SyncTag[]{tagA, tagB}, new WaitForGraph(dir, 1L), Leases.create(dir, 1L, ":module:test"), LockTrace.disabled(), LockEvents.create(), true);
+                    var holderB = tagB.acquire();
+                    assertThat(holderB).isNotNull();
+
+                    var waiterLocks = new LockHolder[2];
+                    var waiter = CompletableFuture.runAsync(() -> subject.acquire(new LockMode[]{LockMode.PERMIT, LockMode.PERMIT}, 2, waiterLocks, "[test:waiter]"));
+                    Thread.sleep(200);
+                    assertThat(waiter).isNotDone();
+                    // waiter gave "a" back once "b" turned out to be taken, and waits in the queue of "b"
+                    assertThat(tagB.jvmLock().hasQueuedThreads()).isTrue();
+                    assertThat(tagA.jvmLock().hasQueuedThreads()).isFalse();
+                    var holderA = tagA.tryAcquire(LockMode.PERMIT);
+                    assertThat(holderA).isNotNull();
+                    holderA.release();
+
+                    holderB.release();
+                    waiter.get(5, TimeUnit.SECONDS);
+                    assertThat(waiterLocks[0]).isNotNull();
+                    assertThat(waiterLocks[1]).isNotNull();
+                    subject.release(waiterLocks, "[test:waiter]");
+                }
+            });
+        }
+    }
+
+    @Nested
+    class LockIndexTest implements UnitTest {
+
+        @Test
+        @DisplayName("should take earlier tags required by the subtree with the container that takes a scoped tag")
+        void should_take_earlier_tags_required_by_the_subtree_with_the_container_that_takes_a_scoped_tag() {
+            var tags = new SyncTag[]{
+                new SyncTag("syncfile_a", TestTag.create("a"), SyncTagOptions.defaults()),
+                new SyncTag("syncfile_b", TestTag.create("b"), SyncTagOptions.defaults().scope(SyncScope.TEMPLATE))
+            };
+            var testClass = classNode("TestClass");
+            var bothTags = templateNode(testClass, "bothTags", "a", "b");
+            var bothTagsInvocation = testNode(bothTags, "invocation", "a", "b");
+            var laterTag = templateNode(testClass, "laterTag", "b");
+            var laterTagInvocation = testNode(laterTag, "invocation", "b");
+            var plan = testPlan(testClass);
+            var subject = new LockIndex(tags, JupiterResourceLocks.create(false), true);
+
+            subject.planStarted(plan);
+
+            assertThat(subject.find(plan.getTestIdentifier(testClass.getUniqueId()))).isNull();
+            var bothTagsEntry = subject.find(plan.getTestIdentifier(bothTags.getUniqueId()));
+            assertThat(bothTagsEntry).isNotNull();
+            // template holds "b", so it also holds "a" that comes before it, instead of its test taking "a" after "b"
+            assertThat(bothTagsEntry.lockModes()).containsExactly(LockMode.PERMIT, LockMode.PERMIT);
+            var bothTagsInvocationEntry = subject.find(plan.getTestIdentifier(bothTagsInvocation.getUniqueId()));
+            assertThat(bothTagsInvocationEntry).isNotNull();
+            assertThat(bothTagsInvocationEntry.ancestors()).containsExactly(bothTagsEntry, bothTagsEntry);
+            var laterTagEntry = subject.find(plan.getTestIdentifier(laterTag.getUniqueId()));
+            assertThat(laterTagEntry).isNotNull();
+            assertThat(laterTagEntry.lockModes()).containsExactly(null, LockMode.PERMIT);
+            var laterTagInvocationEntry = subject.find(plan.getTestIdentifier(laterTagInvocation.getUniqueId()));
+            assertThat(laterTagInvocationEntry).isNotNull();
+            assertThat(laterTagInvocationEntry.ancestors()).containsExactly(null, laterTagEntry);
+        }
+
+        @Test
+        @DisplayName("should leave later tags to tests when the container takes a scoped tag")
+        void should_leave_later_tags_to_tests_when_the_container_takes_a_scoped_tag() {
+            var tags = new SyncTag[]{
+                new SyncTag("syncfile_a", TestTag.create("a"), SyncTagOptions.defaults().scope(SyncScope.CLASS)),
+                new SyncTag("syncfile_b", TestTag.create("b"), SyncTagOptions.defaults())
+            };
+            var testClass = classNode("TestClass");
+            var test = testNode(testClass, "test", "a", "b");
+            var plan = testPlan(testClass);
+            var subject = new LockIndex(tags, JupiterResourceLocks.create(false), true);
+
+            subject.planStarted(plan);
+
+            var classEntry = subject.find(plan.getTestIdentifier(testClass.getUniqueId()));
+            assertThat(classEntry).isNotNull();
+            assertThat(classEntry.lockModes()).containsExactly(LockMode.PERMIT, null);
+            var testEntry = subject.find(plan.getTestIdentifier(test.getUniqueId()));
+            assertThat(testEntry).isNotNull();
+            assertThat(testEntry.ancestors()).containsExactly(classEntry, null);
+        }
+
+        @Test
+        @DisplayName("should not acquire tags that are held by ancestors")
+        void should_not_acquire_tags_that_are_held_by_ancestors() {
+            var tags = new SyncTag[]{
+                new SyncTag("syncfile_a", TestTag.create("a"), SyncTagOptions.defaults().scope(SyncScope.CLASS)),
+                new SyncTag("syncfile_b", TestTag.create("b"), SyncTagOptions.defaults())
+            };
+            var testClass = classNode("TestClass", "a");
+            var test = testNode(testClass, "test", "a", "b");
+            var plan = testPlan(testClass);
+            var subject = new LockIndex(tags, JupiterResourceLocks.create(false), true);
+            subject.planStarted(plan);
+            var classEntry = subject.find(plan.getTestIdentifier(testClass.getUniqueId()));
+            var testEntry = subject.find(plan.getTestIdentifier(test.getUniqueId()));
+            assertThat(classEntry).isNotNull();
+            assertThat(testEntry).isNotNull();
+            assertThat(testEntry.ancestors()).containsExactly(classEntry, null);
+
+            // ancestor failed to take the tag, so the test takes it itself
+            assertThat(testEntry.lockModesToAcquire()).containsExactly(LockMode.PERMIT, LockMode.PERMIT);
+
+            classEntry.holders()[0] = new LockHolder(tags[0], LockMode.PERMIT, 0, new Object());
+            assertThat(testEntry.lockModesToAcquire()).containsExactly(null, LockMode.PERMIT);
+            assertThat(testEntry.lockModes()).containsExactly(LockMode.PERMIT, LockMode.PERMIT);
+
+            classEntry.holders()[0] = null;
+            assertThat(testEntry.lockModesToAcquire()).containsExactly(LockMode.PERMIT, LockMode.PERMIT);
+        }
+
+        @Test
+        @DisplayName("should index only tests that require sync tags when no tag is held by containers")
+        void should_index_only_tests_that_require_sync_tags_when_no_tag_is_held_by_containers() {
+            var tags = new SyncTag[]{new SyncTag("syncfile_a", TestTag.create("a"), SyncTagOptions.defaults())};
+            var testClass = classNode("TestClass", "a");
+            var tagged = testNode(testClass, "tagged", "a");
+            var untagged = testNode(testClass, "untagged");
+            var otherTag = testNode(testClass, "otherTag", "not_a_sync_tag");
+            var plan = testPlan(testClass);
+            var subject = new LockIndex(tags, JupiterResourceLocks.create(false), false);
+
+            subject.planStarted(plan);
+
+            assertThat(subject.find(plan.getTestIdentifier(testClass.getUniqueId()))).isNull();
+            assertThat(subject.find(plan.getTestIdentifier(untagged.getUniqueId()))).isNull();
+            assertThat(subject.find(plan.getTestIdentifier(otherTag.getUniqueId()))).isNull();
+            var taggedEntry = subject.find(plan.getTestIdentifier(tagged.getUniqueId()));
+            assertThat(taggedEntry).isNotNull();
+            assertThat(taggedEntry.lockModes()).containsExactly(LockMode.PERMIT);
+            assertThat(taggedEntry.requiredTags()).isEqualTo(1);
+            assertThat(taggedEntry.ancestors()).isNull();
+            assertThat(subject.entries()).containsExactly(taggedEntry);
+        }
+
+        @Test
+        @DisplayName("should take scoped tag with every container of the subtree that requires it")
+        void should_take_scoped_tag_with_every_container_of_the_subtree_that_requires_it() {
+            var tags = new SyncTag[]{new SyncTag("syncfile_a", TestTag.create("a"), SyncTagOptions.defaults().scope(SyncScope.CLASS))};
+            var outerClass = classNode("OuterClass");
+            var untaggedClass = nestedClassNode(outerClass, "UntaggedClass");
+            testNode(untaggedClass, "untagged");
+            var nestedClass = nestedClassNode(outerClass, "NestedClass");
+            var test = testNode(nestedClass, "test", "a");
+            var plan = testPlan(outerClass);
+            var subject = new LockIndex(tags, JupiterResourceLocks.create(false), true);
+
+            subject.planStarted(plan);
+
+            var outerEntry = subject.find(plan.getTestIdentifier(outerClass.getUniqueId()));
+            assertThat(outerEntry).isNotNull();
+            assertThat(outerEntry.lockModes()).containsExactly(LockMode.PERMIT);
+            assertThat(outerEntry.ancestors()).isNull();
+            assertThat(subject.find(plan.getTestIdentifier(untaggedClass.getUniqueId()))).isNull();
+            var nestedEntry = subject.find(plan.getTestIdentifier(nestedClass.getUniqueId()));
+            assertThat(nestedEntry).isNotNull();
+            assertThat(nestedEntry.ancestors()).containsExactly(outerEntry);
+            var testEntry = subject.find(plan.getTestIdentifier(test.getUniqueId()));
+            assertThat(testEntry).isNotNull();
+            assertThat(testEntry.ancestors()).containsExactly(nestedEntry);
+        }
+
+        @Test
+        @DisplayName("should index dynamic tests registered after the plan started")
+        void should_index_dynamic_tests_registered_after_the_plan_started() {
+            var tags = new SyncTag[]{
+                new SyncTag("syncfile_a", TestTag.create("a"), SyncTagOptions.defaults().scope(SyncScope.CLASS)),
+                new SyncTag("syncfile_b", TestTag.create("b"), SyncTagOptions.defaults())
+            };
+            var testClass = classNode("TestClass");
+            var factory = templateNode(testClass, "factory", "a");
+            var plan = testPlan(testClass);
+            var subject = new LockIndex(tags, JupiterResourceLocks.create(false), true);
+            subject.planStarted(plan);
+            var classEntry = subject.find(plan.getTestIdentifier(testClass.getUniqueId()));
+            assertThat(classEntry).isNotNull();
+
+            var dynamicTest = TestIdentifier.from(testNode(factory, "dynamicTest", "a", "b"));
+            var untaggedDynamicTest = TestIdentifier.from(testNode(factory, "untaggedDynamicTest"));
+            plan.addInternal(dynamicTest);
+            plan.addInternal(untaggedDynamicTest);
+            subject.dynamicTestRegistered(dynamicTest);
+            subject.dynamicTestRegistered(untaggedDynamicTest);
+
+            var dynamicTestEntry = subject.find(dynamicTest);
+            assertThat(dynamicTestEntry).isNotNull();
+            assertThat(dynamicTestEntry.lockModes()).containsExactly(LockMode.PERMIT, LockMode.PERMIT);
+            assertThat(dynamicTestEntry.ancestors()).containsExactly(classEntry, null);
+            assertThat(subject.find(untaggedDynamicTest)).isNull();
+        }
+    }
+
+    @Nested
+    class SyncScopeTest implements UnitTest {
+
+        @Test
+        @DisplayName("should match containers of the scope")
+        void should_match_containers_of_the_scope() {
+            var testClass = classNode("TestClass");
+            var template = templateNode(testClass, "template");
+            var test = testNode(template, "test");
+            var classIdentifier = TestIdentifier.from(testClass);
+            var templateIdentifier = TestIdentifier.from(template);
+            var testIdentifier = TestIdentifier.from(test);
+
+            assertThat(SyncScope.TEST.isScopeContainer(classIdentifier)).isFalse();
+            assertThat(SyncScope.TEST.isScopeContainer(templateIdentifier)).isFalse();
+            assertThat(SyncScope.TEST.isScopeContainer(testIdentifier)).isFalse();
+            assertThat(SyncScope.CLASS.isScopeContainer(classIdentifier)).isTrue();
+            assertThat(SyncScope.CLASS.isScopeContainer(templateIdentifier)).isFalse();
+            assertThat(SyncScope.CLASS.isScopeContainer(testIdentifier)).isFalse();
+            assertThat(SyncScope.TEMPLATE.isScopeContainer(classIdentifier)).isFalse();
+            assertThat(SyncScope.TEMPLATE.isScopeContainer(templateIdentifier)).isTrue();
+            assertThat(SyncScope.TEMPLATE.isScopeContainer(testIdentifier)).isFalse();
+        }
+    }
+
+    @Nested
+    class WaitForGraphTest implements UnitTest {
+
+        @Test
+        @DisplayName("should find cycle when another JVM holds the awaited tag and waits for the held one")
+        void should_find_cycle_when_another_jvm_holds_the_awaited_tag_and_waits_for_the_held_one() {
+            useTempDir(dir -> {
+                var tagA = new SyncTag("syncfile_a", TestTag.create("a"), SyncTagOptions.defaults());
+                var tagB = new SyncTag("syncfile_b", TestTag.create("b"), SyncTagOptions.defaults());
+                var subject = new WaitForGraph(dir, 1L);
+                subject.held(tagA, "[test:first]", new LockHolder(tagA, LockMode.PERMIT, 0, new Object()));
+                var wait = subject.waitStarted(tagB, "[test:first]");
+                var now = System.currentTimeMillis() + 10_000L;
+                Files.write(dir.resolve(WaitForGraph.FILE_PREFIX + 2L), List.of("H\tb\t[test:second]"));
+
+                assertThat(subject.check(now)).isNull();
+                assertThat(dir.resolve(WaitForGraph.FILE_PREFIX + 1L)).exists();
+
+                Files.write(dir.resolve(WaitForGraph.FILE_PREFIX + 2L), List.of("H\tb\t[test:second]", "W\ta\t[test:second]"));
+                var cycle = subject.check(now);
+
+                assertThat(cycle).isNotNull();
+                assertThat(cycle.indexOf("pid [1] holds [a\t[test:first]] and waits for [b\t[test:first]]")).isNotNegative();
+                assertThat(cycle.indexOf("pid [2] holds [b\t[test:second]] and waits for [a\t[test:second]]")).isGreaterThan(cycle.indexOf("pid [1]"));
+                subject.waitFinished(wait, null);
+            });
+        }
+
+        @Test
+        @DisplayName("should ignore and delete state left over by a JVM that stopped publishing it")
+        void should_ignore_and_delete_state_left_over_by_a_jvm_that_stopped_publishing_it() {
+            useTempDir(dir -> {
+                var tagA = new SyncTag("syncfile_a", TestTag.create("a"), SyncTagOptions.defaults());
+                var tagB = new SyncTag("syncfile_b", TestTag.create("b"), SyncTagOptions.defaults());
+                var subject = new WaitForGraph(dir, 1L);
+                subject.held(tagA, "[test:first]", new LockHolder(tagA, LockMode.PERMIT, 0, new Object()));
+                var wait = subject.waitStarted(tagB, "[test:first]");
+                var now = System.currentTimeMillis() + 10_000L;
+                var staleFile = Files.write(dir.resolve(WaitForGraph.FILE_PREFIX + 2L), List.of("H\tb\t[test:second]", "W\ta\t[test:second]"));
+                Files.setLastModifiedTime(staleFile, FileTime.fromMillis(System.currentTimeMillis() - 2 * WaitForGraph.STALE_STATE_MILLIS));
+
+                assertThat(subject.check(now)).isNull();
+                assertThat(subject.check(now)).isNull();
+                assertThat(staleFile).doesNotExist();
+                assertThat(dir.resolve(WaitForGraph.FILE_PREFIX + 1L)).exists();
+                subject.waitFinished(wait, null);
+            });
+        }
+
+        @Test
+        @DisplayName("should not publish state before the wait is long")
+        void should_not_publish_state_before_the_wait_is_long() {
+            useTempDir(dir -> {
+                var tagA = new SyncTag("syncfile_a", TestTag.create("a"), SyncTagOptions.defaults());
+                var subject = new WaitForGraph(dir, 1L);
+                var wait = subject.waitStarted(tagA, "[test:first]");
+                Files.write(dir.resolve(WaitForGraph.FILE_PREFIX + 2L), List.of("H\ta\t[test:second]", "W\ta\t[test:second]"));
+
+                assertThat(subject.check(System.currentTimeMillis())).isNull();
+                assertThat(dir.resolve(WaitForGraph.FILE_PREFIX + 1L)).doesNotExist();
+                subject.waitFinished(wait, null);
+            });
+        }
+    }
+
+    @Nested
+    class ManagedLockWaitTest implements UnitTest {
+
+        @Test
+        @DisplayName("should let fork join pool run other tasks while its only worker waits for a tag")
+        void should_let_fork_join_pool_run_other_tasks_while_its_only_worker_waits_for_a_tag() {
+            useTempFile(file -> {
+                try (var channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    var subject = new SyncTag(file.toString(), TestTag.create("qwe"), channel);
+                    var holder = subject.acquire();
+                    assertThat(holder).isNotNull();
+                    var pool = new ForkJoinPool(1);
+                    try {
+                        var waiter = pool.submit(() -> ManagedLockWait.acquire(subject, LockMode.PERMIT, 0, 0L));
+                        Thread.sleep(100);
+                        assertThat(waiter).isNotDone();
+
+                        // without compensation, the task would be queued behind the blocked worker
+                        assertThat(pool.submit(() -> "ran").get(5, TimeUnit.SECONDS)).isEqualTo("ran");
+
+                        holder.release();
+                        var waiterHolder = waiter.get(5, TimeUnit.SECONDS);
+                        assertThat(waiterHolder).isNotNull();
+                        waiterHolder.release();
+                    } finally {
+                        pool.shutdownNow();
+                    }
+                }
+            });
+        }
+    }
+
+    @Nested
+    class LockAffinityTest implements UnitTest {
+
+        @Test
+        @DisplayName("should group classes and methods by required sync tags with untagged ones first")
+        void should_group_classes_and_methods_by_required_sync_tags_with_untagged_ones_first() throws Exception {
+            var subject = LockAffinity.parse(
+                "qwe" + syncTagSeparator + "syncfile_qwe" + syncTagSeparator + "permits=1"
+                    + syncSysPropertySeparator
+                    + "asd" + syncTagSeparator + "syncfile_asd" + syncTagSeparator + "resourceLock=true"
+            );
+
+            assertThat(subject.classKey(Untagged.class)).isEmpty();
+            assertThat(subject.classKey(ClassTagged.class)).isEqualTo("qwe");
+            assertThat(subject.classKey(MethodTagged.class)).isEqualTo("asd,qwe");
+            assertThat(subject.methodKey(MethodTagged.class, MethodTagged.class.getDeclaredMethod("untagged"))).isEmpty();
+            assertThat(subject.methodKey(MethodTagged.class, MethodTagged.class.getDeclaredMethod("resourceLocked"))).isEqualTo("asd");
+            assertThat(subject.methodKey(ClassTagged.class, ClassTagged.class.getDeclaredMethod("tagged"))).isEqualTo("qwe");
+
+            var keys = new ArrayList<>(List.of("qwe", "", "asd,qwe", "asd", "", "qwe"));
+            keys.sort(LockAffinity.KEY_ORDER);
+            assertThat(keys).containsExactly("", "", "asd", "asd,qwe", "qwe", "qwe");
+        }
+
+        private static final class Untagged {
+
+            @Tag("not_a_sync_tag")
+            void untagged() {
+            }
+        }
+
+        @Tag("qwe")
+        private static final class ClassTagged {
+
+            void tagged() {
+            }
+        }
+
+        private static final class MethodTagged {
+
+            void untagged() {
+            }
+
+            @Tag("qwe")
+            void tagged() {
+            }
+
+            @ResourceLock("asd")
+            void resourceLocked() {
+            }
+        }
+    }
+
+    @Nested
+    class LockServerTest implements UnitTest {
+
+        @Test
+        @DisplayName("should grant waiting lock when connection of the holder is closed")
+        void should_grant_waiting_lock_when_connection_of_the_holder_is_closed() {
+            useTempDir(dir -> {
+                var socketPath = dir.resolve(Constants.COORDINATOR_SOCKET_FILE_NAME);
+                try (var server = LockServer.unix(socketPath)) {
+                    var holderBackend = SocketLockBackend.unix(socketPath);
+                    var holder = holderBackend.processLock(new SyncTag("syncfile", TestTag.create("qwe"), SyncTagOptions.defaults()));
+                    var waiter = SocketLockBackend.unix(socketPath).processLock(new SyncTag("syncfile", TestTag.create("qwe"), SyncTagOptions.defaults()));
+                    assertThat(holder.tryLock(LockMode.EXCLUSIVE, -1)).isNotNull();
+                    assertThat(waiter.tryLock(LockMode.PERMIT, 0)).isNull();
+
+                    var lock = CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return waiter.lock(LockMode.PERMIT, 0);
+                        } catch (Exception e) {
+                            throw BaseTest.hide(e);
+                        }
+                    });
+                    holderBackend.close();
+                    assertThat(lock.get(5, TimeUnit.SECONDS)).isNotNull();
+                    assertThat(server.summary()).contains("[qwe]");
+                }
+            });
+        }
+
+        @Test
+        @DisplayName("should grant permits up to the limit and queue the rest in arrival order")
+        void should_grant_permits_up_to_the_limit_and_queue_the_rest_in_arrival_order() {
+            useTempDir(dir -> {
+                var socketPath = dir.resolve(Constants.COORDINATOR_SOCKET_FILE_NAME);
+                try (var server = LockServer.unix(socketPath)) {
+                    var first = SocketLockBackend.unix(socketPath).processLock(new SyncTag("syncfile", TestTag.create("qwe"), SyncTagOptions.defaults().permits(2)));
+                    var second = SocketLockBackend.unix(socketPath).processLock(new SyncTag("syncfile", TestTag.create("qwe"), SyncTagOptions.defaults().permits(2)));
+                    var firstPermit = first.lock(LockMode.PERMIT, 0);
+                    var secondPermit = second.lock(LockMode.PERMIT, 0);
+                    assertThat(first.tryLock(LockMode.PERMIT, 1)).isNull();
+
+                    var exclusive = CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return first.lock(LockMode.EXCLUSIVE, -1);
+                        } catch (Exception e) {
+                            throw BaseTest.hide(e);
+                        }
+                    });
+                    first.release(firstPermit);
+                    Thread.sleep(100);
+                    // queued exclusive request is not overtaken, even though a permit is free
+                    assertThat(exclusive).isNotDone();
+                    assertThat(second.tryLock(LockMode.PERMIT, 1)).isNull();
+
+                    second.release(secondPermit);
+                    assertThat(exclusive.get(5, TimeUnit.SECONDS)).isNotNull();
+                }
+            });
+        }
+
+        @Test
+        @DisplayName("should coordinate backends from service loader over loopback TCP")
+        void should_coordinate_backends_from_service_loader_over_loopback_tcp() {
+            useTempDir(dir -> {
+                try (var server = LockServer.tcp(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+                    var first = LockBackend.create(Constants.BACKEND_TCP, dir, server.address());
+                    var second = LockBackend.create(Constants.BACKEND_TCP, dir, server.address());
+                    assertThat(first).isInstanceOf(SocketLockBackend.class);
+                    assertThat(second).isInstanceOf(SocketLockBackend.class);
+                    var firstLock = first.processLock(new SyncTag("first_syncfile", TestTag.create("qwe"), SyncTagOptions.defaults()));
+                    var secondLock = second.processLock(new SyncTag("second_syncfile", TestTag.create("qwe"), SyncTagOptions.defaults()));
+
+                    var exclusive = firstLock.tryLock(LockMode.EXCLUSIVE, -1);
+                    assertThat(exclusive).isNotNull();
+                    // tags are matched by name, sync file paths differ between hosts
+                    assertThat(secondLock.tryLock(LockMode.SHARED, -1)).isNull();
+                    firstLock.release(exclusive);
+                    assertThat(secondLock.lock(LockMode.SHARED, -1)).isNotNull();
+                }
+            });
+        }
+    }
+
+    private static void awaitQueueSize(TicketQueue queue, int size) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (queue.size() < size) {
+            assertThat(System.nanoTime()).as("queue size reaches %s", size).isLessThan(deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static TestPlan testPlan(TestDescriptor... roots) {
+        var launcher = LauncherFactory.create(
+            LauncherConfig.builder()
+                .enableTestEngineAutoRegistration(false)
+                .enableTestExecutionListenerAutoRegistration(false)
+                .enableLauncherDiscoveryListenerAutoRegistration(false)
+                .enablePostDiscoveryFilterAutoRegistration(false)
+                .addTestEngines(new PlanEngine(roots))
+                .build()
+        );
+        return launcher.discover(LauncherDiscoveryRequestBuilder.request().build());
+    }
+
+    private static PlanNode classNode(String className, String... tags) {
+        return new PlanNode(UniqueId.forEngine(PlanEngine.ID).append("class", className), TestDescriptor.Type.CONTAINER, ClassSource.from(className), tags);
+    }
+
+    private static PlanNode nestedClassNode(PlanNode parent, String className, String... tags) {
+        return parent.child(new PlanNode(parent.getUniqueId().append("nested-class", className), TestDescriptor.Type.CONTAINER, ClassSource.from(className), tags));
+    }
+
+    private static PlanNode templateNode(PlanNode parent, String methodName, String... tags) {
+        return parent.child(new PlanNode(parent.getUniqueId().append("test-template", methodName), TestDescriptor.Type.CONTAINER, methodSource(parent, methodName), tags));
+    }
+
+    private static PlanNode testNode(PlanNode parent, String methodName, String... tags) {
+        return parent.child(new PlanNode(parent.getUniqueId().append("test", methodName), TestDescriptor.Type.TEST, methodSource(parent, methodName), tags));
+    }
+
+    private static MethodSource methodSource(PlanNode parent, String methodName) {
+        var className = parent.getSource().orElseThrow() instanceof MethodSource methodSource
+            ? methodSource.getClassName()
+            : ((ClassSource) parent.getSource().orElseThrow()).getClassName();
+        return MethodSource.from(className, methodName);
+    }
+
+    /**
+     * Process lock of other JVMs, with a semaphore per slot, modes other than {@link LockMode#PERMIT} use the first one.
+     */
+    private static final class SemaphoreProcessLock implements ProcessLock {
+
+        private final Semaphore[] slotLocks;
+        private final boolean slotted;
+
+        SemaphoreProcessLock(int slots, boolean slotted) {
+            this.slotLocks = new Semaphore[slots];
+            for (var i = 0; i < slots; i++) {
+                slotLocks[i] = new Semaphore(1);
+            }
+            this.slotted = slotted;
+        }
+
+        @Override
+        public Object lock(LockMode mode, int slot) {
+            var slotLock = slotLocks[Math.max(slot, 0)];
+            slotLock.acquireUninterruptibly();
+            return slotLock;
+        }
+
+        @Override
+        public Object tryLock(LockMode mode, int slot) {
+            var slotLock = slotLocks[Math.max(slot, 0)];
+            return slotLock.tryAcquire() ? slotLock : null;
+        }
+
+        @Override
+        public void release(Object lock) {
+            ((Semaphore) lock).release();
+        }
+
+        @Override
+        public boolean slotted() {
+            return slotted;
+        }
+    }
+
+    /**
+     * Process lock that is always granted right away, and records requested modes and releases.
+     */
+    private static final class CountingProcessLock implements ProcessLock {
+
+        private final List<LockMode> lockModes = new CopyOnWriteArrayList<>();
+        private final AtomicInteger releases = new AtomicInteger();
+
+        @Override
+        public Object lock(LockMode mode, int slot) {
+            return tryLock(mode, slot);
+        }
+
+        @Override
+        public Object tryLock(LockMode mode, int slot) {
+            lockModes.add(mode);
+            return this;
+        }
+
+        @Override
+        public void release(Object lock) {
+            releases.incrementAndGet();
+        }
+    }
+
+    /**
+     * Engine that discovers a prebuilt tree of descriptors, so that the tree is seen through the real launcher.
+     */
+    private static final class PlanEngine implements TestEngine {
+
+        static final String ID = "testsync-test";
+
+        private final TestDescriptor[] roots;
+
+        PlanEngine(TestDescriptor[] roots) {
+            this.roots = roots;
+        }
+
+        @Override
+        public String getId() {
+            return ID;
+        }
+
+        @Override
+        public TestDescriptor discover(EngineDiscoveryRequest discoveryRequest, UniqueId uniqueId) {
+            var engineDescriptor = new EngineDescriptor(uniqueId, ID);
+            for (var root : roots) {
+                engineDescriptor.addChild(root);
+            }
+            return engineDescriptor;
+        }
+
+        @Override
+        public void execute(ExecutionRequest request) {
+            // tests are never executed, only their identifiers are used
+        }
+    }
+
+    private static final class PlanNode extends AbstractTestDescriptor {
+
+        private final Type type;
+        private final Set<TestTag> tags;
+
+        PlanNode(UniqueId uniqueId, Type type, TestSource source, String... tags) {
+            super(uniqueId, uniqueId.getLastSegment().getValue(), source);
+            this.type = type;
+            this.tags = Arrays.stream(tags).map(TestTag::create).collect(Collectors.toSet());
+        }
+
+        PlanNode child(PlanNode child) {
+            addChild(child);
+            return child;
+        }
+
+        @Override
+        public Type getType() {
+            return type;
+        }
+
+        @Override
+        public Set<TestTag> getTags() {
+            return tags;
+        }
+    }
 }
@@ -9,6 +9,8 @@ abstract class TestBuildService : BuildService<BuildServiceParameters.None>, Aut
     private val testSingleSyncFile: File = File.createTempFile("testsync", "gradle_test_single_sync")
     private val testMultiSyncFile: File = File.createTempFile("testsync", "gradle_test_multi_sync")
     private val testMixedSyncFile: File = File.createTempFile("testsync", "gradle-test_mixed_sync")
+    private val testScopedClassSyncFile: File = File.createTempFile("testsync", "gradle_test_scoped_class_sync")
+    private val testScopedTemplateSyncFile: File = File.createTempFile("testsync", "gradle_test_scoped_template_sync")
 
     fun testSingleSyncFile(): File {
         return testSingleSyncFile
@@ -22,10 +24,20 @@ abstract class TestBuildService : BuildService<BuildServiceParameters.None>, Aut
         return testMixedSyncFile
     }
 
+    fun testScopedClassSyncFile(): File {
+        return testScopedClassSyncFile
+    }
+
+    fun testScopedTemplateSyncFile(): File {
+        return testScopedTemplateSyncFile
+    }
+
     override fun close() {
         testSingleSyncFile.delete()
         testMultiSyncFile.delete()
         testMixedSyncFile.delete()
+        testScopedClassSyncFile.delete()
+        testScopedTemplateSyncFile.delete()
     }
 }
 
@@ -56,6 +68,8 @@ subprojects {
             systemProperty("testSingleSyncFile", buildService.get().testSingleSyncFile().absolutePath)
             systemProperty("testMultiSyncFile", buildService.get().testMultiSyncFile().absolutePath)
             systemProperty("testMixedSyncFile", buildService.get().testMixedSyncFile().absolutePath)
+            systemProperty("testScopedClassSyncFile", buildService.get().testScopedClassSyncFile().absolutePath)
+            systemProperty("testScopedTemplateSyncFile", buildService.get().testScopedTemplateSyncFile().absolutePath)
         }
     }
 
@@ -96,5 +110,21 @@ subprojects {
         extensions.configure<TestSyncExtensionView> {
             tags("my_mixed_tag_1", "my_mixed_tag_2", "my_mixed_tag_3")
         }
+    } else if (project.name.contains("scoped-tag")) {
+        if (project.name == "base-scoped-tag") {
+            project.dependencies.add("api", junitApiDep)
+            project.dependencies.add("api", junitEngineDep)
+            project.dependencies.add("api", junitPlatformDep)
+        } else {
+            dependencies.add("implementation", project(":scoped-tag:base-scoped-tag"))
+        }
+        extensions.configure<TestSyncExtensionView> {
+            tag("my_class_scoped_tag") {
+                scope("class")
+            }
+            tag("my_template_scoped_tag") {
+                scope("template")
+            }
+        }
     }
 }
@@ -0,0 +1,48 @@
+package com.varlanv.gradle;
+
+import org.junit.jupiter.api.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+@Tag("my_class_scoped_tag")
+@DisplayNameGeneration(BaseClassScopedSyncTest.DisplayName.class)
+public abstract class BaseClassScopedSyncTest {
+
+    @BeforeAll
+    static void beforeAll() throws Exception {
+        var syncFile = syncFile();
+        Assertions.assertEquals("", Files.readString(syncFile));
+        Files.write(syncFile, System.getProperty("gradleProjectName").getBytes());
+    }
+
+    @AfterAll
+    static void afterAll() throws Exception {
+        Files.write(syncFile(), "".getBytes(), StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @RepeatedTest(5)
+    void synchronized_test() throws Exception {
+        // class holds the tag from before all to after all, so no other class can claim the file in between
+        Assertions.assertEquals(System.getProperty("gradleProjectName"), Files.readString(syncFile()));
+    }
+
+    private static Path syncFile() {
+        var testSyncFilePath = System.getProperty("testScopedClassSyncFile");
+        Assertions.assertNotNull(testSyncFilePath);
+        Assertions.assertFalse(testSyncFilePath.isBlank());
+        var syncFile = Paths.get(testSyncFilePath);
+        Assertions.assertTrue(Files.exists(syncFile));
+        return syncFile;
+    }
+
+    static class DisplayName extends DisplayNameGenerator.Standard {
+
+        @Override
+        public String generateDisplayNameForClass(Class<?> testClass) {
+            return testClass.getSimpleName() + " - " + System.getProperty("gradleProjectName");
+        }
+    }
+}
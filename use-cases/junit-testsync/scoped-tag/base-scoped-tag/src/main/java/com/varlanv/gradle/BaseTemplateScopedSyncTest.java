@@ -0,0 +1,46 @@
+package com.varlanv.gradle;
+
+import org.junit.jupiter.api.*;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+@DisplayNameGeneration(BaseTemplateScopedSyncTest.DisplayName.class)
+public abstract class BaseTemplateScopedSyncTest {
+
+    @Test
+    void unsynchronized_test() {
+        // no-op
+    }
+
+    @RepeatedTest(10)
+    @Tag("my_template_scoped_tag")
+    void synchronized_test(RepetitionInfo repetitionInfo) throws Exception {
+        var testSyncFilePath = System.getProperty("testScopedTemplateSyncFile");
+        Assertions.assertNotNull(testSyncFilePath);
+        Assertions.assertFalse(testSyncFilePath.isBlank());
+        var syncFile = Paths.get(testSyncFilePath);
+        Assertions.assertTrue(Files.exists(syncFile));
+
+        // template holds the tag for all repetitions, so no other template can claim the file in between
+        var projectName = System.getProperty("gradleProjectName");
+        if (repetitionInfo.getCurrentRepetition() == 1) {
+            Assertions.assertEquals("", Files.readString(syncFile));
+            Files.write(syncFile, projectName.getBytes());
+        } else {
+            Assertions.assertEquals(projectName, Files.readString(syncFile));
+        }
+        if (repetitionInfo.getCurrentRepetition() == repetitionInfo.getTotalRepetitions()) {
+            Files.write(syncFile, "".getBytes(), StandardOpenOption.TRUNCATE_EXISTING);
+        }
+    }
+
+    static class DisplayName extends DisplayNameGenerator.Standard {
+
+        @Override
+        public String generateDisplayNameForClass(Class<?> testClass) {
+            return testClass.getSimpleName() + " - " + System.getProperty("gradleProjectName");
+        }
+    }
+}
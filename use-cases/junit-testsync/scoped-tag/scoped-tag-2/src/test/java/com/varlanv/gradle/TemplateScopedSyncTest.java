@@ -0,0 +1,4 @@
+package com.varlanv.gradle;
+
+public class TemplateScopedSyncTest extends BaseTemplateScopedSyncTest {
+}
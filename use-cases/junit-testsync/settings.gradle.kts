@@ -53,5 +53,11 @@ include(
     "mixed-tag:mixed-tag-7",
     "mixed-tag:mixed-tag-8",
     "mixed-tag:mixed-tag-9",
-    "mixed-tag:mixed-tag-10"
+    "mixed-tag:mixed-tag-10",
+    "scoped-tag:base-scoped-tag",
+    "scoped-tag:scoped-tag-1",
+    "scoped-tag:scoped-tag-2",
+    "scoped-tag:scoped-tag-3",
+    "scoped-tag:scoped-tag-4",
+    "scoped-tag:scoped-tag-5"
 )